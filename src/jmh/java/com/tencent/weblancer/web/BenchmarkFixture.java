@@ -0,0 +1,154 @@
+package com.tencent.weblancer.web;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.json.JsonReadFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.tencent.weblancer.external.JacksonBindingConfiguration;
+import com.tencent.weblancer.web.conf.DynamicInterfaceDefinition;
+import com.tencent.weblancer.web.conf.JsonInterfaceDefinition;
+import com.tencent.weblancer.web.repo.DataSourceRegistry;
+import lombok.Getter;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+
+/**
+ * An in-memory H2 dataSource and one typical list interface on it, shared by the benchmarks.
+ *
+ * @author fishzhao
+ * @since 2021-03-09
+ */
+public final class BenchmarkFixture implements AutoCloseable {
+
+  public static final String DATA_SOURCE_ID = "bench";
+  public static final String URI = "/ka/list";
+  public static final String STMT_ID = "bench(/ka/list)#0";
+  public static final int ROW_COUNT = 1000;
+
+  private static final String INTERFACE =
+      "{'dataSourceId': 'bench',"
+          + " 'uri': '/ka/list',"
+          + " 'sql': ["
+          + "   '<script>',"
+          + "   'select ka_id, name, status, score, amount, online from ka_info',"
+          + "   '<where>',"
+          + "   '  <if test=\"status != null\">status = #{status}</if>',"
+          + "   '  <if test=\"minKaId != null\">and ka_id &gt;= #{minKaId}</if>',"
+          + "   '</where>',"
+          + "   'order by ka_id limit #{limit}',"
+          + "   '</script>'],"
+          + " 'validation': {"
+          + "   'type': 'object',"
+          + "   'required': ['limit'],"
+          + "   'properties': {"
+          + "     'status': {'type': 'string', 'enum': ['online', 'offline']},"
+          + "     'minKaId': {'type': 'integer', 'minimum': 0},"
+          + "     'limit': {'type': 'integer', 'minimum': 1, 'maximum': 1000}}}}";
+
+  @Getter private final ObjectMapper objectMapper = new ObjectMapper();
+  @Getter private final DataSourceRegistry dataSourceRegistry = new DataSourceRegistry();
+  @Getter private final DynamicInterfaceDefinition definition;
+
+  public BenchmarkFixture() {
+    ObjectMapper configMapper =
+        new ObjectMapper()
+            .enable(JsonParser.Feature.ALLOW_COMMENTS)
+            .enable(JsonReadFeature.ALLOW_SINGLE_QUOTES.mappedFeature());
+    try {
+      this.definition = configMapper.readValue(INTERFACE, JsonInterfaceDefinition.class);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    ObjectNode dataSourceConfig =
+        objectMapper
+            .createObjectNode()
+            .put("jdbcUrl", "jdbc:h2:mem:web-lancer;DB_CLOSE_DELAY=-1")
+            .put("maximumPoolSize", 4);
+    dataSourceRegistry.registerDataSourceConfig(DATA_SOURCE_ID, dataSourceConfig);
+    try {
+      populate(getDataSource());
+    } catch (SQLException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void populate(DataSource dataSource) throws SQLException {
+    try (Connection connection = dataSource.getConnection()) {
+      try (Statement statement = connection.createStatement()) {
+        statement.execute("drop table if exists ka_info");
+        statement.execute(
+            "create table ka_info(ka_id int primary key, name varchar(64), status varchar(16),"
+                + " score decimal(10, 2), amount bigint, online boolean)");
+      }
+      try (PreparedStatement statement =
+          connection.prepareStatement("insert into ka_info values(?, ?, ?, ?, ?, ?)")) {
+        for (int i = 0; i < ROW_COUNT; i++) {
+          boolean online = i % 4 != 0;
+          statement.setInt(1, i);
+          statement.setString(2, "ka-" + i);
+          statement.setString(3, online ? "online" : "offline");
+          statement.setBigDecimal(4, BigDecimal.valueOf(i * 7L, 2));
+          statement.setLong(5, i * 100_000L);
+          statement.setBoolean(6, online);
+          statement.addBatch();
+        }
+        statement.executeBatch();
+      }
+    }
+  }
+
+  public DataSource getDataSource() {
+    return dataSourceRegistry.apply(DATA_SOURCE_ID);
+  }
+
+  /** The same mybatis setup as {@link HttpRequestHandlerBuilder}, with a fixed {@link #STMT_ID}. */
+  public SqlSessionFactory createSqlSessionFactory() {
+    JacksonBindingConfiguration configuration =
+        new JacksonBindingConfiguration(
+            new Environment(DATA_SOURCE_ID, new JdbcTransactionFactory(), getDataSource()),
+            objectMapper);
+    configuration.addMappedStatement(
+        new MappedStatement.Builder(
+                configuration,
+                STMT_ID,
+                configuration
+                    .getLanguageRegistry()
+                    .getDefaultDriver()
+                    .createSqlSource(
+                        configuration,
+                        StringUtils.join(definition.getSqlScriptSegments(), ' ').trim(),
+                        ObjectNode.class),
+                SqlCommandType.SELECT)
+            .resultMaps(
+                Collections.singletonList(
+                    new ResultMap.Builder(
+                            configuration,
+                            STMT_ID + "-resultMap",
+                            ObjectNode.class,
+                            Collections.emptyList())
+                        .build()))
+            .build());
+    return new SqlSessionFactoryBuilder().build(configuration);
+  }
+
+  @Override
+  public void close() {
+    dataSourceRegistry.close();
+  }
+}
@@ -0,0 +1,122 @@
+package com.tencent.weblancer.web;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpVersion;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.ServerSocket;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole request over loopback http, through the router built by {@link
+ * HttpRequestHandlerBuilder}, against the same H2 interface as the stage benchmarks. Use {@code
+ * -t} to measure under concurrency, the throughput of more {@link HttpServerVerticle} instances
+ * scales with the cores, e.g. {@code -bm thrpt -t 32 -p instances=1,8}. With {@code HTTP_2} all
+ * requests are multiplexed over a single h2c connection of prior knowledge, while {@code HTTP_1_1}
+ * opens a connection per concurrent request.
+ *
+ * @author fishzhao
+ * @since 2021-03-09
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback.xml")
+public class EndToEndBenchmark {
+
+  @Param({"1", "100"})
+  public int rows;
+
+  @Param({"1", "4"})
+  public int instances;
+
+  @Param({"HTTP_1_1", "HTTP_2"})
+  public HttpVersion protocol;
+
+  private BenchmarkFixture fixture;
+  private Vertx vertx;
+  private HttpClient httpClient;
+  private Buffer body;
+
+  @Setup
+  public void setup() throws Exception {
+    fixture = new BenchmarkFixture();
+    vertx =
+        Vertx.vertx(
+            new VertxOptions()
+                .setEventLoopPoolSize(
+                    Math.max(instances, VertxOptions.DEFAULT_EVENT_LOOP_POOL_SIZE)));
+    HttpRequestHandlerBuilder builder =
+        new HttpRequestHandlerBuilder(
+            vertx,
+            fixture.getDataSourceRegistry(),
+            Collections.singletonList(fixture.getDefinition()));
+    int port;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    HttpServerVerticle.deploy(
+            vertx, new HttpServerOptions().setTcpNoDelay(true), port, builder.get(), instances)
+        .toCompletionStage()
+        .toCompletableFuture()
+        .get();
+    httpClient =
+        vertx.createHttpClient(
+            new HttpClientOptions()
+                .setDefaultPort(port)
+                .setTcpNoDelay(true)
+                .setMaxPoolSize(64)
+                .setProtocolVersion(protocol)
+                .setHttp2ClearTextUpgrade(false)
+                .setHttp2MaxPoolSize(1));
+    body = Buffer.buffer("{\"status\":\"online\",\"minKaId\":0,\"limit\":" + rows + "}");
+    String response = request().toString();
+    if (!response.startsWith("{\"code\":0,")) {
+      throw new IllegalStateException("unexpected response: " + response);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    httpClient.close();
+    vertx.close().toCompletionStage().toCompletableFuture().get();
+    fixture.close();
+  }
+
+  @Benchmark
+  public Buffer request() throws Exception {
+    return httpClient
+        .request(HttpMethod.POST, BenchmarkFixture.URI)
+        .compose(
+            request ->
+                request
+                    .putHeader("content-type", "application/json")
+                    .send(body)
+                    .compose(HttpClientResponse::body))
+        .toCompletionStage()
+        .toCompletableFuture()
+        .get();
+  }
+}
@@ -0,0 +1,218 @@
+package com.tencent.weblancer.web.handler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.tencent.weblancer.web.BenchmarkFixture;
+import com.tencent.weblancer.web.conf.CompressionDefinition;
+import com.tencent.weblancer.web.conf.ResultLayout;
+import com.tencent.weblancer.web.metrics.InterfaceMetrics;
+import com.tencent.weblancer.web.validation.ParameterValidator;
+import com.tencent.weblancer.web.validation.ParameterValidators;
+import io.netty.buffer.ByteBuf;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures every stage of {@link GeneralQueryHandler} separately against an in-memory H2:
+ *
+ * <ul>
+ *   <li>{@code resolveQueryString}/{@code resolveBody}: parameter resolution
+ *   <li>{@code validate}: schema validation
+ *   <li>{@code renderSql}: mybatis dynamic sql rendering against the {@link ObjectNode}
+ *   <li>{@code jdbc}: the bare jdbc round trip of the rendered sql, the baseline of {@code query}
+ *   <li>{@code query}: rendering, jdbc and result mapping through the jackson type handlers
+ *   <li>{@code serialize}: envelope serialization
+ *   <li>{@code queryDirect}/{@code queryColumnar}: rendering, jdbc and the envelope of rows or
+ *       columns written straight from the result set, the counterpart of {@code query} plus {@code
+ *       serialize}
+ *   <li>{@code gzip}/{@code zstd}: compression of the serialized envelope at the default levels
+ * </ul>
+ *
+ * The cost of result mapping is roughly {@code query - renderSql - jdbc}. The allocation of a row
+ * written directly is the difference of {@code queryDirect} between the two row counts divided by
+ * 99. Responses are written into pooled buffers, so {@code -prof gc} shows the heap allocated per
+ * response besides them.
+ *
+ * @author fishzhao
+ * @since 2021-03-09
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback.xml")
+public class HandlerStageBenchmark {
+
+  @Param({"1", "100"})
+  public int rows;
+
+  private BenchmarkFixture fixture;
+  private Vertx vertx;
+  private GeneralQueryHandler handler;
+  private ParameterValidator validator;
+  private ParameterResolver resolver;
+  private MappedStatement mappedStatement;
+  private String queryString;
+  private Buffer body;
+  private ObjectNode params;
+  private String sql;
+  private ArrayNode resultRows;
+  private ResponseCompressor compressor;
+  private ByteBuf serialized;
+
+  @Setup
+  public void setup() throws IOException {
+    fixture = new BenchmarkFixture();
+    vertx = Vertx.vertx();
+    SqlSessionFactory sqlSessionFactory = fixture.createSqlSessionFactory();
+    validator =
+        fixture.getDefinition().getParameterValidation().map(ParameterValidators::compile).get();
+    resolver = ParameterResolver.compile(fixture.getDefinition(), fixture.getObjectMapper());
+    handler =
+        new GeneralQueryHandler(
+            resolver,
+            validator,
+            sqlSessionFactory,
+            BenchmarkFixture.STMT_ID,
+            false,
+            false,
+            null,
+            false,
+            null,
+            null,
+            0L,
+            1024 * 1024L,
+            null,
+            ResultLayout.ROWS,
+            fixture.getObjectMapper(),
+            fixture
+                .getDataSourceRegistry()
+                .workerExecutor(BenchmarkFixture.DATA_SOURCE_ID, vertx),
+            null,
+            null,
+            fixture.getDataSourceRegistry().concurrencyLimit(BenchmarkFixture.DATA_SOURCE_ID),
+            InterfaceMetrics.NOOP);
+    mappedStatement =
+        sqlSessionFactory.getConfiguration().getMappedStatement(BenchmarkFixture.STMT_ID);
+    queryString = "status=online&minKaId=0&limit=" + rows;
+    body = Buffer.buffer("{\"status\":\"online\",\"minKaId\":0,\"limit\":" + rows + "}");
+    params = resolver.resolve(null, body);
+    sql = mappedStatement.getBoundSql(params).getSql();
+    resultRows = handler.queryRows(params);
+    if (resultRows.size() != rows) {
+      throw new IllegalStateException("unexpected result size: " + resultRows.size());
+    }
+    compressor = new ResponseCompressor(new CompressionDefinition(0, 0, 0));
+    serialized = handler.serialize(handler.wrapDbResult(resultRows));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    serialized.release();
+    vertx.close();
+    fixture.close();
+  }
+
+  @Benchmark
+  public ObjectNode resolveQueryString() throws IOException {
+    return resolver.resolve(queryString, (JsonNode) null);
+  }
+
+  @Benchmark
+  public ObjectNode resolveBody() throws IOException {
+    return resolver.resolve(null, body);
+  }
+
+  @Benchmark
+  public List<String> validate() {
+    return validator.validate(params);
+  }
+
+  @Benchmark
+  public BoundSql renderSql() {
+    return mappedStatement.getBoundSql(params);
+  }
+
+  @Benchmark
+  public void jdbc(Blackhole blackhole) throws SQLException {
+    try (Connection connection = fixture.getDataSource().getConnection();
+        PreparedStatement statement = connection.prepareStatement(sql)) {
+      statement.setString(1, "online");
+      statement.setInt(2, 0);
+      statement.setInt(3, rows);
+      try (ResultSet resultSet = statement.executeQuery()) {
+        int columnCount = resultSet.getMetaData().getColumnCount();
+        while (resultSet.next()) {
+          for (int i = 1; i <= columnCount; i++) {
+            blackhole.consume(resultSet.getObject(i));
+          }
+        }
+      }
+    }
+  }
+
+  @Benchmark
+  public ArrayNode query() {
+    return handler.queryRows(params);
+  }
+
+  @Benchmark
+  public int serialize() {
+    return release(handler.serialize(handler.wrapDbResult(resultRows)));
+  }
+
+  @Benchmark
+  public int queryDirect() {
+    return release(handler.queryDirect(params, ResultLayout.ROWS, ResponseFormat.JSON).content());
+  }
+
+  @Benchmark
+  public int queryColumnar() {
+    return release(
+        handler.queryDirect(params, ResultLayout.COLUMNAR, ResponseFormat.JSON).content());
+  }
+
+  @Benchmark
+  public int gzip() {
+    return release(compressor.compress(serialized, ContentCoding.GZIP));
+  }
+
+  @Benchmark
+  public int zstd() {
+    return release(compressor.compress(serialized, ContentCoding.ZSTD));
+  }
+
+  /** Gives the pooled buffer back as the connection does once it is written. */
+  private static int release(ByteBuf content) {
+    int length = content.readableBytes();
+    content.release();
+    return length;
+  }
+}
@@ -0,0 +1,77 @@
+package com.tencent.weblancer.web.validation;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.networknt.schema.JsonSchema;
+import com.networknt.schema.JsonSchemaFactory;
+import com.networknt.schema.SpecVersion;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the networknt validator with the compiled fast path on the payload of a typical point
+ * lookup interface.
+ *
+ * @author fishzhao
+ * @since 2021-03-08
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback.xml")
+public class SchemaValidationBenchmark {
+
+  private static final String SCHEMA =
+      "{\"type\":\"object\",\"required\":[\"kaId\"],\"properties\":{"
+          + "\"kaId\":{\"type\":\"integer\",\"minimum\":1},"
+          + "\"status\":{\"type\":\"string\",\"enum\":[\"online\",\"offline\"]},"
+          + "\"name\":{\"type\":\"string\",\"maxLength\":64},"
+          + "\"chanWxappScene\":{\"type\":\"array\",\"items\":{\"type\":\"integer\"}}}}";
+
+  @Param({
+    "{\"kaId\":1106}",
+    "{\"kaId\":1106,\"status\":\"online\",\"name\":\"web-lancer\",\"chanWxappScene\":[1,2,3,4]}",
+    "{\"kaId\":\"1106\",\"status\":\"unknown\"}"
+  })
+  public String payload;
+
+  private JsonNode parameters;
+  private ParameterValidator networkntValidator;
+  private ParameterValidator compiledValidator;
+
+  @Setup
+  public void setup() throws IOException {
+    ObjectMapper objectMapper = new ObjectMapper();
+    JsonSchema jsonSchema =
+        JsonSchemaFactory.getInstance(SpecVersion.VersionFlag.V4)
+            .getSchema(objectMapper.readTree(SCHEMA));
+    parameters = objectMapper.readTree(payload);
+    networkntValidator = new NetworkntParameterValidator(jsonSchema);
+    compiledValidator = ParameterValidators.compile(jsonSchema);
+  }
+
+  @Benchmark
+  public List<String> networknt() {
+    return networkntValidator.validate(parameters);
+  }
+
+  @Benchmark
+  public List<String> compiled() {
+    return compiledValidator.validate(parameters);
+  }
+}
@@ -16,6 +16,9 @@ import com.fasterxml.jackson.databind.node.TextNode;
 import com.tencent.weblancer.external.meta.JsonNodeObjectFactory;
 import com.tencent.weblancer.external.meta.JsonNodeObjectWrapperFactory;
 import com.tencent.weblancer.external.meta.JsonNodeReflectorFactory;
+import com.tencent.weblancer.external.resultset.DirectResultSetHandler;
+import com.tencent.weblancer.external.resultset.ResultSetWriter;
+import com.tencent.weblancer.external.scripting.PlannedLanguageDriver;
 import com.tencent.weblancer.external.typehandlers.BinaryNodeTypeHandler;
 import com.tencent.weblancer.external.typehandlers.BooleanNodeTypeHandler;
 import com.tencent.weblancer.external.typehandlers.DecimalNodeTypeHandler;
@@ -25,9 +28,16 @@ import com.tencent.weblancer.external.typehandlers.IntNodeTypeHandler;
 import com.tencent.weblancer.external.typehandlers.LongNodeTypeHandler;
 import com.tencent.weblancer.external.typehandlers.ShortNodeTypeHandler;
 import com.tencent.weblancer.external.typehandlers.TextNodeTypeHandler;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.parameter.ParameterHandler;
+import org.apache.ibatis.executor.resultset.ResultSetHandler;
+import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ResultMap;
 import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.type.TypeAliasRegistry;
 import org.apache.ibatis.type.TypeHandlerRegistry;
 
@@ -67,6 +77,7 @@ public final class JacksonBindingConfiguration extends Configuration {
     setObjectWrapperFactory(new JsonNodeObjectWrapperFactory());
     setObjectFactory(new JsonNodeObjectFactory(objectMapper));
     setReflectorFactory(new JsonNodeReflectorFactory());
+    setDefaultScriptingLanguage(PlannedLanguageDriver.class);
   }
 
   public ObjectMapper getObjectMapper() {
@@ -111,4 +122,22 @@ public final class JacksonBindingConfiguration extends Configuration {
     }
     super.addResultMap(rm);
   }
+
+  /** A {@link ResultSetWriter} is given the result set itself, the rows are not mapped. */
+  @Override
+  public ResultSetHandler newResultSetHandler(
+      Executor executor,
+      MappedStatement mappedStatement,
+      RowBounds rowBounds,
+      ParameterHandler parameterHandler,
+      ResultHandler resultHandler,
+      BoundSql boundSql) {
+    if (resultHandler instanceof ResultSetWriter) {
+      return (ResultSetHandler)
+          interceptorChain.pluginAll(
+              new DirectResultSetHandler((ResultSetWriter) resultHandler));
+    }
+    return super.newResultSetHandler(
+        executor, mappedStatement, rowBounds, parameterHandler, resultHandler, boundSql);
+  }
 }
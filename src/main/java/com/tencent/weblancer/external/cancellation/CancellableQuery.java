@@ -0,0 +1,75 @@
+package com.tencent.weblancer.external.cancellation;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CancellationException;
+import java.util.function.Supplier;
+
+/**
+ * Handle of the statements executed by {@link #run} on a worker thread, which can be cancelled
+ * from any other thread, e.g. when the client disconnects. Statements are registered by {@link
+ * StatementCancellationInterceptor}, which must be added to the configuration.
+ *
+ * <p>A statement executed after {@link #cancel()} fails at once, so the rest of a batch is not
+ * executed either.
+ *
+ * @author fishzhao
+ * @since 2021-03-18
+ */
+@Slf4j
+public final class CancellableQuery {
+
+  private static final ThreadLocal<CancellableQuery> CURRENT = new ThreadLocal<>();
+
+  private Statement statement;
+  private boolean cancelled;
+
+  static CancellableQuery current() {
+    return CURRENT.get();
+  }
+
+  /** @throws CancellationException if it is cancelled before running */
+  public <T> T run(Supplier<T> query) {
+    if (isCancelled()) {
+      throw new CancellationException("query cancelled before running");
+    }
+    CURRENT.set(this);
+    try {
+      return query.get();
+    } finally {
+      CURRENT.remove();
+      synchronized (this) {
+        statement = null;
+      }
+    }
+  }
+
+  /** Cancels the running statement, if any, and every statement of it after. */
+  public synchronized void cancel() {
+    if (cancelled) {
+      return;
+    }
+    cancelled = true;
+    if (statement != null) {
+      try {
+        // the only method of a statement which is meant to be called by another thread
+        statement.cancel();
+      } catch (SQLException e) {
+        log.debug("Failed to cancel statement: {}", e.getMessage());
+      }
+    }
+  }
+
+  public synchronized boolean isCancelled() {
+    return cancelled;
+  }
+
+  synchronized void register(Statement statement) throws SQLException {
+    if (cancelled) {
+      throw new SQLException("query cancelled");
+    }
+    this.statement = statement;
+  }
+}
@@ -0,0 +1,35 @@
+package com.tencent.weblancer.external.cancellation;
+
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+
+import java.sql.Statement;
+
+/**
+ * Registers every statement executed inside {@link CancellableQuery#run} to that query. {@code
+ * parameterize} is intercepted rather than {@code prepare}, since a statement reused by {@code
+ * ReuseExecutor} is parameterized for every execution but prepared only once.
+ *
+ * @author fishzhao
+ * @since 2021-03-18
+ */
+@Intercepts(
+    @Signature(
+        type = StatementHandler.class,
+        method = "parameterize",
+        args = {Statement.class}))
+public final class StatementCancellationInterceptor implements Interceptor {
+
+  @Override
+  public Object intercept(Invocation invocation) throws Throwable {
+    CancellableQuery query = CancellableQuery.current();
+    if (query != null) {
+      // a statement failed here is closed by the pool together with its connection
+      query.register((Statement) invocation.getArgs()[0]);
+    }
+    return invocation.proceed();
+  }
+}
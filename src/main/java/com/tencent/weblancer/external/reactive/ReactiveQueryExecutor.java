@@ -0,0 +1,111 @@
+package com.tencent.weblancer.external.reactive;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.BinaryNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.sqlclient.Pool;
+import io.vertx.sqlclient.Tuple;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Executes the {@link MappedStatement}s of a {@link Configuration} on a reactive {@link Pool}, the
+ * sql is rendered by mybatis as usual, only the execution is non-blocking.
+ *
+ * @author fishzhao
+ * @since 2021-03-05
+ */
+public final class ReactiveQueryExecutor {
+
+  private final Configuration configuration;
+  private final Pool pool;
+  private final RowNodeMapper rowNodeMapper;
+
+  public ReactiveQueryExecutor(
+      Configuration configuration, Pool pool, JsonNodeFactory jsonNodeFactory) {
+    this.configuration = Objects.requireNonNull(configuration, "configuration");
+    this.pool = Objects.requireNonNull(pool, "pool");
+    this.rowNodeMapper = new RowNodeMapper(Objects.requireNonNull(jsonNodeFactory));
+  }
+
+  public Future<ArrayNode> query(String stmtId, Object parameterObject) {
+    BoundSql boundSql;
+    Tuple tuple;
+    try {
+      MappedStatement mappedStatement = configuration.getMappedStatement(stmtId);
+      boundSql = mappedStatement.getBoundSql(parameterObject);
+      tuple = bind(boundSql, parameterObject);
+    } catch (Exception e) {
+      return Future.failedFuture(e);
+    }
+    return pool.preparedQuery(boundSql.getSql()).execute(tuple).map(rowNodeMapper::map);
+  }
+
+  // the same value resolution as org.apache.ibatis.scripting.defaults.DefaultParameterHandler
+  private Tuple bind(BoundSql boundSql, Object parameterObject) {
+    List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+    Tuple tuple = Tuple.tuple();
+    if (parameterMappings == null) {
+      return tuple;
+    }
+    MetaObject metaObject = null;
+    for (ParameterMapping parameterMapping : parameterMappings) {
+      if (parameterMapping.getMode() == ParameterMode.OUT) {
+        continue;
+      }
+      String propertyName = parameterMapping.getProperty();
+      Object value;
+      if (boundSql.hasAdditionalParameter(propertyName)) {
+        value = boundSql.getAdditionalParameter(propertyName);
+      } else if (parameterObject == null) {
+        value = null;
+      } else if (configuration
+          .getTypeHandlerRegistry()
+          .hasTypeHandler(parameterObject.getClass())) {
+        value = parameterObject;
+      } else {
+        if (metaObject == null) {
+          metaObject = configuration.newMetaObject(parameterObject);
+        }
+        value = metaObject.getValue(propertyName);
+      }
+      tuple.addValue(toSqlValue(value));
+    }
+    return tuple;
+  }
+
+  private static Object toSqlValue(Object value) {
+    if (!(value instanceof JsonNode)) {
+      return value;
+    }
+    JsonNode node = (JsonNode) value;
+    switch (node.getNodeType()) {
+      case NUMBER:
+        Number number = node.numberValue();
+        return number instanceof BigInteger ? new BigDecimal((BigInteger) number) : number;
+      case STRING:
+        return node.textValue();
+      case BOOLEAN:
+        return node.booleanValue();
+      case BINARY:
+        return Buffer.buffer(((BinaryNode) node).binaryValue());
+      case NULL:
+      case MISSING:
+        return null;
+      default:
+        return node.toString();
+    }
+  }
+}
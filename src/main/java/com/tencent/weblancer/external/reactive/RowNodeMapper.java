@@ -0,0 +1,146 @@
+package com.tencent.weblancer.external.reactive;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.RowSet;
+import io.vertx.sqlclient.data.Numeric;
+import io.vertx.sqlclient.desc.ColumnDescriptor;
+
+import java.math.BigDecimal;
+import java.sql.JDBCType;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+import java.util.List;
+
+/**
+ * Maps rows of vertx-sql-client to the same shape the type handlers in {@code
+ * external.typehandlers} produce: null columns are omitted, so are columns of unmapped jdbc types,
+ * and a row without any value is {@code null}. A single column is mapped to its bare value, as
+ * MyBatis maps a result with a type handler.
+ *
+ * @author fishzhao
+ * @since 2021-03-05
+ */
+final class RowNodeMapper {
+
+  // same as the text returned by mysql-connector-java `ResultSet.getString`
+  private static final DateTimeFormatter DATE_TIME_FORMATTER =
+      new DateTimeFormatterBuilder()
+          .appendPattern("yyyy-MM-dd HH:mm:ss")
+          .optionalStart()
+          .appendFraction(ChronoField.NANO_OF_SECOND, 0, 9, true)
+          .toFormatter();
+
+  private final JsonNodeFactory nodeFactory;
+
+  RowNodeMapper(JsonNodeFactory nodeFactory) {
+    this.nodeFactory = nodeFactory;
+  }
+
+  ArrayNode map(RowSet<Row> rowSet) {
+    ArrayNode arrayNode = nodeFactory.arrayNode(rowSet.size());
+    List<ColumnDescriptor> columnDescriptors = rowSet.columnDescriptors();
+    for (Row row : rowSet) {
+      if (columnDescriptors.size() == 1) {
+        JsonNode value = toNode(columnDescriptors.get(0).jdbcType(), row.getValue(0));
+        arrayNode.add(value == null ? nodeFactory.nullNode() : value);
+        continue;
+      }
+      ObjectNode objectNode = nodeFactory.objectNode();
+      for (int i = 0; i < columnDescriptors.size(); i++) {
+        ColumnDescriptor descriptor = columnDescriptors.get(i);
+        JsonNode value = toNode(descriptor.jdbcType(), row.getValue(i));
+        if (value != null) {
+          objectNode.set(descriptor.name(), value);
+        }
+      }
+      arrayNode.add(objectNode.size() == 0 ? nodeFactory.nullNode() : objectNode);
+    }
+    return arrayNode;
+  }
+
+  private JsonNode toNode(JDBCType jdbcType, Object value) {
+    if (value == null) {
+      return null;
+    }
+    switch (jdbcType) {
+      case TINYINT:
+      case SMALLINT:
+        return nodeFactory.numberNode(((Number) value).shortValue());
+      case INTEGER:
+        return nodeFactory.numberNode(((Number) value).intValue());
+      case BIGINT:
+        return nodeFactory.numberNode(((Number) value).longValue());
+      case FLOAT:
+        return nodeFactory.numberNode(((Number) value).floatValue());
+      case DOUBLE:
+        return nodeFactory.numberNode(((Number) value).doubleValue());
+      case REAL:
+      case DECIMAL:
+      case NUMERIC:
+        return nodeFactory.numberNode(toBigDecimal(value));
+      case BIT:
+      case BOOLEAN:
+        return nodeFactory.booleanNode(toBoolean(value));
+      case CHAR:
+      case VARCHAR:
+        return nodeFactory.textNode(value.toString());
+      case DATE:
+      case TIME:
+      case TIMESTAMP:
+        return nodeFactory.textNode(toTemporalText(value));
+      case BLOB:
+      case LONGVARBINARY:
+        return nodeFactory.binaryNode(
+            value instanceof Buffer ? ((Buffer) value).getBytes() : value.toString().getBytes());
+      default:
+        // no type handler registered for this jdbc type, the JDBC engine ignores it too
+        return null;
+    }
+  }
+
+  private static BigDecimal toBigDecimal(Object value) {
+    if (value instanceof Numeric) {
+      return ((Numeric) value).bigDecimalValue();
+    }
+    if (value instanceof BigDecimal) {
+      return (BigDecimal) value;
+    }
+    return new BigDecimal(value.toString());
+  }
+
+  private static boolean toBoolean(Object value) {
+    if (value instanceof Boolean) {
+      return (Boolean) value;
+    }
+    return ((Number) value).longValue() != 0;
+  }
+
+  private static String toTemporalText(Object value) {
+    if (value instanceof LocalDateTime) {
+      return DATE_TIME_FORMATTER.format((LocalDateTime) value);
+    }
+    if (value instanceof LocalDate) {
+      return value.toString();
+    }
+    if (value instanceof Duration) {
+      Duration duration = (Duration) value;
+      long seconds = duration.getSeconds();
+      return String.format(
+          "%s%02d:%02d:%02d",
+          seconds < 0 ? "-" : "",
+          Math.abs(seconds / 3600),
+          Math.abs(seconds % 3600 / 60),
+          Math.abs(seconds % 60));
+    }
+    return value.toString();
+  }
+}
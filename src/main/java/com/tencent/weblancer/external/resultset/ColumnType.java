@@ -0,0 +1,189 @@
+package com.tencent.weblancer.external.resultset;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * How the value of a column is read by JDBC getters and written to a {@link JsonGenerator}, the
+ * same value the type handler of its jdbc type in {@code external.typehandlers} maps to a node.
+ *
+ * @author fishzhao
+ * @since 2021-03-21
+ */
+enum ColumnType {
+  SHORT {
+    @Override
+    boolean write(ResultSet rs, int index, JsonGenerator generator, BeforeValue beforeValue)
+        throws SQLException, IOException {
+      short value = rs.getShort(index);
+      if (value == 0 && rs.wasNull()) {
+        return false;
+      }
+      beforeValue.write(generator);
+      generator.writeNumber(value);
+      return true;
+    }
+  },
+  INT {
+    @Override
+    boolean write(ResultSet rs, int index, JsonGenerator generator, BeforeValue beforeValue)
+        throws SQLException, IOException {
+      int value = rs.getInt(index);
+      if (value == 0 && rs.wasNull()) {
+        return false;
+      }
+      beforeValue.write(generator);
+      generator.writeNumber(value);
+      return true;
+    }
+  },
+  LONG {
+    @Override
+    boolean write(ResultSet rs, int index, JsonGenerator generator, BeforeValue beforeValue)
+        throws SQLException, IOException {
+      long value = rs.getLong(index);
+      if (value == 0 && rs.wasNull()) {
+        return false;
+      }
+      beforeValue.write(generator);
+      generator.writeNumber(value);
+      return true;
+    }
+  },
+  FLOAT {
+    @Override
+    boolean write(ResultSet rs, int index, JsonGenerator generator, BeforeValue beforeValue)
+        throws SQLException, IOException {
+      float value = rs.getFloat(index);
+      if (value == 0 && rs.wasNull()) {
+        return false;
+      }
+      beforeValue.write(generator);
+      generator.writeNumber(value);
+      return true;
+    }
+  },
+  DOUBLE {
+    @Override
+    boolean write(ResultSet rs, int index, JsonGenerator generator, BeforeValue beforeValue)
+        throws SQLException, IOException {
+      double value = rs.getDouble(index);
+      if (value == 0 && rs.wasNull()) {
+        return false;
+      }
+      beforeValue.write(generator);
+      generator.writeNumber(value);
+      return true;
+    }
+  },
+  DECIMAL {
+    @Override
+    boolean write(ResultSet rs, int index, JsonGenerator generator, BeforeValue beforeValue)
+        throws SQLException, IOException {
+      BigDecimal value = rs.getBigDecimal(index);
+      if (value == null) {
+        return false;
+      }
+      beforeValue.write(generator);
+      generator.writeNumber(value);
+      return true;
+    }
+  },
+  BOOLEAN {
+    @Override
+    boolean write(ResultSet rs, int index, JsonGenerator generator, BeforeValue beforeValue)
+        throws SQLException, IOException {
+      boolean value = rs.getBoolean(index);
+      if (!value && rs.wasNull()) {
+        return false;
+      }
+      beforeValue.write(generator);
+      generator.writeBoolean(value);
+      return true;
+    }
+  },
+  TEXT {
+    @Override
+    boolean write(ResultSet rs, int index, JsonGenerator generator, BeforeValue beforeValue)
+        throws SQLException, IOException {
+      String value = rs.getString(index);
+      if (value == null) {
+        return false;
+      }
+      beforeValue.write(generator);
+      generator.writeString(value);
+      return true;
+    }
+  },
+  BINARY {
+    @Override
+    boolean write(ResultSet rs, int index, JsonGenerator generator, BeforeValue beforeValue)
+        throws SQLException, IOException {
+      byte[] value = rs.getBytes(index);
+      if (value == null) {
+        return false;
+      }
+      beforeValue.write(generator);
+      generator.writeBinary(value);
+      return true;
+    }
+  };
+
+  /**
+   * Writes the value of the column after {@code beforeValue}, e.g. its field name. Nothing is
+   * written if the value is null.
+   *
+   * @return false if the value is null
+   */
+  abstract boolean write(
+      ResultSet rs, int index, JsonGenerator generator, BeforeValue beforeValue)
+      throws SQLException, IOException;
+
+  /** @return null if no type handler is registered for the jdbc type, the column is ignored */
+  static ColumnType of(int jdbcType) {
+    switch (jdbcType) {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+        return SHORT;
+      case Types.INTEGER:
+        return INT;
+      case Types.BIGINT:
+        return LONG;
+      case Types.FLOAT:
+        return FLOAT;
+      case Types.DOUBLE:
+        return DOUBLE;
+      case Types.REAL:
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+        return DECIMAL;
+      case Types.BIT:
+      case Types.BOOLEAN:
+        return BOOLEAN;
+      case Types.CHAR:
+      case Types.VARCHAR:
+      case Types.DATE:
+      case Types.TIME:
+      case Types.TIMESTAMP:
+        return TEXT;
+      case Types.BLOB:
+      case Types.LONGVARBINARY:
+        return BINARY;
+      default:
+        return null;
+    }
+  }
+
+  /** What is written before a non-null value. */
+  interface BeforeValue {
+
+    BeforeValue NONE = generator -> {};
+
+    void write(JsonGenerator generator) throws IOException;
+  }
+}
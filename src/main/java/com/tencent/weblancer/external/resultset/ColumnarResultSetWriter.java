@@ -0,0 +1,50 @@
+package com.tencent.weblancer.external.resultset;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Writes a result set as {@code {"columns":[...],"types":[...],"rows":[[...],...]}}, column names
+ * are written once instead of once per row. Values are written straight from the JDBC getters, no
+ * node is created.
+ *
+ * @author fishzhao
+ * @since 2021-03-21
+ */
+public final class ColumnarResultSetWriter implements ResultSetWriter {
+
+  private final JsonGenerator generator;
+  private final ResultSetShapes shapes;
+  private int rowCount = 0;
+
+  public ColumnarResultSetWriter(JsonGenerator generator, ResultSetShapes shapes) {
+    this.generator = generator;
+    this.shapes = shapes;
+  }
+
+  @Override
+  public void write(ResultSet rs) throws SQLException, IOException {
+    ResultSetColumns columns = shapes.columnsOf(rs.getMetaData());
+    generator.writeStartObject();
+    generator.writeFieldName("columns");
+    columns.writeLabels(generator);
+    generator.writeFieldName("types");
+    columns.writeTypeNames(generator);
+    generator.writeFieldName("rows");
+    generator.writeStartArray();
+    while (rs.next()) {
+      columns.writeArray(rs, generator);
+      rowCount++;
+    }
+    generator.writeEndArray();
+    generator.writeEndObject();
+  }
+
+  @Override
+  public int getRowCount() {
+    return rowCount;
+  }
+}
@@ -0,0 +1,67 @@
+package com.tencent.weblancer.external.resultset;
+
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.executor.resultset.ResultSetHandler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.CallableStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Hands the first result set of a statement to a {@link ResultSetWriter}, no row is mapped.
+ *
+ * @author fishzhao
+ * @since 2021-03-21
+ */
+public final class DirectResultSetHandler implements ResultSetHandler {
+
+  private final ResultSetWriter writer;
+
+  public DirectResultSetHandler(ResultSetWriter writer) {
+    this.writer = writer;
+  }
+
+  @Override
+  public <E> List<E> handleResultSets(Statement stmt) throws SQLException {
+    ResultSet rs = firstResultSet(stmt);
+    if (rs == null) {
+      return Collections.emptyList();
+    }
+    try {
+      writer.write(rs);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      rs.close();
+    }
+    return Collections.emptyList();
+  }
+
+  /** The same as {@code DefaultResultSetHandler}, update counts before it are skipped. */
+  private static ResultSet firstResultSet(Statement stmt) throws SQLException {
+    ResultSet rs = stmt.getResultSet();
+    while (rs == null) {
+      if (stmt.getMoreResults()) {
+        rs = stmt.getResultSet();
+      } else if (stmt.getUpdateCount() == -1) {
+        return null;
+      }
+    }
+    return rs;
+  }
+
+  @Override
+  public <E> Cursor<E> handleCursorResultSets(Statement stmt) {
+    throw new UnsupportedOperationException("cursor is not supported by a ResultSetWriter");
+  }
+
+  @Override
+  public void handleOutputParameters(CallableStatement cs) {
+    // callable statements are never used
+  }
+}
@@ -0,0 +1,140 @@
+package com.tencent.weblancer.external.resultset;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import java.io.IOException;
+import java.sql.JDBCType;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Columns of a result set, read from its {@link ResultSetMetaData} once. Columns of jdbc types
+ * without a type handler are left out, the same as the rows mapped by MyBatis.
+ *
+ * @author fishzhao
+ * @since 2021-03-21
+ */
+final class ResultSetColumns {
+
+  // label and jdbc type of every column, to tell whether another result set has the same shape
+  private final String[] allLabels;
+  private final int[] allJdbcTypes;
+  // 1-based index of every column in the result set
+  private final int[] indexes;
+  private final String[] labels;
+  private final String[] typeNames;
+  private final ColumnType[] types;
+  // field names of a row object, in order of the first column of each label
+  final SerializedString[] fieldNames;
+  // column of every field, MyBatis reads a label from its first column only
+  final int[] fieldColumns;
+  // 只有一列且有类型处理器时，MyBatis 把该列的值本身作为一行
+  final boolean scalar;
+
+  private ResultSetColumns(String[] allLabels, int[] allJdbcTypes, List<Integer> indexes) {
+    int size = indexes.size();
+    this.allLabels = allLabels;
+    this.allJdbcTypes = allJdbcTypes;
+    this.scalar = allLabels.length == 1 && size == 1;
+    this.indexes = new int[size];
+    this.labels = new String[size];
+    this.typeNames = new String[size];
+    this.types = new ColumnType[size];
+    for (int i = 0; i < size; i++) {
+      int index = indexes.get(i);
+      this.indexes[i] = index;
+      this.labels[i] = allLabels[index - 1];
+      this.typeNames[i] = JDBCType.valueOf(allJdbcTypes[index - 1]).getName();
+      this.types[i] = ColumnType.of(allJdbcTypes[index - 1]);
+    }
+    // a label whose first column has no type handler is left out, -1 as a placeholder
+    Map<String, Integer> columnByLabel = new LinkedHashMap<>();
+    for (int index = 1, position = 0; index <= allLabels.length; index++) {
+      boolean mapped = position < size && this.indexes[position] == index;
+      columnByLabel.putIfAbsent(allLabels[index - 1], mapped ? position : -1);
+      if (mapped) {
+        position++;
+      }
+    }
+    columnByLabel.values().removeIf(position -> position < 0);
+    this.fieldNames =
+        columnByLabel.keySet().stream().map(SerializedString::new).toArray(SerializedString[]::new);
+    this.fieldColumns = columnByLabel.values().stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  static ResultSetColumns of(ResultSetMetaData metaData) throws SQLException {
+    int columnCount = metaData.getColumnCount();
+    String[] allLabels = new String[columnCount];
+    int[] allJdbcTypes = new int[columnCount];
+    List<Integer> indexes = new ArrayList<>(columnCount);
+    for (int i = 1; i <= columnCount; i++) {
+      allLabels[i - 1] = metaData.getColumnLabel(i);
+      allJdbcTypes[i - 1] = metaData.getColumnType(i);
+      if (ColumnType.of(allJdbcTypes[i - 1]) != null) {
+        indexes.add(i);
+      }
+    }
+    return new ResultSetColumns(allLabels, allJdbcTypes, indexes);
+  }
+
+  /** @return true if the result set has the same labels and jdbc types in the same order */
+  boolean matches(ResultSetMetaData metaData) throws SQLException {
+    if (metaData.getColumnCount() != allLabels.length) {
+      return false;
+    }
+    for (int i = 1; i <= allLabels.length; i++) {
+      if (metaData.getColumnType(i) != allJdbcTypes[i - 1]
+          || !allLabels[i - 1].equals(metaData.getColumnLabel(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Writes the labels as an array. */
+  void writeLabels(JsonGenerator generator) throws IOException {
+    generator.writeStartArray();
+    for (String label : labels) {
+      generator.writeString(label);
+    }
+    generator.writeEndArray();
+  }
+
+  /** Writes the names of the jdbc types as an array, e.g. {@code "VARCHAR"}. */
+  void writeTypeNames(JsonGenerator generator) throws IOException {
+    generator.writeStartArray();
+    for (String typeName : typeNames) {
+      generator.writeString(typeName);
+    }
+    generator.writeEndArray();
+  }
+
+  /** Writes the current row as an array in the order of the columns, null values included. */
+  void writeArray(ResultSet rs, JsonGenerator generator) throws SQLException, IOException {
+    generator.writeStartArray();
+    for (int i = 0; i < indexes.length; i++) {
+      if (!types[i].write(rs, indexes[i], generator, ColumnType.BeforeValue.NONE)) {
+        generator.writeNull();
+      }
+    }
+    generator.writeEndArray();
+  }
+
+  /**
+   * Writes the value of the column at {@code position} of the current row after {@code
+   * beforeValue}, nothing is written if it is null.
+   *
+   * @return false if the value is null
+   */
+  boolean writeValue(
+      ResultSet rs, int position, JsonGenerator generator, ColumnType.BeforeValue beforeValue)
+      throws SQLException, IOException {
+    return types[position].write(rs, indexes[position], generator, beforeValue);
+  }
+}
@@ -0,0 +1,42 @@
+package com.tencent.weblancer.external.resultset;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * The columns of the result sets of one statement, built once per shape, i.e. labels and jdbc types
+ * of the columns. A dynamic sql may select different columns, so a few shapes are kept, the
+ * oldest one is replaced by a new shape.
+ *
+ * @author fishzhao
+ * @since 2021-03-22
+ */
+public final class ResultSetShapes {
+
+  private static final int MAX_SHAPES = 8;
+
+  // copy on write, replaced as a whole
+  private volatile ResultSetColumns[] shapes = new ResultSetColumns[0];
+
+  ResultSetColumns columnsOf(ResultSetMetaData metaData) throws SQLException {
+    ResultSetColumns[] current = shapes;
+    for (ResultSetColumns columns : current) {
+      if (columns.matches(metaData)) {
+        return columns;
+      }
+    }
+    ResultSetColumns columns = ResultSetColumns.of(metaData);
+    ResultSetColumns[] next;
+    if (current.length < MAX_SHAPES) {
+      next = Arrays.copyOf(current, current.length + 1);
+    } else {
+      next = new ResultSetColumns[MAX_SHAPES];
+      System.arraycopy(current, 1, next, 0, MAX_SHAPES - 1);
+    }
+    next[next.length - 1] = columns;
+    // a shape added by another thread meanwhile may be lost, it is only built again
+    shapes = next;
+    return columns;
+  }
+}
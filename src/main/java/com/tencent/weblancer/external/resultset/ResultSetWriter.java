@@ -0,0 +1,31 @@
+package com.tencent.weblancer.external.resultset;
+
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.SqlSession;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A result handler which is given the whole {@link ResultSet} instead of mapped rows, passed to
+ * {@link SqlSession#select(String, Object, ResultHandler)} of a {@code JacksonBindingConfiguration}
+ * to skip the result mapping of MyBatis.
+ *
+ * @author fishzhao
+ * @since 2021-03-21
+ */
+public interface ResultSetWriter extends ResultHandler<Object> {
+
+  /** Consumes the rows of the result set, which is closed afterwards. */
+  void write(ResultSet rs) throws SQLException, IOException;
+
+  /** @return count of the rows written */
+  int getRowCount();
+
+  @Override
+  default void handleResult(ResultContext<?> resultContext) {
+    throw new UnsupportedOperationException("rows are never mapped for a ResultSetWriter");
+  }
+}
@@ -0,0 +1,77 @@
+package com.tencent.weblancer.external.resultset;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Writes a result set as an array of row objects straight from the JDBC getters, exactly what the
+ * rows mapped by MyBatis are serialized to: null columns are left out, a label of several columns
+ * has the value of its first one, and a row without any value is {@code null}. A result
+ * set of a single column with a type handler is written as the bare values, null included. No
+ * node is created, a row allocates nothing but the values the JDBC driver returns.
+ *
+ * @author fishzhao
+ * @since 2021-03-22
+ */
+public final class RowsResultSetWriter implements ResultSetWriter {
+
+  private final JsonGenerator generator;
+  private final ResultSetShapes shapes;
+  private int rowCount = 0;
+  // state of the row being written
+  private ResultSetColumns columns;
+  private int field;
+  private boolean started;
+  // starts the row object at its first value, then writes the field name
+  private final ColumnType.BeforeValue fieldName =
+      generator -> {
+        if (!started) {
+          generator.writeStartObject();
+          started = true;
+        }
+        generator.writeFieldName(columns.fieldNames[field]);
+      };
+
+  public RowsResultSetWriter(JsonGenerator generator, ResultSetShapes shapes) {
+    this.generator = generator;
+    this.shapes = shapes;
+  }
+
+  @Override
+  public void write(ResultSet rs) throws SQLException, IOException {
+    columns = shapes.columnsOf(rs.getMetaData());
+    generator.writeStartArray();
+    while (rs.next()) {
+      writeRow(rs);
+      rowCount++;
+    }
+    generator.writeEndArray();
+  }
+
+  private void writeRow(ResultSet rs) throws SQLException, IOException {
+    if (columns.scalar) {
+      if (!columns.writeValue(rs, 0, generator, ColumnType.BeforeValue.NONE)) {
+        generator.writeNull();
+      }
+      return;
+    }
+    started = false;
+    int[] fieldColumns = columns.fieldColumns;
+    for (field = 0; field < fieldColumns.length; field++) {
+      columns.writeValue(rs, fieldColumns[field], generator, fieldName);
+    }
+    if (started) {
+      generator.writeEndObject();
+    } else {
+      generator.writeNull();
+    }
+  }
+
+  @Override
+  public int getRowCount() {
+    return rowCount;
+  }
+}
@@ -0,0 +1,98 @@
+package com.tencent.weblancer.external.scripting;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.ibatis.executor.ErrorContext;
+import org.apache.ibatis.executor.parameter.ParameterHandler;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.scripting.defaults.DefaultParameterHandler;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.TypeException;
+import org.apache.ibatis.type.TypeHandler;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Same as {@link DefaultParameterHandler}, but plain property names are looked up directly in the
+ * {@link ObjectNode}, no {@link MetaObject} is created for them.
+ *
+ * @author fishzhao
+ * @since 2021-03-10
+ */
+final class ObjectNodeParameterHandler implements ParameterHandler {
+
+  private final MappedStatement mappedStatement;
+  private final Configuration configuration;
+  private final ObjectNode parameterObject;
+  private final BoundSql boundSql;
+
+  ObjectNodeParameterHandler(
+      MappedStatement mappedStatement, ObjectNode parameterObject, BoundSql boundSql) {
+    this.mappedStatement = mappedStatement;
+    this.configuration = mappedStatement.getConfiguration();
+    this.parameterObject = parameterObject;
+    this.boundSql = boundSql;
+  }
+
+  @Override
+  public Object getParameterObject() {
+    return parameterObject;
+  }
+
+  @Override
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public void setParameters(PreparedStatement ps) {
+    ErrorContext.instance()
+        .activity("setting parameters")
+        .object(mappedStatement.getParameterMap().getId());
+    List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+    if (parameterMappings == null) {
+      return;
+    }
+    boolean wholeObject =
+        configuration.getTypeHandlerRegistry().hasTypeHandler(parameterObject.getClass());
+    MetaObject metaObject = null;
+    for (int i = 0; i < parameterMappings.size(); i++) {
+      ParameterMapping parameterMapping = parameterMappings.get(i);
+      if (parameterMapping.getMode() == ParameterMode.OUT) {
+        continue;
+      }
+      Object value;
+      String propertyName = parameterMapping.getProperty();
+      if (boundSql.hasAdditionalParameter(propertyName)) {
+        value = boundSql.getAdditionalParameter(propertyName);
+      } else if (wholeObject) {
+        value = parameterObject;
+      } else if (isPlainName(propertyName)) {
+        // the same as ObjectNodeWrapper#get
+        value = parameterObject.get(propertyName);
+      } else {
+        if (metaObject == null) {
+          metaObject = configuration.newMetaObject(parameterObject);
+        }
+        value = metaObject.getValue(propertyName);
+      }
+      TypeHandler typeHandler = parameterMapping.getTypeHandler();
+      JdbcType jdbcType = parameterMapping.getJdbcType();
+      if (value == null && jdbcType == null) {
+        jdbcType = configuration.getJdbcTypeForNull();
+      }
+      try {
+        typeHandler.setParameter(ps, i + 1, value, jdbcType);
+      } catch (TypeException | SQLException e) {
+        throw new TypeException(
+            "Could not set parameters for mapping: " + parameterMapping + ". Cause: " + e, e);
+      }
+    }
+  }
+
+  private static boolean isPlainName(String propertyName) {
+    return propertyName.indexOf('.') < 0 && propertyName.indexOf('[') < 0;
+  }
+}
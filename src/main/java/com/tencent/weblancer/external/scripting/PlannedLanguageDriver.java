@@ -0,0 +1,236 @@
+package com.tencent.weblancer.external.scripting;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableSet;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.builder.xml.XMLMapperEntityResolver;
+import org.apache.ibatis.executor.parameter.ParameterHandler;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.parsing.XPathParser;
+import org.apache.ibatis.scripting.xmltags.DynamicContext;
+import org.apache.ibatis.scripting.xmltags.DynamicSqlSource;
+import org.apache.ibatis.scripting.xmltags.XMLLanguageDriver;
+import org.apache.ibatis.session.Configuration;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * {@link XMLLanguageDriver} which classifies every script once at startup:
+ *
+ * <ul>
+ *   <li>static sql: a {@code RawSqlSource} as usual, it is already a prepared template
+ *   <li>dynamic sql whose {@code <if>}/{@code <when>} tests are only null checks of at most {@link
+ *       #MAX_PLANNED_VARIABLES} parameters: a {@link PlannedSqlSource} with all shapes prebuilt
+ *   <li>anything else ({@code <foreach>}, {@code <bind>}, {@code ${}}, other tests): the ognl
+ *       driven {@link DynamicSqlSource}
+ * </ul>
+ *
+ * Parameters of an {@link ObjectNode} are bound by {@link ObjectNodeParameterHandler}.
+ *
+ * @author fishzhao
+ * @since 2021-03-10
+ */
+@Slf4j
+public final class PlannedLanguageDriver extends XMLLanguageDriver {
+
+  /** 2^6 = 64 shapes at most for one statement. */
+  static final int MAX_PLANNED_VARIABLES = 6;
+
+  private static final Set<String> PLANNABLE_ELEMENTS =
+      ImmutableSet.of("if", "where", "set", "trim", "choose", "when", "otherwise");
+
+  @Override
+  public ParameterHandler createParameterHandler(
+      MappedStatement mappedStatement, Object parameterObject, BoundSql boundSql) {
+    if (parameterObject instanceof ObjectNode) {
+      return new ObjectNodeParameterHandler(mappedStatement, (ObjectNode) parameterObject, boundSql);
+    }
+    return super.createParameterHandler(mappedStatement, parameterObject, boundSql);
+  }
+
+  @Override
+  public SqlSource createSqlSource(
+      Configuration configuration, String script, Class<?> parameterType) {
+    SqlSource sqlSource = super.createSqlSource(configuration, script, parameterType);
+    if (!(sqlSource instanceof DynamicSqlSource) || !script.startsWith("<script>")) {
+      return sqlSource;
+    }
+    if (parameterType != null && !ObjectNode.class.isAssignableFrom(parameterType)) {
+      return sqlSource;
+    }
+    if (configuration.getTypeHandlerRegistry().hasTypeHandler(ObjectNode.class)) {
+      // ognl would see the whole object instead of its fields
+      return sqlSource;
+    }
+    Node root =
+        new XPathParser(
+                script, false, configuration.getVariables(), new XMLMapperEntityResolver())
+            .evalNode("/script")
+            .getNode();
+    Set<String> variables = new LinkedHashSet<>();
+    String reason = collectTestedVariables(root, variables);
+    if (reason == null && variables.size() > MAX_PLANNED_VARIABLES) {
+      reason = variables.size() + " tested parameters";
+    }
+    if (reason != null) {
+      log.debug("Dynamic sql is not planned because of {}: {}", reason, script);
+      return sqlSource;
+    }
+    PlannedSqlSource plannedSqlSource =
+        new PlannedSqlSource(configuration, sqlSource, variables.toArray(new String[0]));
+    log.debug("Dynamic sql planned with {} shape(s): {}", plannedSqlSource.getShapeCount(), script);
+    return plannedSqlSource;
+  }
+
+  /** @return why the script can not be planned, or null if it can. */
+  private static String collectTestedVariables(Node node, Set<String> variables) {
+    NodeList children = node.getChildNodes();
+    for (int i = 0; i < children.getLength(); i++) {
+      Node child = children.item(i);
+      switch (child.getNodeType()) {
+        case Node.TEXT_NODE:
+        case Node.CDATA_SECTION_NODE:
+          if (child.getNodeValue().contains("${")) {
+            return "`${}` substitution";
+          }
+          break;
+        case Node.ELEMENT_NODE:
+          String name = child.getNodeName();
+          if (!PLANNABLE_ELEMENTS.contains(name)) {
+            return "<" + name + ">";
+          }
+          if ("if".equals(name) || "when".equals(name)) {
+            String test = ((Element) child).getAttribute("test");
+            if (!new NullTestParser(test).parse(variables)) {
+              return "test `" + test + "`";
+            }
+          }
+          String reason = collectTestedVariables(child, variables);
+          if (reason != null) {
+            return reason;
+          }
+          break;
+        default:
+          break;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Accepts only {@code name != null}, {@code name == null} and their combinations by {@code
+   * and}/{@code or}/{@code &&}/{@code ||} and parentheses.
+   */
+  private static final class NullTestParser {
+
+    private static final Set<String> KEYWORDS =
+        ImmutableSet.of(
+            "null", "and", "or", "not", "true", "false", "eq", "neq", "lt", "gt", "lte", "gte",
+            "in", "instanceof", "new", "this", "shl", "shr", "ushr", "band", "bor", "xor",
+            // bound by DynamicContext instead of the parameter object
+            DynamicContext.PARAMETER_OBJECT_KEY, DynamicContext.DATABASE_ID_KEY);
+
+    private final List<String> tokens = new ArrayList<>();
+    private int position;
+
+    NullTestParser(String test) {
+      int i = 0;
+      while (i < test.length()) {
+        char c = test.charAt(i);
+        if (Character.isWhitespace(c)) {
+          i++;
+        } else if (c == '(' || c == ')') {
+          tokens.add(String.valueOf(c));
+          i++;
+        } else if (test.startsWith("!=", i)
+            || test.startsWith("==", i)
+            || test.startsWith("&&", i)
+            || test.startsWith("||", i)) {
+          tokens.add(test.substring(i, i + 2));
+          i += 2;
+        } else if (Character.isJavaIdentifierStart(c)) {
+          int start = i++;
+          while (i < test.length() && Character.isJavaIdentifierPart(test.charAt(i))) {
+            i++;
+          }
+          tokens.add(test.substring(start, i));
+        } else {
+          // anything else makes the test unparseable
+          tokens.add(null);
+          return;
+        }
+      }
+    }
+
+    boolean parse(Set<String> variables) {
+      Set<String> tested = new LinkedHashSet<>();
+      if (tokens.isEmpty() || !expression(tested) || position != tokens.size()) {
+        return false;
+      }
+      variables.addAll(tested);
+      return true;
+    }
+
+    private boolean expression(Set<String> tested) {
+      if (!term(tested)) {
+        return false;
+      }
+      while (accept("and") || accept("&&") || accept("or") || accept("||")) {
+        if (!term(tested)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private boolean term(Set<String> tested) {
+      if (accept("(")) {
+        return expression(tested) && accept(")");
+      }
+      String variable;
+      if (accept("null")) {
+        variable = (accept("!=") || accept("==")) ? variable() : null;
+      } else {
+        variable = variable();
+        if (!(accept("!=") || accept("==")) || !accept("null")) {
+          return false;
+        }
+      }
+      if (variable == null) {
+        return false;
+      }
+      tested.add(variable);
+      return true;
+    }
+
+    private String variable() {
+      if (position >= tokens.size()) {
+        return null;
+      }
+      String token = tokens.get(position);
+      if (token == null
+          || !Character.isJavaIdentifierStart(token.charAt(0))
+          || KEYWORDS.contains(token)) {
+        return null;
+      }
+      position++;
+      return token;
+    }
+
+    private boolean accept(String expected) {
+      if (position < tokens.size() && expected.equals(tokens.get(position))) {
+        position++;
+        return true;
+      }
+      return false;
+    }
+  }
+}
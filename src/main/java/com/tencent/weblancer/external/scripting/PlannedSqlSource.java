@@ -0,0 +1,78 @@
+package com.tencent.weblancer.external.scripting;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.scripting.xmltags.DynamicContext;
+import org.apache.ibatis.session.Configuration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A dynamic sql whose branches only test whether some parameters are null. Each of the {@code
+ * 2^n} shapes is rendered once at startup, keyed by the presence mask of the tested parameters,
+ * so rendering a request is a lookup.
+ *
+ * <p>A parameter is present if {@code objectNode.get(name) != null}, exactly what {@code name !=
+ * null} means in ognl against {@link ObjectNode}, so an explicit json null is present.
+ *
+ * @author fishzhao
+ * @since 2021-03-10
+ */
+final class PlannedSqlSource implements SqlSource {
+
+  private final Configuration configuration;
+  private final SqlSource fallback;
+  private final String[] variables;
+  private final String[] sqls;
+  private final List<List<ParameterMapping>> parameterMappings;
+
+  PlannedSqlSource(Configuration configuration, SqlSource dynamicSqlSource, String[] variables) {
+    this.configuration = configuration;
+    this.fallback = dynamicSqlSource;
+    this.variables = variables;
+    int shapeCount = 1 << variables.length;
+    this.sqls = new String[shapeCount];
+    this.parameterMappings = new ArrayList<>(shapeCount);
+    for (int mask = 0; mask < shapeCount; mask++) {
+      ObjectNode probe = JsonNodeFactory.instance.objectNode();
+      for (int i = 0; i < variables.length; i++) {
+        if ((mask & (1 << i)) != 0) {
+          probe.putNull(variables[i]);
+        }
+      }
+      BoundSql boundSql = dynamicSqlSource.getBoundSql(probe);
+      sqls[mask] = boundSql.getSql();
+      parameterMappings.add(
+          Collections.unmodifiableList(new ArrayList<>(boundSql.getParameterMappings())));
+    }
+  }
+
+  int getShapeCount() {
+    return sqls.length;
+  }
+
+  @Override
+  public BoundSql getBoundSql(Object parameterObject) {
+    if (!(parameterObject instanceof ObjectNode)) {
+      return fallback.getBoundSql(parameterObject);
+    }
+    ObjectNode objectNode = (ObjectNode) parameterObject;
+    int mask = 0;
+    for (int i = 0; i < variables.length; i++) {
+      if (objectNode.get(variables[i]) != null) {
+        mask |= 1 << i;
+      }
+    }
+    BoundSql boundSql =
+        new BoundSql(configuration, sqls[mask], parameterMappings.get(mask), parameterObject);
+    // the same bindings as DynamicSqlSource
+    boundSql.setAdditionalParameter(DynamicContext.PARAMETER_OBJECT_KEY, parameterObject);
+    boundSql.setAdditionalParameter(DynamicContext.DATABASE_ID_KEY, configuration.getDatabaseId());
+    return boundSql;
+  }
+}
@@ -0,0 +1,116 @@
+package com.tencent.weblancer.external.scripting;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Preconditions;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.scripting.xmltags.DynamicContext;
+import org.apache.ibatis.session.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Renders several parameter sets of one statement as a single {@code union all} query:
+ *
+ * <pre>
+ * select 0 as web_lancer_batch_index, web_lancer_batch.* from (...) web_lancer_batch
+ * union all
+ * select 1 as web_lancer_batch_index, web_lancer_batch.* from (...) web_lancer_batch
+ * </pre>
+ *
+ * The parameter object is built by {@link #merge(JsonNodeFactory, List)}, every row of the result
+ * is tagged with the index of its parameter set in {@link #INDEX_COLUMN}. Only parameter sets
+ * rendered to the same sql and accepted by {@link #isMergeable(BoundSql)} should be merged.
+ *
+ * @author fishzhao
+ * @since 2021-03-14
+ */
+public final class UnionAllSqlSource implements SqlSource {
+
+  public static final String STMT_ID_SUFFIX = "-batch";
+  public static final String INDEX_COLUMN = "web_lancer_batch_index";
+
+  private static final String DERIVED_TABLE_ALIAS = "web_lancer_batch";
+  private static final String ITEM_KEY_PREFIX = "b";
+  // 派生表中的 order by 不保证生效，有序的结果不能合并
+  private static final Pattern ORDER_BY_PATTERN =
+      Pattern.compile("\\border\\s+by\\b", Pattern.CASE_INSENSITIVE);
+
+  private final Configuration configuration;
+  private final SqlSource delegate;
+
+  public UnionAllSqlSource(Configuration configuration, SqlSource delegate) {
+    this.configuration = configuration;
+    this.delegate = delegate;
+  }
+
+  /** @return the parameter object of the union of {@code items} */
+  public static ObjectNode merge(JsonNodeFactory nodeFactory, List<ObjectNode> items) {
+    ObjectNode merged = nodeFactory.objectNode();
+    for (int i = 0; i < items.size(); i++) {
+      merged.set(ITEM_KEY_PREFIX + i, items.get(i));
+    }
+    return merged;
+  }
+
+  /**
+   * @return true if the sql is unordered and all its parameters are plain properties of the
+   *     parameter object, e.g. no {@code <foreach>} item or {@code <bind>} variable
+   */
+  public static boolean isMergeable(BoundSql boundSql) {
+    if (ORDER_BY_PATTERN.matcher(boundSql.getSql()).find()) {
+      return false;
+    }
+    for (ParameterMapping parameterMapping : boundSql.getParameterMappings()) {
+      String property = parameterMapping.getProperty();
+      if (parameterMapping.getMode() != ParameterMode.IN
+          || property.indexOf('.') >= 0
+          || property.indexOf('[') >= 0
+          || boundSql.hasAdditionalParameter(property)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public BoundSql getBoundSql(Object parameterObject) {
+    Preconditions.checkArgument(
+        parameterObject instanceof ObjectNode, "parameter of union all should be merged first!");
+    ObjectNode merged = (ObjectNode) parameterObject;
+    StringBuilder sql = new StringBuilder();
+    List<ParameterMapping> parameterMappings = new ArrayList<>();
+    for (int i = 0; i < merged.size(); i++) {
+      String itemKey = ITEM_KEY_PREFIX + i;
+      BoundSql boundSql = delegate.getBoundSql(merged.get(itemKey));
+      Preconditions.checkArgument(isMergeable(boundSql), "sql can not be merged: %s", boundSql);
+      sql.append(i == 0 ? "select " : " union all select ");
+      sql.append(i).append(" as ").append(INDEX_COLUMN).append(", ");
+      sql.append(DERIVED_TABLE_ALIAS).append(".* from (").append(boundSql.getSql()).append(") ");
+      sql.append(DERIVED_TABLE_ALIAS);
+      for (ParameterMapping parameterMapping : boundSql.getParameterMappings()) {
+        parameterMappings.add(
+            new ParameterMapping.Builder(
+                    configuration,
+                    itemKey + "." + parameterMapping.getProperty(),
+                    parameterMapping.getTypeHandler())
+                .javaType(parameterMapping.getJavaType())
+                .jdbcType(parameterMapping.getJdbcType())
+                .jdbcTypeName(parameterMapping.getJdbcTypeName())
+                .numericScale(parameterMapping.getNumericScale())
+                .expression(parameterMapping.getExpression())
+                .build());
+      }
+    }
+    BoundSql boundSql =
+        new BoundSql(configuration, sql.toString(), parameterMappings, parameterObject);
+    boundSql.setAdditionalParameter(DynamicContext.PARAMETER_OBJECT_KEY, parameterObject);
+    boundSql.setAdditionalParameter(DynamicContext.DATABASE_ID_KEY, configuration.getDatabaseId());
+    return boundSql;
+  }
+}
@@ -5,16 +5,33 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.tencent.weblancer.external.JacksonBindingConfiguration;
+import com.tencent.weblancer.external.cancellation.StatementCancellationInterceptor;
+import com.tencent.weblancer.external.reactive.ReactiveQueryExecutor;
+import com.tencent.weblancer.external.scripting.UnionAllSqlSource;
+import com.tencent.weblancer.web.conf.BatchWindowDefinition;
+import com.tencent.weblancer.web.conf.CacheDefinition;
+import com.tencent.weblancer.web.conf.CompressionDefinition;
 import com.tencent.weblancer.web.conf.DynamicInterfaceDefinition;
+import com.tencent.weblancer.web.conf.PaginationDefinition;
+import com.tencent.weblancer.web.conf.ResultLayout;
 import com.tencent.weblancer.web.handler.GeneralQueryHandler;
+import com.tencent.weblancer.web.handler.KeysetPagination;
+import com.tencent.weblancer.web.handler.ParameterResolver;
+import com.tencent.weblancer.web.handler.QueryBatcher;
+import com.tencent.weblancer.web.metrics.MetricsHandler;
+import com.tencent.weblancer.web.metrics.MetricsRegistry;
+import com.tencent.weblancer.web.repo.BoundedWorkerExecutor;
+import com.tencent.weblancer.web.repo.DataSourceEngine;
 import com.tencent.weblancer.web.repo.DataSourceRegistry;
+import com.tencent.weblancer.web.validation.ParameterValidators;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.ext.web.Router;
-import io.vertx.ext.web.handler.BodyHandler;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Triple;
 import org.apache.ibatis.mapping.Environment;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ResultMap;
@@ -26,34 +43,45 @@ import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
 import org.checkerframework.checker.nullness.qual.NonNull;
 
 import javax.sql.DataSource;
-import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
 import static java.util.stream.Collectors.groupingBy;
-import static java.util.stream.Collectors.mapping;
 import static java.util.stream.Collectors.toList;
 
 /**
+ * Builds the router of all interfaces, the router can be rebuilt at runtime by {@link #reload(List)}.
+ *
  * @author fishzhao
  * @since 2021-01-11
  */
+@Slf4j
 public final class HttpRequestHandlerBuilder implements Supplier<Handler<HttpServerRequest>> {
 
   private static final AtomicInteger STMT_COUNTER = new AtomicInteger(0);
   private static final Pattern URI_PATTERN = Pattern.compile("(/[a-zA-Z0-9_\\-]+)+|/");
+  private static final String METRICS_URI = "/metrics";
+  private static final String BATCH_URI_SUFFIX = "/_batch";
 
   private final Vertx vertx;
   private final DataSourceRegistry dataSourceRegistry;
-  private final Map<String, List<DynamicInterfaceDefinition>> dataSourceIdConfigMap;
+  private final List<DynamicInterfaceDefinition> dynamicInterfaceDefinitions;
   private final ObjectMapper objectMapper = new ObjectMapper();
+  private final MetricsRegistry metricsRegistry;
+  private final AtomicReference<Router> router = new AtomicReference<>();
+  // dataSourceId -> interfaces mounted on the current router, only accessed under lock of this
+  private Map<String, MountedInterfaces> mountedInterfacesMap = Collections.emptyMap();
 
   public HttpRequestHandlerBuilder(
       @NonNull Vertx vertx,
@@ -62,75 +90,183 @@ public final class HttpRequestHandlerBuilder implements Supplier<Handler<HttpSer
     checkDynamicInterfaceDefinitions(dynamicInterfaceDefinitions);
     this.vertx = vertx;
     this.dataSourceRegistry = dataSourceRegistry;
-    this.dataSourceIdConfigMap =
-        dynamicInterfaceDefinitions.stream()
-            .map(c -> new AbstractMap.SimpleImmutableEntry<>(c.getDataSourceId(), c))
-            .collect(groupingBy(Map.Entry::getKey, mapping(Map.Entry::getValue, toList())));
+    this.dynamicInterfaceDefinitions = dynamicInterfaceDefinitions;
+    this.metricsRegistry = new MetricsRegistry(dataSourceRegistry);
   }
 
   @Override
   public Handler<HttpServerRequest> get() {
-    Router router = Router.router(vertx);
-    router.route().handler(BodyHandler.create(false));
-    Map<String, DynamicInterfaceDefinition> stmtIdConfigMap = new HashMap<>();
+    synchronized (this) {
+      if (router.get() == null) {
+        reload(dynamicInterfaceDefinitions);
+      }
+    }
+    return request -> router.get().handle(request);
+  }
+
+  /**
+   * Rebuilds the {@link SqlSessionFactory} and the handlers of the dataSources whose definitions
+   * changed, the others are kept as they are. Then the new router is swapped in atomically,
+   * requests already routed finish on the old handlers. DataSources, connection pools and worker
+   * pools are always kept.
+   *
+   * <p>Definitions are compared by identity, so unchanged definitions must be the same instances
+   * as last time.
+   *
+   * @throws IllegalArgumentException if the definitions are invalid, the current router is kept.
+   */
+  public synchronized void reload(@NonNull List<DynamicInterfaceDefinition> definitions) {
+    checkDynamicInterfaceDefinitions(definitions);
+    Map<String, List<DynamicInterfaceDefinition>> dataSourceIdConfigMap =
+        definitions.stream()
+            .collect(
+                groupingBy(
+                    DynamicInterfaceDefinition::getDataSourceId, LinkedHashMap::new, toList()));
+    Map<String, MountedInterfaces> nextMountedInterfacesMap = new LinkedHashMap<>();
+    List<String> rebuiltDataSourceIds = new ArrayList<>();
     for (Map.Entry<String, List<DynamicInterfaceDefinition>> entry :
         dataSourceIdConfigMap.entrySet()) {
-      stmtIdConfigMap.clear();
-      SqlSessionFactory sqlSessionFactory =
-          createSqlSessionFactory(entry.getKey(), entry.getValue(), stmtIdConfigMap);
-      for (Map.Entry<String, DynamicInterfaceDefinition> entry1 : stmtIdConfigMap.entrySet()) {
-        DynamicInterfaceDefinition definition = entry1.getValue();
-        GeneralQueryHandler queryHandler =
-            new GeneralQueryHandler(
-                definition.getParameterScopes(),
-                definition.getParameterValidation().orElse(null),
-                sqlSessionFactory,
-                entry1.getKey(),
-                definition.unwrapArray(),
-                objectMapper);
-        Set<HttpMethod> httpMethods = definition.getHttpMethods();
-        if (httpMethods == null || httpMethods.isEmpty()) {
-          router.route(definition.getUri()).handler(queryHandler);
-        } else {
-          for (HttpMethod method : httpMethods) {
-            router.route(method, definition.getUri()).handler(queryHandler);
-          }
-        }
+      MountedInterfaces mountedInterfaces = mountedInterfacesMap.get(entry.getKey());
+      if (mountedInterfaces == null || !mountedInterfaces.isMountedFrom(entry.getValue())) {
+        mountedInterfaces = mountInterfaces(entry.getKey(), entry.getValue());
+        rebuiltDataSourceIds.add(entry.getKey());
       }
+      nextMountedInterfacesMap.put(entry.getKey(), mountedInterfaces);
+    }
+    Router nextRouter = Router.router(vertx);
+    // no body handler, bodies are parsed by GeneralQueryHandler while they arrive
+    for (MountedInterfaces mountedInterfaces : nextMountedInterfacesMap.values()) {
+      mountedInterfaces.mountTo(nextRouter);
+    }
+    // routes are matched in order, an interface with the same uri wins
+    for (MountedInterfaces mountedInterfaces : nextMountedInterfacesMap.values()) {
+      mountedInterfaces.mountBatchTo(nextRouter);
     }
-    return router;
+    nextRouter.get(METRICS_URI).handler(new MetricsHandler(metricsRegistry));
+    mountedInterfacesMap = nextMountedInterfacesMap;
+    router.set(nextRouter);
+    metricsRegistry.retainInterfaces(
+        definitions.stream()
+            .map(
+                definition ->
+                    Triple.of(
+                        definition.getDataSourceId(),
+                        definition.getUri(),
+                        MetricsRegistry.methodsLabel(definition.getHttpMethods())))
+            .collect(toList()));
+    log.info(
+        "Router with [{}] interface(s) is ready, dataSource(s) rebuilt: {}",
+        definitions.size(),
+        rebuiltDataSourceIds);
   }
 
-  private SqlSessionFactory createSqlSessionFactory(
+  private MountedInterfaces mountInterfaces(
+      String dataSourceId, List<DynamicInterfaceDefinition> definitions) {
+    Map<String, DynamicInterfaceDefinition> stmtIdConfigMap = new LinkedHashMap<>();
+    boolean reactive = dataSourceRegistry.engine(dataSourceId) == DataSourceEngine.REACTIVE;
+    Configuration configuration =
+        createConfiguration(dataSourceId, definitions, stmtIdConfigMap, reactive);
+    SqlSessionFactory sqlSessionFactory = new SqlSessionFactoryBuilder().build(configuration);
+    BoundedWorkerExecutor workerExecutor =
+        reactive ? null : dataSourceRegistry.workerExecutor(dataSourceId, vertx);
+    ReactiveQueryExecutor reactiveExecutor =
+        reactive
+            ? new ReactiveQueryExecutor(
+                configuration,
+                dataSourceRegistry.mySqlPool(dataSourceId, vertx),
+                objectMapper.getNodeFactory())
+            : null;
+    MountedInterfaces mountedInterfaces = new MountedInterfaces(definitions);
+    for (Map.Entry<String, DynamicInterfaceDefinition> entry : stmtIdConfigMap.entrySet()) {
+      DynamicInterfaceDefinition definition = entry.getValue();
+      String methods = MetricsRegistry.methodsLabel(definition.getHttpMethods());
+      GeneralQueryHandler queryHandler =
+          new GeneralQueryHandler(
+              ParameterResolver.compile(definition, objectMapper),
+              definition.getParameterValidation().map(ParameterValidators::compile).orElse(null),
+              sqlSessionFactory,
+              entry.getKey(),
+              definition.unwrapArray(),
+              definition.streaming(),
+              definition.getCache().orElse(null),
+              definition.coalesce(),
+              definition.getPagination().orElse(null),
+              definition.getBatchWindow().orElse(null),
+              definition.getTimeoutMillis(),
+              definition.getMaxBodyBytes(),
+              definition.getCompression().orElse(null),
+              definition.getLayout(),
+              objectMapper,
+              workerExecutor,
+              reactiveExecutor,
+              definition.adaptiveConcurrency()
+                  ? dataSourceRegistry.newAdaptiveConcurrencyLimit(dataSourceId, entry.getKey())
+                  : null,
+              dataSourceRegistry.concurrencyLimit(dataSourceId),
+              metricsRegistry.forInterface(dataSourceId, definition.getUri(), methods));
+      metricsRegistry.bindCacheStats(
+          dataSourceId, definition.getUri(), methods, queryHandler::getCacheStats);
+      // an interface reloaded with adaptiveConcurrency off is unbound from its former limit
+      metricsRegistry.bindConcurrencyLimit(
+          dataSourceId,
+          definition.getUri(),
+          methods,
+          queryHandler.getConcurrencyLimit().orElse(null));
+      mountedInterfaces.handlers.put(definition, queryHandler);
+    }
+    return mountedInterfaces;
+  }
+
+  private Configuration createConfiguration(
       String dataSourceId,
       Iterable<DynamicInterfaceDefinition> dynamicInterfaceDefinitions,
-      Map<String, DynamicInterfaceDefinition> stmtIdConfigMap) {
-    DataSource dataSource = dataSourceRegistry.apply(dataSourceId);
-    Environment environment =
-        new Environment(dataSourceId, new JdbcTransactionFactory(), dataSource);
-    JacksonBindingConfiguration configuration =
-        new JacksonBindingConfiguration(environment, objectMapper);
+      Map<String, DynamicInterfaceDefinition> stmtIdConfigMap,
+      boolean reactive) {
+    JacksonBindingConfiguration configuration;
+    if (reactive) {
+      // only used to render sql, no jdbc connection is required
+      configuration = new JacksonBindingConfiguration(objectMapper);
+    } else {
+      DataSource dataSource = dataSourceRegistry.apply(dataSourceId);
+      Environment environment =
+          new Environment(dataSourceId, new JdbcTransactionFactory(), dataSource);
+      configuration = new JacksonBindingConfiguration(environment, objectMapper);
+      configuration.addInterceptor(new StatementCancellationInterceptor());
+    }
     for (DynamicInterfaceDefinition definition : dynamicInterfaceDefinitions) {
       String stmtId = stmtId(definition.getDataSourceId(), definition.getUri());
-      configuration.addMappedStatement(createMappedStatement(definition, configuration, stmtId));
+      MappedStatement mappedStatement = createMappedStatement(definition, configuration, stmtId);
+      configuration.addMappedStatement(mappedStatement);
+      if (!reactive && !definition.streaming()) {
+        configuration.addMappedStatement(createBatchMappedStatement(mappedStatement));
+      }
+      if (definition.getBatchWindow().isPresent()) {
+        configuration.addMappedStatement(
+            createWindowMappedStatement(definition, mappedStatement));
+      }
       stmtIdConfigMap.put(stmtId, definition);
     }
-    return new SqlSessionFactoryBuilder().build(configuration);
+    return configuration;
   }
 
   private MappedStatement createMappedStatement(
       DynamicInterfaceDefinition definition, Configuration configuration, String stmtId) {
+    String script = StringUtils.join(definition.getSqlScriptSegments(), ' ').trim();
+    Optional<PaginationDefinition> pagination = definition.getPagination();
+    if (pagination.isPresent()) {
+      script = KeysetPagination.wrapScript(script, pagination.get());
+    }
     return new MappedStatement.Builder(
             configuration,
             stmtId,
             configuration
                 .getLanguageRegistry()
                 .getDefaultDriver()
-                .createSqlSource(
-                    configuration,
-                    StringUtils.join(definition.getSqlScriptSegments(), ' ').trim(),
-                    ObjectNode.class),
+                .createSqlSource(configuration, script, ObjectNode.class),
             SqlCommandType.SELECT)
+        // one page and the row telling whether there is a next page
+        .fetchSize(pagination.map(p -> p.getMaxPageSize() + 1).orElse(null))
+        .timeout(timeoutSeconds(definition))
         .resultMaps(
             Collections.singletonList(
                 new ResultMap.Builder(
@@ -142,6 +278,47 @@ public final class HttpRequestHandlerBuilder implements Supplier<Handler<HttpSer
         .build();
   }
 
+  /** The same statement whose parameter sets of a batch request are merged by union all. */
+  private MappedStatement createBatchMappedStatement(MappedStatement mappedStatement) {
+    Configuration configuration = mappedStatement.getConfiguration();
+    return new MappedStatement.Builder(
+            configuration,
+            mappedStatement.getId() + UnionAllSqlSource.STMT_ID_SUFFIX,
+            new UnionAllSqlSource(configuration, mappedStatement.getSqlSource()),
+            SqlCommandType.SELECT)
+        .fetchSize(mappedStatement.getFetchSize())
+        .timeout(mappedStatement.getTimeout())
+        .resultMaps(mappedStatement.getResultMaps())
+        .build();
+  }
+
+  /** @return the statement timeout, jdbc only supports whole seconds */
+  private static Integer timeoutSeconds(DynamicInterfaceDefinition definition) {
+    long timeoutMillis = definition.getTimeoutMillis();
+    return timeoutMillis > 0 ? (int) Math.max(1, (timeoutMillis + 999) / 1000) : null;
+  }
+
+  /** The same statement looking up all keys of a batch window at once. */
+  private MappedStatement createWindowMappedStatement(
+      DynamicInterfaceDefinition definition, MappedStatement mappedStatement) {
+    Configuration configuration = mappedStatement.getConfiguration();
+    String script = StringUtils.join(definition.getSqlScriptSegments(), ' ').trim();
+    return new MappedStatement.Builder(
+            configuration,
+            mappedStatement.getId() + QueryBatcher.STMT_ID_SUFFIX,
+            configuration
+                .getLanguageRegistry()
+                .getDefaultDriver()
+                .createSqlSource(
+                    configuration,
+                    QueryBatcher.rewriteScript(script, definition.getBatchWindow().get()),
+                    ObjectNode.class),
+            SqlCommandType.SELECT)
+        .timeout(mappedStatement.getTimeout())
+        .resultMaps(mappedStatement.getResultMaps())
+        .build();
+  }
+
   private String stmtId(String dataSourceId, String uri) {
     return Strings.lenientFormat("%s(%s)#%s", dataSourceId, uri, STMT_COUNTER.incrementAndGet());
   }
@@ -158,6 +335,39 @@ public final class HttpRequestHandlerBuilder implements Supplier<Handler<HttpSer
           "illegal uri pattern: `%s`, valid pattern is: `%s`",
           uri,
           URI_PATTERN.pattern());
+      Preconditions.checkArgument(
+          !(definition.streaming() && definition.unwrapArray()),
+          "`streaming` can not be used together with `unwrapArray`, uri: `%s`",
+          uri);
+      Preconditions.checkArgument(
+          !(definition.streaming() && definition.getCache().isPresent()),
+          "`streaming` can not be used together with `cache`, uri: `%s`",
+          uri);
+      Preconditions.checkArgument(
+          !(definition.streaming() && definition.coalesce()),
+          "`streaming` can not be used together with `coalesce`, uri: `%s`",
+          uri);
+      definition.getCache().ifPresent(CacheDefinition::validate);
+      definition.getCompression().ifPresent(CompressionDefinition::validate);
+      Preconditions.checkArgument(
+          !(definition.getPagination().isPresent() && definition.unwrapArray()),
+          "`pagination` can not be used together with `unwrapArray`, uri: `%s`",
+          uri);
+      definition.getPagination().ifPresent(PaginationDefinition::validate);
+      Preconditions.checkArgument(
+          !(definition.getBatchWindow().isPresent()
+              && (definition.streaming() || definition.getPagination().isPresent())),
+          "`batchWindow` can not be used together with `streaming` or `pagination`, uri: `%s`",
+          uri);
+      definition.getBatchWindow().ifPresent(BatchWindowDefinition::validate);
+      Preconditions.checkArgument(
+          !(definition.getLayout() == ResultLayout.COLUMNAR
+              && (definition.unwrapArray()
+                  || definition.getPagination().isPresent()
+                  || definition.getBatchWindow().isPresent())),
+          "`columnar` layout can not be used together with `unwrapArray`, `pagination` or "
+              + "`batchWindow`, uri: `%s`",
+          uri);
       if (definition.getHttpMethods() == null || definition.getHttpMethods().isEmpty()) {
         Preconditions.checkArgument(
             uriHttpMethodsMap.put(uri, new HashSet<>(HttpMethod.values())) == null,
@@ -176,4 +386,54 @@ public final class HttpRequestHandlerBuilder implements Supplier<Handler<HttpSer
       }
     }
   }
+
+  private static final class MountedInterfaces {
+
+    private final List<DynamicInterfaceDefinition> definitions;
+    private final Map<DynamicInterfaceDefinition, GeneralQueryHandler> handlers =
+        new LinkedHashMap<>();
+
+    MountedInterfaces(List<DynamicInterfaceDefinition> definitions) {
+      this.definitions = definitions;
+    }
+
+    boolean isMountedFrom(List<DynamicInterfaceDefinition> otherDefinitions) {
+      if (definitions.size() != otherDefinitions.size()) {
+        return false;
+      }
+      for (int i = 0; i < definitions.size(); i++) {
+        if (definitions.get(i) != otherDefinitions.get(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    void mountBatchTo(Router router) {
+      for (Map.Entry<DynamicInterfaceDefinition, GeneralQueryHandler> entry :
+          handlers.entrySet()) {
+        DynamicInterfaceDefinition definition = entry.getKey();
+        if (definition.streaming()) {
+          continue;
+        }
+        String uri = "/".equals(definition.getUri()) ? "" : definition.getUri();
+        router.post(uri + BATCH_URI_SUFFIX).handler(entry.getValue()::handleBatch);
+      }
+    }
+
+    void mountTo(Router router) {
+      for (Map.Entry<DynamicInterfaceDefinition, GeneralQueryHandler> entry :
+          handlers.entrySet()) {
+        DynamicInterfaceDefinition definition = entry.getKey();
+        Set<HttpMethod> httpMethods = definition.getHttpMethods();
+        if (httpMethods == null || httpMethods.isEmpty()) {
+          router.route(definition.getUri()).handler(entry.getValue());
+        } else {
+          for (HttpMethod method : httpMethods) {
+            router.route(method, definition.getUri()).handler(entry.getValue());
+          }
+        }
+      }
+    }
+  }
 }
@@ -0,0 +1,59 @@
+package com.tencent.weblancer.web;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpServerRequest;
+import lombok.NonNull;
+
+/**
+ * One instance of the http server, running on an event loop of its own. Vert.x balances the
+ * connections of the port between the instances, so accepting and parsing requests scale with the
+ * event loops. All instances share one request handler, i.e. the router of {@link
+ * HttpRequestHandlerBuilder} with its dataSources, {@code SqlSessionFactory}s and caches.
+ *
+ * @author fishzhao
+ * @since 2021-03-22
+ */
+public final class HttpServerVerticle extends AbstractVerticle {
+
+  private final HttpServerOptions options;
+  private final int port;
+  private final Handler<HttpServerRequest> requestHandler;
+
+  public HttpServerVerticle(
+      @NonNull HttpServerOptions options,
+      int port,
+      @NonNull Handler<HttpServerRequest> requestHandler) {
+    this.options = options;
+    this.port = port;
+    this.requestHandler = requestHandler;
+  }
+
+  /** @return the deployment id once every instance is listening */
+  public static Future<String> deploy(
+      Vertx vertx,
+      HttpServerOptions options,
+      int port,
+      Handler<HttpServerRequest> requestHandler,
+      int instances) {
+    return vertx.deployVerticle(
+        () -> new HttpServerVerticle(options, port, requestHandler),
+        new DeploymentOptions().setInstances(instances));
+  }
+
+  @Override
+  public void start(Promise<Void> startPromise) {
+    // closed by vert.x when undeployed
+    vertx
+        .createHttpServer(new HttpServerOptions(options))
+        .requestHandler(requestHandler)
+        .listen(port)
+        .<Void>mapEmpty()
+        .onComplete(startPromise);
+  }
+}
@@ -9,20 +9,28 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.tencent.weblancer.web.conf.AppMetaConfig;
 import com.tencent.weblancer.web.conf.DynamicInterfaceDefinition;
 import com.tencent.weblancer.web.conf.FileInterfaceDefinitionSupplier;
+import com.tencent.weblancer.web.conf.InterfaceDefinitionReloader;
+import com.tencent.weblancer.web.conf.SslConfig;
 import com.tencent.weblancer.web.repo.DataSourceRegistry;
 import io.vertx.core.Vertx;
 import io.vertx.core.VertxOptions;
-import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.Http2Settings;
 import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.net.JksOptions;
+import io.vertx.core.net.PfxOptions;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author fishzhao
@@ -56,7 +64,7 @@ public final class WebApp {
     new WebApp(metaConfig, configMapper).start();
   }
 
-  private void start()  {
+  private void start() throws IOException {
     metaConfig.validate();
     DataSourceRegistry dataSourceRegistry = new DataSourceRegistry();
     metaConfig
@@ -65,28 +73,108 @@ public final class WebApp {
             objectNode ->
                 dataSourceRegistry.registerDataSourceConfig(
                     objectNode.remove("id").asText(), objectNode));
+    FileInterfaceDefinitionSupplier interfaceDefinitionSupplier =
+        new FileInterfaceDefinitionSupplier(metaConfig, configMapper);
+    Map<Path, List<DynamicInterfaceDefinition>> definitionsByFile =
+        interfaceDefinitionSupplier.getByFile();
     List<DynamicInterfaceDefinition> dynamicInterfaceDefinitions =
-        new FileInterfaceDefinitionSupplier(metaConfig, configMapper).get();
+        FileInterfaceDefinitionSupplier.flatten(definitionsByFile);
 
-    Vertx vertx = Vertx.vertx(new VertxOptions().setPreferNativeTransport(true));
+    VertxOptions vertxOptions = new VertxOptions().setPreferNativeTransport(true);
+    if (metaConfig.getEventLoopPoolSize() > 0) {
+      vertxOptions.setEventLoopPoolSize(metaConfig.getEventLoopPoolSize());
+    }
+    if (metaConfig.getWorkerPoolSize() > 0) {
+      vertxOptions.setWorkerPoolSize(metaConfig.getWorkerPoolSize());
+    }
+    Vertx vertx = Vertx.vertx(vertxOptions);
     HttpRequestHandlerBuilder httpRequestHandlerBuilder =
         new HttpRequestHandlerBuilder(vertx, dataSourceRegistry, dynamicInterfaceDefinitions);
+    InterfaceDefinitionReloader reloader =
+        metaConfig.isHotReload()
+            ? new InterfaceDefinitionReloader(
+                    metaConfig,
+                    interfaceDefinitionSupplier,
+                    definitionsByFile,
+                    httpRequestHandlerBuilder::reload)
+                .start()
+            : null;
 
-    HttpServer httpServer =
-        vertx.createHttpServer(
-            new HttpServerOptions().setTcpFastOpen(true).setTcpNoDelay(true).setTcpQuickAck(true));
-
-    httpServer
-        .requestHandler(httpRequestHandlerBuilder.get())
-        .listen(metaConfig.getServerPort())
+    // one instance per core by default, but no more than the event loops
+    int instances =
+        metaConfig.getHttpServerInstances() > 0
+            ? metaConfig.getHttpServerInstances()
+            : Math.min(
+                Runtime.getRuntime().availableProcessors(), vertxOptions.getEventLoopPoolSize());
+    HttpServerVerticle.deploy(
+            vertx,
+            createHttpServerOptions(),
+            metaConfig.getServerPort(),
+            httpRequestHandlerBuilder.get(),
+            instances)
         .onSuccess(
-            s -> log.info("Start httpServer successfully listening on port: {}", s.actualPort()));
+            id ->
+                log.info(
+                    "Start httpServer successfully with [{}] instance(s) on [{}] event loop(s) "
+                        + "listening on port: {} ({})",
+                    instances,
+                    vertxOptions.getEventLoopPoolSize(),
+                    metaConfig.getServerPort(),
+                    metaConfig.getSsl() == null ? "http/1.1, h2c" : "TLS with http/1.1, h2"))
+        .onFailure(e -> log.error("Failed to start httpServer: ", e));
 
-    addShutdownHook(vertx, httpServer, dataSourceRegistry);
+    addShutdownHook(vertx, dataSourceRegistry, reloader);
+  }
+
+  /**
+   * Options of every instance of the http server. Vert.x accepts h2c besides http/1.1 on a plain
+   * port, both by upgrade and with prior knowledge, so only the http/2 settings are tuned here.
+   */
+  private HttpServerOptions createHttpServerOptions() {
+    HttpServerOptions options =
+        new HttpServerOptions()
+            .setTcpFastOpen(true)
+            .setTcpNoDelay(true)
+            .setTcpQuickAck(true)
+            .setReusePort(metaConfig.isReusePort());
+    // the defaults of the server, e.g. 100 concurrent streams, not the unbounded protocol defaults
+    Http2Settings http2Settings = options.getInitialSettings();
+    if (metaConfig.getHttp2MaxConcurrentStreams() > 0) {
+      http2Settings.setMaxConcurrentStreams(metaConfig.getHttp2MaxConcurrentStreams());
+    }
+    if (metaConfig.getHttp2InitialWindowSize() > 0) {
+      http2Settings.setInitialWindowSize(metaConfig.getHttp2InitialWindowSize());
+    }
+    if (metaConfig.getHttp2ConnectionWindowSize() > 0) {
+      options.setHttp2ConnectionWindowSize(metaConfig.getHttp2ConnectionWindowSize());
+    }
+    if (metaConfig.getIdleTimeoutSeconds() > 0) {
+      options
+          .setIdleTimeout(metaConfig.getIdleTimeoutSeconds())
+          .setIdleTimeoutUnit(TimeUnit.SECONDS);
+    }
+    if (metaConfig.getAcceptBacklog() > 0) {
+      options.setAcceptBacklog(metaConfig.getAcceptBacklog());
+    }
+    SslConfig ssl = metaConfig.getSsl();
+    if (ssl != null) {
+      // ALPN of the JDK, since 8u252
+      options.setSsl(true).setUseAlpn(true);
+      if (ssl.isPkcs12()) {
+        options.setPfxKeyCertOptions(
+            new PfxOptions().setPath(ssl.getKeyStorePath()).setPassword(ssl.getKeyStorePassword()));
+      } else {
+        options.setKeyStoreOptions(
+            new JksOptions().setPath(ssl.getKeyStorePath()).setPassword(ssl.getKeyStorePassword()));
+      }
+    }
+    return options;
   }
 
   private void addShutdownHook(
-      Vertx vertx, HttpServer httpServer, DataSourceRegistry dataSourceRegistry) {
+      Vertx vertx,
+      DataSourceRegistry dataSourceRegistry,
+      InterfaceDefinitionReloader reloader) {
     Runtime.getRuntime()
         .addShutdownHook(
             new ThreadFactoryBuilder()
@@ -94,14 +182,22 @@ public final class WebApp {
                 .setDaemon(false)
                 .build()
                 .newThread(
-                    () ->
-                        httpServer
-                            .close()
-                            .onSuccess(
-                                v -> {
-                                  log.info("HttpServer shutdown successfully!");
-                                  vertx.close();
-                                  dataSourceRegistry.close();
-                                })));
+                    () -> {
+                      if (reloader != null) {
+                        try {
+                          reloader.close();
+                        } catch (IOException e) {
+                          log.warn("Failed to close interface definition reloader: ", e);
+                        }
+                      }
+                      // the http servers are closed together with their verticles
+                      vertx
+                          .close()
+                          .onComplete(
+                              ar -> {
+                                log.info("HttpServer shutdown successfully!");
+                                dataSourceRegistry.close();
+                              });
+                    }));
   }
 }
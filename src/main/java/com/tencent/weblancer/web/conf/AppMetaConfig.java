@@ -21,16 +21,59 @@ public final class AppMetaConfig {
   private final int serverPort;
   private final List<ObjectNode> dataSources;
   private final List<String> interfaceDefinitionPath;
+  // 为true时监听interfaceDefinitionPath，接口定义文件变更后无需重启即可生效
+  private final boolean hotReload;
+  // 小于等于0表示默认值：event loop 数为 2 * 核数，http server 实例数为核数
+  private final int eventLoopPoolSize;
+  private final int workerPoolSize;
+  private final int httpServerInstances;
+  // 以下连接参数小于等于0表示vert.x的默认值
+  // HTTP/2 每个连接上同时进行的请求数，默认100
+  private final long http2MaxConcurrentStreams;
+  // HTTP/2 每个请求的流控窗口，默认65535
+  private final int http2InitialWindowSize;
+  // HTTP/2 整个连接的流控窗口，默认65535
+  private final int http2ConnectionWindowSize;
+  // 默认不关闭空闲连接
+  private final int idleTimeoutSeconds;
+  // 默认由操作系统决定
+  private final int acceptBacklog;
+  private final boolean reusePort;
+  // 为null时不启用TLS
+  private final SslConfig ssl;
 
   @JsonCreator
   public AppMetaConfig(
       @JsonProperty("serverPort") int serverPort,
       @JsonProperty("dataSources") @JsonAlias("dataSource") List<ObjectNode> dataSources,
       @JsonProperty("interfaceDefinitionPath") @JsonAlias("interfaceDefinitionPaths")
-          List<String> interfaceDefinitionPath) {
+          List<String> interfaceDefinitionPath,
+      @JsonProperty("hotReload") boolean hotReload,
+      @JsonProperty("eventLoopPoolSize") int eventLoopPoolSize,
+      @JsonProperty("workerPoolSize") int workerPoolSize,
+      @JsonProperty("httpServerInstances") @JsonAlias("instances") int httpServerInstances,
+      @JsonProperty("http2MaxConcurrentStreams") @JsonAlias("maxConcurrentStreams")
+          long http2MaxConcurrentStreams,
+      @JsonProperty("http2InitialWindowSize") int http2InitialWindowSize,
+      @JsonProperty("http2ConnectionWindowSize") int http2ConnectionWindowSize,
+      @JsonProperty("idleTimeoutSeconds") @JsonAlias("idleTimeout") int idleTimeoutSeconds,
+      @JsonProperty("acceptBacklog") int acceptBacklog,
+      @JsonProperty("reusePort") boolean reusePort,
+      @JsonProperty("ssl") SslConfig ssl) {
     this.serverPort = serverPort;
     this.dataSources = dataSources;
     this.interfaceDefinitionPath = interfaceDefinitionPath;
+    this.hotReload = hotReload;
+    this.eventLoopPoolSize = eventLoopPoolSize;
+    this.workerPoolSize = workerPoolSize;
+    this.httpServerInstances = httpServerInstances;
+    this.http2MaxConcurrentStreams = http2MaxConcurrentStreams;
+    this.http2InitialWindowSize = http2InitialWindowSize;
+    this.http2ConnectionWindowSize = http2ConnectionWindowSize;
+    this.idleTimeoutSeconds = idleTimeoutSeconds;
+    this.acceptBacklog = acceptBacklog;
+    this.reusePort = reusePort;
+    this.ssl = ssl;
   }
 
   public void validate() {
@@ -45,5 +88,8 @@ public final class AppMetaConfig {
     Preconditions.checkArgument(
         interfaceDefinitionPath != null && !interfaceDefinitionPath.isEmpty(),
         "empty interfaceDefinitionPath!");
+    if (ssl != null) {
+      ssl.validate();
+    }
   }
 }
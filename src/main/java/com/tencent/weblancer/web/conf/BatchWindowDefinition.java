@@ -0,0 +1,69 @@
+package com.tencent.weblancer.web.conf;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.regex.Pattern;
+
+/**
+ * Cross-request micro-batching of a keyed lookup: requests which differ only in the key parameter
+ * and arrive within the window are answered by one {@code key_column in (...)} query, the rows
+ * are split back to each request by the key column.
+ *
+ * @author fishzhao
+ * @since 2021-03-15
+ */
+@Getter
+@ToString
+public final class BatchWindowDefinition {
+
+  private static final Pattern IDENTIFIER_PATTERN = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+  private static final int DEFAULT_MAX_KEYS = 100;
+  private static final int MAX_WINDOW_MILLIS = 1000;
+  private static final int MAX_MAX_KEYS = 1000;
+
+  private final String keyParameter;
+  // 结果中的键列，默认与keyParameter同名
+  private final String keyColumn;
+  private final long windowMillis;
+  // 小于等于0表示默认值100
+  private final int maxKeys;
+
+  @JsonCreator
+  public BatchWindowDefinition(
+      @JsonProperty("keyParameter") String keyParameter,
+      @JsonProperty("keyColumn") String keyColumn,
+      @JsonProperty("windowMillis") long windowMillis,
+      @JsonProperty("maxKeys") int maxKeys) {
+    this.keyParameter = keyParameter;
+    this.keyColumn = keyColumn != null ? keyColumn : keyParameter;
+    this.windowMillis = windowMillis;
+    this.maxKeys = maxKeys > 0 ? maxKeys : DEFAULT_MAX_KEYS;
+  }
+
+  public void validate() {
+    Preconditions.checkArgument(
+        keyParameter != null && IDENTIFIER_PATTERN.matcher(keyParameter).matches(),
+        "illegal batchWindow keyParameter: `%s`, valid pattern is: `%s`",
+        keyParameter,
+        IDENTIFIER_PATTERN.pattern());
+    Preconditions.checkArgument(
+        keyColumn != null && IDENTIFIER_PATTERN.matcher(keyColumn).matches(),
+        "illegal batchWindow keyColumn: `%s`, valid pattern is: `%s`",
+        keyColumn,
+        IDENTIFIER_PATTERN.pattern());
+    Preconditions.checkArgument(
+        windowMillis > 0 && windowMillis <= MAX_WINDOW_MILLIS,
+        "illegal batchWindow windowMillis: %s, valid range is [1, %s]",
+        windowMillis,
+        MAX_WINDOW_MILLIS);
+    Preconditions.checkArgument(
+        maxKeys <= MAX_MAX_KEYS,
+        "illegal batchWindow maxKeys: %s, valid range is [1, %s]",
+        maxKeys,
+        MAX_MAX_KEYS);
+  }
+}
@@ -0,0 +1,51 @@
+package com.tencent.weblancer.web.conf;
+
+import com.fasterxml.jackson.annotation.JsonAlias;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Declarative result cache of a dynamic interface, the serialized response is cached with the
+ * resolved parameters as key.
+ *
+ * @author fishzhao
+ * @since 2021-03-02
+ */
+@Getter
+@ToString
+public final class CacheDefinition {
+
+  private final long ttlMillis;
+  private final long maxWeightBytes;
+  // 小于等于0表示不主动刷新
+  private final long refreshAfterWriteMillis;
+
+  @JsonCreator
+  public CacheDefinition(
+      @JsonProperty("ttlMillis") @JsonAlias("ttl") long ttlMillis,
+      @JsonProperty("maxWeightBytes") @JsonAlias("maxWeight") long maxWeightBytes,
+      @JsonProperty("refreshAfterWriteMillis") @JsonAlias("refreshAfterWrite")
+          long refreshAfterWriteMillis) {
+    this.ttlMillis = ttlMillis;
+    this.maxWeightBytes = maxWeightBytes;
+    this.refreshAfterWriteMillis = refreshAfterWriteMillis;
+  }
+
+  public boolean refreshEnabled() {
+    return refreshAfterWriteMillis > 0;
+  }
+
+  public void validate() {
+    Preconditions.checkArgument(ttlMillis > 0, "illegal cache ttlMillis: %s", ttlMillis);
+    Preconditions.checkArgument(
+        maxWeightBytes > 0, "illegal cache maxWeightBytes: %s", maxWeightBytes);
+    Preconditions.checkArgument(
+        !refreshEnabled() || refreshAfterWriteMillis < ttlMillis,
+        "cache refreshAfterWriteMillis(%s) should be less than ttlMillis(%s)",
+        refreshAfterWriteMillis,
+        ttlMillis);
+  }
+}
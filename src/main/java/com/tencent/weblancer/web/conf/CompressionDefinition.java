@@ -0,0 +1,56 @@
+package com.tencent.weblancer.web.conf;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Compression of the responses of a dynamic interface, in the content coding negotiated by the
+ * {@code Accept-Encoding} header. Responses smaller than {@link #minBytes} are sent as they are,
+ * e.g. the ones of point lookups, the bytes saved do not pay for the CPU.
+ *
+ * @author fishzhao
+ * @since 2021-03-25
+ */
+@Getter
+@ToString
+public final class CompressionDefinition {
+
+  private static final int DEFAULT_MIN_BYTES = 1024;
+  private static final int DEFAULT_LEVEL = 6;
+  private static final int DEFAULT_ZSTD_LEVEL = 3;
+  private static final int MAX_LEVEL = 9;
+  private static final int MAX_ZSTD_LEVEL = 22;
+
+  // 小于等于0表示默认值1024
+  private final int minBytes;
+  // gzip和deflate的压缩级别，小于等于0表示默认值6
+  private final int level;
+  // zstd的压缩级别，小于等于0表示默认值3
+  private final int zstdLevel;
+
+  @JsonCreator
+  public CompressionDefinition(
+      @JsonProperty("minBytes") int minBytes,
+      @JsonProperty("level") int level,
+      @JsonProperty("zstdLevel") int zstdLevel) {
+    this.minBytes = minBytes > 0 ? minBytes : DEFAULT_MIN_BYTES;
+    this.level = level > 0 ? level : DEFAULT_LEVEL;
+    this.zstdLevel = zstdLevel > 0 ? zstdLevel : DEFAULT_ZSTD_LEVEL;
+  }
+
+  public void validate() {
+    Preconditions.checkArgument(
+        level <= MAX_LEVEL,
+        "illegal compression level: %s, valid range is [1, %s]",
+        level,
+        MAX_LEVEL);
+    Preconditions.checkArgument(
+        zstdLevel <= MAX_ZSTD_LEVEL,
+        "illegal compression zstdLevel: %s, valid range is [1, %s]",
+        zstdLevel,
+        MAX_ZSTD_LEVEL);
+  }
+}
@@ -27,5 +27,31 @@ public interface DynamicInterfaceDefinition {
 
   boolean unwrapArray();
 
+  // 为true时逐行写出响应，不在内存中构建完整的结果集
+  boolean streaming();
+
+  // 为true时，同一时刻参数相同的查询只会访问一次数据库
+  boolean coalesce();
+
+  // 默认为true，按查询延迟自适应地限制该接口的并发查询数；为false时只受数据源的上限约束
+  boolean adaptiveConcurrency();
+
+  // 小于等于0表示不限制查询时间
+  long getTimeoutMillis();
+
+  // 请求体超过该大小时返回413
+  long getMaxBodyBytes();
+
+  // 请求可以通过 X-Result-Layout 头覆盖
+  ResultLayout getLayout();
+
   Optional<JsonSchema> getParameterValidation();
+
+  Optional<CacheDefinition> getCache();
+
+  Optional<CompressionDefinition> getCompression();
+
+  Optional<PaginationDefinition> getPagination();
+
+  Optional<BatchWindowDefinition> getBatchWindow();
 }
@@ -11,7 +11,10 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 
@@ -34,9 +37,14 @@ public final class FileInterfaceDefinitionSupplier
 
   @Override
   public List<DynamicInterfaceDefinition> get() {
-    List<DynamicInterfaceDefinition> dynamicInterfaceDefinitions = new ArrayList<>();
+    return flatten(getByFile());
+  }
+
+  /** @return definitions grouped by the absolute path of the file they are read from */
+  public Map<Path, List<DynamicInterfaceDefinition>> getByFile() {
+    Map<Path, List<DynamicInterfaceDefinition>> definitionsByFile = new LinkedHashMap<>();
     for (String strPath : appMetaConfig.getInterfaceDefinitionPath()) {
-      Path path = Paths.get(strPath);
+      Path path = Paths.get(strPath).toAbsolutePath().normalize();
       if (!Files.isReadable(path)) {
         log.warn("Path [{}] is not readable and will be skipped!", path);
         continue;
@@ -46,20 +54,27 @@ public final class FileInterfaceDefinitionSupplier
           pathStream
               .filter(Files::isRegularFile)
               .filter(Files::isReadable)
-              .forEach(p -> addInterfaceDefinition(dynamicInterfaceDefinitions, p));
+              .forEach(p -> definitionsByFile.put(p, read(p)));
         } catch (IOException e) {
           throw new RuntimeException(e);
         }
       } else if (Files.isRegularFile(path) && Files.isReadable(path)) {
-        addInterfaceDefinition(dynamicInterfaceDefinitions, path);
+        definitionsByFile.put(path, read(path));
       }
     }
-    log.info("[{}] interface(s) detected.", dynamicInterfaceDefinitions.size());
+    log.info("[{}] interface(s) detected.", flatten(definitionsByFile).size());
+    return definitionsByFile;
+  }
+
+  public static List<DynamicInterfaceDefinition> flatten(
+      Map<Path, List<DynamicInterfaceDefinition>> definitionsByFile) {
+    List<DynamicInterfaceDefinition> dynamicInterfaceDefinitions = new ArrayList<>();
+    definitionsByFile.values().forEach(dynamicInterfaceDefinitions::addAll);
     return dynamicInterfaceDefinitions;
   }
 
-  private void addInterfaceDefinition(
-      List<DynamicInterfaceDefinition> dynamicInterfaceDefinitions, Path path) {
+  /** @return definitions in a single file, may be empty */
+  public List<DynamicInterfaceDefinition> read(Path path) {
     try (InputStream in = Files.newInputStream(path, StandardOpenOption.READ)) {
       List<JsonInterfaceDefinition> jsonInterfaceDefinitions =
           configMapper.readValue(
@@ -67,13 +82,12 @@ public final class FileInterfaceDefinitionSupplier
               configMapper
                   .getTypeFactory()
                   .constructCollectionType(ArrayList.class, JsonInterfaceDefinition.class));
-      if (jsonInterfaceDefinitions != null && !jsonInterfaceDefinitions.isEmpty()) {
-        log.info(
-            "Found [{}] interface config item(s) in file: {}",
-            jsonInterfaceDefinitions.size(),
-            path);
-        dynamicInterfaceDefinitions.addAll(jsonInterfaceDefinitions);
+      if (jsonInterfaceDefinitions == null || jsonInterfaceDefinitions.isEmpty()) {
+        return Collections.emptyList();
       }
+      log.info(
+          "Found [{}] interface config item(s) in file: {}", jsonInterfaceDefinitions.size(), path);
+      return Collections.unmodifiableList(jsonInterfaceDefinitions);
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
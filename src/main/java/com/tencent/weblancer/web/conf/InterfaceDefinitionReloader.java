@@ -0,0 +1,203 @@
+package com.tencent.weblancer.web.conf;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Watches {@link AppMetaConfig#getInterfaceDefinitionPath()}, only the changed files are parsed
+ * again, definitions of the other files are passed to the listener as the same instances.
+ *
+ * <p>If a changed file can not be parsed or the listener throws, the change is ignored until the
+ * file changes again.
+ *
+ * @author fishzhao
+ * @since 2021-03-11
+ */
+@Slf4j
+public final class InterfaceDefinitionReloader implements AutoCloseable {
+
+  // 编辑器保存一个文件往往会产生多个事件，安静一段时间后再加载
+  private static final long QUIET_PERIOD_MILLIS = 300;
+
+  private final FileInterfaceDefinitionSupplier supplier;
+  private final Consumer<List<DynamicInterfaceDefinition>> listener;
+  private final List<Path> watchedDirectories = new ArrayList<>();
+  private final Set<Path> watchedFiles = new LinkedHashSet<>();
+  private final WatchService watchService;
+  private final Thread thread;
+  private Map<Path, List<DynamicInterfaceDefinition>> definitionsByFile;
+
+  /**
+   * @param definitionsByFile what the listener is built from, see {@link
+   *     FileInterfaceDefinitionSupplier#getByFile()}
+   */
+  public InterfaceDefinitionReloader(
+      @NonNull AppMetaConfig appMetaConfig,
+      @NonNull FileInterfaceDefinitionSupplier supplier,
+      @NonNull Map<Path, List<DynamicInterfaceDefinition>> definitionsByFile,
+      @NonNull Consumer<List<DynamicInterfaceDefinition>> listener)
+      throws IOException {
+    this.supplier = supplier;
+    this.listener = listener;
+    this.definitionsByFile = new LinkedHashMap<>(definitionsByFile);
+    this.watchService = FileSystems.getDefault().newWatchService();
+    for (String strPath : appMetaConfig.getInterfaceDefinitionPath()) {
+      Path path = Paths.get(strPath).toAbsolutePath().normalize();
+      if (Files.isDirectory(path)) {
+        watchedDirectories.add(path);
+        registerRecursively(path);
+      } else if (path.getParent() != null && Files.isDirectory(path.getParent())) {
+        watchedFiles.add(path);
+        register(path.getParent());
+      } else {
+        log.warn("Path [{}] can not be watched and will be skipped!", path);
+      }
+    }
+    this.thread =
+        new ThreadFactoryBuilder()
+            .setNameFormat("web-lancer-interface-reloader-%d")
+            .setDaemon(true)
+            .build()
+            .newThread(this::watch);
+  }
+
+  public InterfaceDefinitionReloader start() {
+    thread.start();
+    log.info("Watching interface definitions in: {} {}", watchedDirectories, watchedFiles);
+    return this;
+  }
+
+  private void registerRecursively(Path directory) throws IOException {
+    try (Stream<Path> pathStream = Files.walk(directory)) {
+      pathStream.filter(Files::isDirectory).forEach(this::register);
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private void register(Path directory) {
+    try {
+      directory.register(
+          watchService,
+          StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_MODIFY,
+          StandardWatchEventKinds.ENTRY_DELETE);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void watch() {
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        Set<Path> changedPaths = new LinkedHashSet<>();
+        collectChangedPaths(watchService.take(), changedPaths);
+        WatchKey key;
+        while ((key = watchService.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+          collectChangedPaths(key, changedPaths);
+        }
+        if (!changedPaths.isEmpty()) {
+          reload(changedPaths);
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      log.debug("Interface definition reloader stopped.");
+    }
+  }
+
+  private void collectChangedPaths(WatchKey key, Set<Path> changedPaths) {
+    Path directory = (Path) key.watchable();
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        // events are lost, check every file known or under the watched directories
+        changedPaths.addAll(definitionsByFile.keySet());
+        changedPaths.addAll(watchedDirectories);
+        continue;
+      }
+      Path path = directory.resolve((Path) event.context());
+      if (!isWatched(path)
+          || (event.kind() == StandardWatchEventKinds.ENTRY_MODIFY && Files.isDirectory(path))) {
+        // a modified directory only means some file in it changed, which has its own event
+        continue;
+      }
+      if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+        try {
+          registerRecursively(path);
+        } catch (IOException | UncheckedIOException e) {
+          log.error("Failed to watch directory: {}", path, e);
+        }
+      }
+      changedPaths.add(path);
+    }
+    key.reset();
+  }
+
+  private boolean isWatched(Path path) {
+    if (watchedFiles.contains(path)) {
+      return true;
+    }
+    for (Path directory : watchedDirectories) {
+      if (path.startsWith(directory)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void reload(Set<Path> changedPaths) {
+    Map<Path, List<DynamicInterfaceDefinition>> nextDefinitionsByFile =
+        new LinkedHashMap<>(definitionsByFile);
+    try {
+      for (Path changedPath : changedPaths) {
+        if (Files.isRegularFile(changedPath) && Files.isReadable(changedPath)) {
+          nextDefinitionsByFile.put(changedPath, supplier.read(changedPath));
+          continue;
+        }
+        // a deleted directory takes all its files with it
+        nextDefinitionsByFile.keySet().removeIf(p -> p.startsWith(changedPath));
+        if (Files.isDirectory(changedPath)) {
+          try (Stream<Path> pathStream = Files.walk(changedPath)) {
+            pathStream
+                .filter(Files::isRegularFile)
+                .filter(Files::isReadable)
+                .forEach(p -> nextDefinitionsByFile.put(p, supplier.read(p)));
+          }
+        }
+      }
+      listener.accept(FileInterfaceDefinitionSupplier.flatten(nextDefinitionsByFile));
+    } catch (IOException | RuntimeException e) {
+      log.error("Failed to reload interface definitions, changed paths: {}", changedPaths, e);
+      return;
+    }
+    definitionsByFile = nextDefinitionsByFile;
+    log.info("Interface definitions reloaded, changed paths: {}", changedPaths);
+  }
+
+  @Override
+  public void close() throws IOException {
+    thread.interrupt();
+    watchService.close();
+  }
+}
@@ -4,6 +4,8 @@ import com.fasterxml.jackson.annotation.JsonAlias;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.networknt.schema.JsonSchema;
 import com.networknt.schema.JsonSchemaFactory;
 import com.networknt.schema.SpecVersion;
@@ -21,13 +23,30 @@ import java.util.Set;
  */
 public final class JsonInterfaceDefinition implements DynamicInterfaceDefinition {
 
+  private static final JsonSchemaFactory SCHEMA_FACTORY =
+      JsonSchemaFactory.getInstance(SpecVersion.VersionFlag.V4);
+  private static final long DEFAULT_MAX_BODY_BYTES = 1024 * 1024;
+
   private final String dataSourceId;
   private final String uri;
   private final Set<HttpMethod> httpMethods;
   private final List<ParameterScope> parameterScopes;
   private final List<String> sqlScriptsSegments;
   private final boolean unwrapArray;
+  private final boolean streaming;
+  private final boolean coalesce;
+  private final boolean adaptiveConcurrency;
+  private final long timeoutMillis;
+  private final long maxBodyBytes;
+  private final ResultLayout layout;
   private final JsonNode parameterValidation;
+  private final CacheDefinition cache;
+  private final CompressionDefinition compression;
+  private final PaginationDefinition pagination;
+  private final BatchWindowDefinition batchWindow;
+  // the schema is compiled only once
+  private final Supplier<Optional<JsonSchema>> compiledParameterValidation =
+      Suppliers.memoize(this::compileParameterValidation);
 
   @JsonCreator
   public JsonInterfaceDefinition(
@@ -39,14 +58,36 @@ public final class JsonInterfaceDefinition implements DynamicInterfaceDefinition
       @JsonProperty("sqlScriptsSegments") @JsonAlias({"sql", "sqlScripts"})
           List<String> sqlScriptsSegments,
       @JsonProperty("unwrapArray") boolean unwrapArray,
-      @JsonProperty("parameterValidation") @JsonAlias("validation") JsonNode parameterValidation) {
+      @JsonProperty("streaming") boolean streaming,
+      @JsonProperty("coalesce") boolean coalesce,
+      @JsonProperty("adaptiveConcurrency") Boolean adaptiveConcurrency,
+      @JsonProperty("timeoutMillis") @JsonAlias("timeoutMs") long timeoutMillis,
+      @JsonProperty("maxBodyBytes") long maxBodyBytes,
+      @JsonProperty("layout") ResultLayout layout,
+      @JsonProperty("parameterValidation") @JsonAlias("validation") JsonNode parameterValidation,
+      @JsonProperty("cache") CacheDefinition cache,
+      @JsonProperty("compression") CompressionDefinition compression,
+      @JsonProperty("pagination") PaginationDefinition pagination,
+      @JsonProperty("batchWindow") BatchWindowDefinition batchWindow) {
     this.dataSourceId = dataSourceId;
     this.uri = uri;
     this.httpMethods = httpMethods;
     this.parameterScopes = parameterScopes;
     this.sqlScriptsSegments = sqlScriptsSegments;
     this.unwrapArray = unwrapArray;
+    this.streaming = streaming;
+    this.coalesce = coalesce;
+    // 未配置时默认开启
+    this.adaptiveConcurrency = adaptiveConcurrency == null || adaptiveConcurrency;
+    this.timeoutMillis = timeoutMillis;
+    // 小于等于0时为默认值
+    this.maxBodyBytes = maxBodyBytes > 0 ? maxBodyBytes : DEFAULT_MAX_BODY_BYTES;
+    this.layout = layout == null ? ResultLayout.ROWS : layout;
     this.parameterValidation = parameterValidation;
+    this.cache = cache;
+    this.compression = compression;
+    this.pagination = pagination;
+    this.batchWindow = batchWindow;
   }
 
   @Override
@@ -82,12 +123,65 @@ public final class JsonInterfaceDefinition implements DynamicInterfaceDefinition
     return unwrapArray;
   }
 
+  @Override
+  public boolean streaming() {
+    return streaming;
+  }
+
+  @Override
+  public boolean coalesce() {
+    return coalesce;
+  }
+
+  @Override
+  public boolean adaptiveConcurrency() {
+    return adaptiveConcurrency;
+  }
+
+  @Override
+  public long getTimeoutMillis() {
+    return timeoutMillis;
+  }
+
+  @Override
+  public long getMaxBodyBytes() {
+    return maxBodyBytes;
+  }
+
+  @Override
+  public ResultLayout getLayout() {
+    return layout;
+  }
+
   @Override
   public Optional<JsonSchema> getParameterValidation() {
+    return compiledParameterValidation.get();
+  }
+
+  private Optional<JsonSchema> compileParameterValidation() {
     if (parameterValidation == null) {
       return Optional.empty();
     }
-    JsonSchemaFactory factory = JsonSchemaFactory.getInstance(SpecVersion.VersionFlag.V4);
-    return Optional.of(factory.getSchema(parameterValidation));
+    return Optional.of(SCHEMA_FACTORY.getSchema(parameterValidation));
+  }
+
+  @Override
+  public Optional<CacheDefinition> getCache() {
+    return Optional.ofNullable(cache);
+  }
+
+  @Override
+  public Optional<CompressionDefinition> getCompression() {
+    return Optional.ofNullable(compression);
+  }
+
+  @Override
+  public Optional<PaginationDefinition> getPagination() {
+    return Optional.ofNullable(pagination);
+  }
+
+  @Override
+  public Optional<BatchWindowDefinition> getBatchWindow() {
+    return Optional.ofNullable(batchWindow);
   }
 }
@@ -0,0 +1,68 @@
+package com.tencent.weblancer.web.conf;
+
+import com.fasterxml.jackson.annotation.JsonAlias;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Declarative keyset pagination of a dynamic interface: the rows are ordered by the cursor
+ * columns, and each page continues after the cursor columns of the last row of the previous
+ * page, so a page deep in the result costs the same as the first one.
+ *
+ * @author fishzhao
+ * @since 2021-03-13
+ */
+@Getter
+@ToString
+public final class PaginationDefinition {
+
+  private static final Pattern COLUMN_PATTERN = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+  // 游标列的组合必须唯一且非空，否则翻页会漏掉或重复行
+  private final List<String> cursorColumns;
+  private final boolean descending;
+  private final int pageSize;
+  // 小于等于0表示与pageSize相同
+  private final int maxPageSize;
+
+  @JsonCreator
+  public PaginationDefinition(
+      @JsonProperty("cursorColumns") @JsonAlias("cursorColumn") List<String> cursorColumns,
+      @JsonProperty("descending") boolean descending,
+      @JsonProperty("pageSize") int pageSize,
+      @JsonProperty("maxPageSize") int maxPageSize) {
+    this.cursorColumns = cursorColumns;
+    this.descending = descending;
+    this.pageSize = pageSize;
+    this.maxPageSize = maxPageSize > 0 ? maxPageSize : pageSize;
+  }
+
+  public void validate() {
+    Preconditions.checkArgument(
+        cursorColumns != null && !cursorColumns.isEmpty(), "empty pagination cursorColumns!");
+    for (String column : cursorColumns) {
+      Preconditions.checkArgument(
+          column != null && COLUMN_PATTERN.matcher(column).matches(),
+          "illegal pagination cursor column: `%s`, valid pattern is: `%s`",
+          column,
+          COLUMN_PATTERN.pattern());
+    }
+    Preconditions.checkArgument(
+        new HashSet<>(cursorColumns).size() == cursorColumns.size(),
+        "duplicated pagination cursorColumns: %s",
+        cursorColumns);
+    Preconditions.checkArgument(pageSize > 0, "illegal pagination pageSize: %s", pageSize);
+    Preconditions.checkArgument(
+        maxPageSize >= pageSize,
+        "pagination maxPageSize(%s) should not be less than pageSize(%s)",
+        maxPageSize,
+        pageSize);
+  }
+}
@@ -0,0 +1,24 @@
+package com.tencent.weblancer.web.conf;
+
+/**
+ * Layout of the {@code data} of a response.
+ *
+ * @author fishzhao
+ * @since 2021-03-21
+ */
+public enum ResultLayout {
+  // 每行一个json对象
+  ROWS,
+  // {"columns":[...],"types":[...],"rows":[[...],...]}，列名只写一次
+  COLUMNAR;
+
+  /** @throws IllegalArgumentException if the name is unknown, case is ignored */
+  public static ResultLayout parse(String name) {
+    for (ResultLayout layout : values()) {
+      if (layout.name().equalsIgnoreCase(name)) {
+        return layout;
+      }
+    }
+    throw new IllegalArgumentException("unknown result layout: " + name);
+  }
+}
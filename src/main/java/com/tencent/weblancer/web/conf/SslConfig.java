@@ -0,0 +1,52 @@
+package com.tencent.weblancer.web.conf;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import lombok.Getter;
+import lombok.ToString;
+import org.apache.commons.lang3.StringUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * TLS of the http server with a local key store, h2 or http/1.1 is negotiated by ALPN.
+ *
+ * @author fishzhao
+ * @since 2021-03-26
+ */
+@Getter
+@ToString
+public final class SslConfig {
+
+  private final String keyStorePath;
+  @ToString.Exclude private final String keyStorePassword;
+  // jks(默认)或pkcs12
+  private final String keyStoreType;
+
+  @JsonCreator
+  public SslConfig(
+      @JsonProperty("keyStorePath") String keyStorePath,
+      @JsonProperty("keyStorePassword") String keyStorePassword,
+      @JsonProperty("keyStoreType") String keyStoreType) {
+    this.keyStorePath = keyStorePath;
+    this.keyStorePassword = keyStorePassword;
+    this.keyStoreType = keyStoreType == null ? "jks" : keyStoreType.toLowerCase();
+  }
+
+  public boolean isPkcs12() {
+    return "pkcs12".equals(keyStoreType);
+  }
+
+  public void validate() {
+    Preconditions.checkArgument(
+        StringUtils.isNotBlank(keyStorePath) && Files.isReadable(Paths.get(keyStorePath)),
+        "ssl keyStorePath is not readable: `%s`",
+        keyStorePath);
+    Preconditions.checkArgument(
+        "jks".equals(keyStoreType) || isPkcs12(),
+        "illegal ssl keyStoreType: `%s`, valid values are: `jks`, `pkcs12`",
+        keyStoreType);
+  }
+}
@@ -0,0 +1,214 @@
+package com.tencent.weblancer.web.handler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.tencent.weblancer.external.resultset.ResultSetWriter;
+import com.tencent.weblancer.external.scripting.UnionAllSqlSource;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.TypeHandler;
+import org.apache.ibatis.type.TypeHandlerRegistry;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Executes all parameter sets of a batch request on one {@link SqlSession}. Parameter sets
+ * rendered to the same mergeable sql are queried together by a {@link UnionAllSqlSource}, the
+ * others one by one on a {@link ExecutorType#REUSE} executor, so statements of the same sql are
+ * prepared only once. A failed query is rolled back before the next one, since some databases
+ * abort the whole transaction on an error.
+ *
+ * @author fishzhao
+ * @since 2021-03-14
+ */
+@Slf4j
+final class BatchQueryExecutor {
+
+  // 限制单条 union all 语句的长度
+  private static final int MAX_UNION_SIZE = 32;
+
+  private final SqlSessionFactory sqlSessionFactory;
+  private final String stmtId;
+  private final String batchStmtId;
+  private final JsonNodeFactory nodeFactory;
+  private final TypeHandlerRegistry typeHandlerRegistry;
+
+  BatchQueryExecutor(
+      SqlSessionFactory sqlSessionFactory, String stmtId, JsonNodeFactory nodeFactory) {
+    Configuration configuration = sqlSessionFactory.getConfiguration();
+    String batchStmtId = stmtId + UnionAllSqlSource.STMT_ID_SUFFIX;
+    this.sqlSessionFactory = sqlSessionFactory;
+    this.stmtId = stmtId;
+    this.batchStmtId = configuration.hasStatement(batchStmtId, false) ? batchStmtId : null;
+    this.nodeFactory = nodeFactory;
+    this.typeHandlerRegistry = configuration.getTypeHandlerRegistry();
+  }
+
+  /**
+   * @param params parameter sets, null ones are skipped
+   * @param rows rows of every parameter set, filled if its query succeeded
+   * @param failures exception of every parameter set, filled if its query failed
+   */
+  void execute(List<ObjectNode> params, ArrayNode[] rows, Throwable[] failures) {
+    try (SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.REUSE)) {
+      List<Integer> oneByOne = new ArrayList<>();
+      Map<String, List<Integer>> shapes = new LinkedHashMap<>();
+      MappedStatement mappedStatement =
+          batchStmtId == null ? null : sqlSession.getConfiguration().getMappedStatement(stmtId);
+      for (int i = 0; i < params.size(); i++) {
+        if (params.get(i) == null) {
+          continue;
+        }
+        if (mappedStatement == null) {
+          oneByOne.add(i);
+          continue;
+        }
+        BoundSql boundSql;
+        try {
+          boundSql = mappedStatement.getBoundSql(params.get(i));
+        } catch (RuntimeException e) {
+          failures[i] = e;
+          continue;
+        }
+        if (UnionAllSqlSource.isMergeable(boundSql)) {
+          shapes.computeIfAbsent(boundSql.getSql(), k -> new ArrayList<>()).add(i);
+        } else {
+          oneByOne.add(i);
+        }
+      }
+      for (List<Integer> indexes : shapes.values()) {
+        if (indexes.size() == 1) {
+          oneByOne.addAll(indexes);
+          continue;
+        }
+        for (List<Integer> chunk : Lists.partition(indexes, MAX_UNION_SIZE)) {
+          if (!selectUnion(sqlSession, params, chunk, rows)) {
+            oneByOne.addAll(chunk);
+          }
+        }
+      }
+      for (int i : oneByOne) {
+        ArrayNode arrayNode = nodeFactory.arrayNode();
+        try {
+          sqlSession.select(
+              stmtId,
+              params.get(i),
+              (ResultHandler<JsonNode>) context -> arrayNode.add(context.getResultObject()));
+          rows[i] = arrayNode;
+        } catch (RuntimeException e) {
+          failures[i] = e;
+          // a select never makes the session dirty, the rollback has to be forced
+          sqlSession.rollback(true);
+        }
+      }
+    }
+  }
+
+  private boolean selectUnion(
+      SqlSession sqlSession, List<ObjectNode> params, List<Integer> chunk, ArrayNode[] rows) {
+    List<ObjectNode> items = new ArrayList<>(chunk.size());
+    UnionRowsWriter writer = new UnionRowsWriter(chunk.size());
+    for (int j = 0; j < chunk.size(); j++) {
+      items.add(params.get(chunk.get(j)));
+    }
+    try {
+      sqlSession.select(batchStmtId, UnionAllSqlSource.merge(nodeFactory, items), writer);
+    } catch (RuntimeException e) {
+      sqlSession.rollback(true);
+      // e.g. the database does not support the derived table, errors are reported one by one
+      log.warn(
+          "Union all of [{}] queries failed, query one by one: {}",
+          chunk.size(),
+          Throwables.getRootCause(e).toString());
+      return false;
+    }
+    for (int j = 0; j < chunk.size(); j++) {
+      rows[chunk.get(j)] = writer.chunkRows[j];
+    }
+    return true;
+  }
+
+  /**
+   * Splits the rows of a union by its index column. The values are mapped by the type handlers of
+   * the configuration as MyBatis does, while the shape of the rows is decided once by the columns
+   * of the statement, since null values are left out of a row: the result of a single column sql
+   * is its value, and a row without any value is null, the same as without the index column.
+   */
+  private final class UnionRowsWriter implements ResultSetWriter {
+
+    private final ArrayNode[] chunkRows;
+    private int rowCount = 0;
+
+    UnionRowsWriter(int size) {
+      this.chunkRows = new ArrayNode[size];
+      for (int j = 0; j < size; j++) {
+        chunkRows[j] = nodeFactory.arrayNode();
+      }
+    }
+
+    @Override
+    public void write(ResultSet rs) throws SQLException {
+      ResultSetMetaData metaData = rs.getMetaData();
+      int columnCount = metaData.getColumnCount();
+      String[] labels = new String[columnCount + 1];
+      // handler of every 1-based column, null for the index column and unmapped jdbc types
+      TypeHandler<?>[] typeHandlers = new TypeHandler<?>[columnCount + 1];
+      int indexColumn = 0;
+      for (int i = 1; i <= columnCount; i++) {
+        labels[i] = metaData.getColumnLabel(i);
+        // labels of unquoted columns are upper case in some databases
+        if (indexColumn == 0 && labels[i].equalsIgnoreCase(UnionAllSqlSource.INDEX_COLUMN)) {
+          indexColumn = i;
+        } else {
+          typeHandlers[i] =
+              typeHandlerRegistry.getTypeHandler(
+                  JsonNode.class, JdbcType.forCode(metaData.getColumnType(i)));
+        }
+      }
+      Preconditions.checkState(indexColumn > 0, "index column is not in the result of union!");
+      int valueColumn = columnCount == 2 ? 3 - indexColumn : 0;
+      boolean scalar = valueColumn > 0 && typeHandlers[valueColumn] != null;
+      while (rs.next()) {
+        JsonNode row;
+        if (scalar) {
+          row = (JsonNode) typeHandlers[valueColumn].getResult(rs, valueColumn);
+        } else {
+          ObjectNode objectNode = nodeFactory.objectNode();
+          for (int i = 1; i <= columnCount; i++) {
+            JsonNode value =
+                typeHandlers[i] == null ? null : (JsonNode) typeHandlers[i].getResult(rs, i);
+            if (value != null) {
+              objectNode.set(labels[i], value);
+            }
+          }
+          row = objectNode.size() == 0 ? null : objectNode;
+        }
+        chunkRows[rs.getInt(indexColumn)].add(row == null ? nodeFactory.nullNode() : row);
+        rowCount++;
+      }
+    }
+
+    @Override
+    public int getRowCount() {
+      return rowCount;
+    }
+  }
+}
@@ -0,0 +1,15 @@
+package com.tencent.weblancer.web.handler;
+
+/**
+ * Thrown when a request body exceeds the limit of its interface.
+ *
+ * @author fishzhao
+ * @since 2021-03-24
+ */
+final class BodyTooLargeException extends RuntimeException {
+
+  BodyTooLargeException(long maxBodyBytes) {
+    // the client is answered at once, no stack trace is needed
+    super("request body exceeds " + maxBodyBytes + " bytes", null, false, false);
+  }
+}
@@ -0,0 +1,64 @@
+package com.tencent.weblancer.web.handler;
+
+import io.vertx.ext.web.ParsedHeaderValue;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Content codings of compressed responses, in order of preference when the client accepts several
+ * of them equally.
+ *
+ * @author fishzhao
+ * @since 2021-03-25
+ */
+enum ContentCoding {
+  // 需要zstd-jni的native库
+  ZSTD("zstd"),
+  GZIP("gzip"),
+  DEFLATE("deflate");
+
+  final String token;
+
+  ContentCoding(String token) {
+    this.token = token;
+  }
+
+  boolean isAvailable() {
+    return this != ZSTD || ZstdCodec.AVAILABLE;
+  }
+
+  /**
+   * @param acceptEncoding the parsed {@code Accept-Encoding} header
+   * @return the available coding of the highest weight, null if none is acceptable
+   */
+  static ContentCoding negotiate(List<ParsedHeaderValue> acceptEncoding) {
+    ContentCoding[] codings = values();
+    // -1 if not mentioned by the client
+    float[] weights = new float[codings.length];
+    float wildcardWeight = -1;
+    Arrays.fill(weights, -1);
+    for (ParsedHeaderValue value : acceptEncoding) {
+      if ("*".equals(value.value())) {
+        wildcardWeight = value.weight();
+        continue;
+      }
+      for (ContentCoding coding : codings) {
+        if (coding.token.equalsIgnoreCase(value.value())) {
+          weights[coding.ordinal()] = value.weight();
+        }
+      }
+    }
+    ContentCoding best = null;
+    // q=0 means not acceptable
+    float bestWeight = 0;
+    for (ContentCoding coding : codings) {
+      float weight = weights[coding.ordinal()] >= 0 ? weights[coding.ordinal()] : wildcardWeight;
+      if (weight > bestWeight && coding.isAvailable()) {
+        best = coding;
+        bestWeight = weight;
+      }
+    }
+    return best;
+  }
+}
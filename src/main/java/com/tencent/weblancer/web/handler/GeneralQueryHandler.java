@@ -1,20 +1,40 @@
 package com.tencent.weblancer.web.handler;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
-import com.networknt.schema.JsonSchema;
-import com.networknt.schema.ValidationMessage;
-import com.networknt.schema.ValidationResult;
+import com.tencent.weblancer.external.cancellation.CancellableQuery;
+import com.tencent.weblancer.external.reactive.ReactiveQueryExecutor;
+import com.tencent.weblancer.external.resultset.ColumnarResultSetWriter;
+import com.tencent.weblancer.external.resultset.ResultSetShapes;
+import com.tencent.weblancer.external.resultset.ResultSetWriter;
+import com.tencent.weblancer.external.resultset.RowsResultSetWriter;
+import com.tencent.weblancer.web.conf.BatchWindowDefinition;
+import com.tencent.weblancer.web.conf.CacheDefinition;
+import com.tencent.weblancer.web.conf.CompressionDefinition;
+import com.tencent.weblancer.web.conf.PaginationDefinition;
 import com.tencent.weblancer.web.conf.ParameterScope;
-import io.netty.buffer.ByteBufInputStream;
+import com.tencent.weblancer.web.conf.ResultLayout;
+import com.tencent.weblancer.web.metrics.InterfaceMetrics;
+import com.tencent.weblancer.web.metrics.Phase;
+import com.tencent.weblancer.web.repo.AdaptiveConcurrencyLimit;
+import com.tencent.weblancer.web.repo.BoundedWorkerExecutor;
+import com.tencent.weblancer.web.repo.ConcurrencyLimitExceededException;
+import com.tencent.weblancer.web.validation.ParameterValidator;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.util.ReferenceCountUtil;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
 import io.vertx.core.Handler;
-import io.vertx.core.MultiMap;
+import io.vertx.core.Promise;
 import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
 import io.vertx.ext.web.RoutingContext;
 import lombok.Getter;
 import lombok.NonNull;
@@ -27,11 +47,18 @@ import org.apache.ibatis.session.SqlSession;
 import org.apache.ibatis.session.SqlSessionFactory;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
-import java.util.LinkedHashSet;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 /**
  * @author fishzhao
@@ -40,107 +67,902 @@ import java.util.Set;
 @Slf4j
 public final class GeneralQueryHandler implements Handler<RoutingContext> {
 
-  private final LinkedHashSet<ParameterScope> parameterScopes;
-  private final JsonSchema parameterValidation;
+  private static final int STREAMING_CHUNK_SIZE = 16 * 1024;
+  private static final int MAX_BATCH_SIZE = 100;
+  // 按请求选择结果布局
+  private static final String LAYOUT_HEADER = "x-result-layout";
+  private static final String VARY = "accept, " + LAYOUT_HEADER;
+  private static final String COMPRESSED_VARY = VARY + ", accept-encoding";
+
+  private final ParameterResolver parameterResolver;
+  private final ParameterValidator parameterValidator;
   private final SqlSessionFactory sqlSessionFactory;
   private final String stmtId;
   private final boolean unwrapArray;
+  private final boolean streaming;
   private final ObjectMapper objectMapper;
+  private final BoundedWorkerExecutor workerExecutor;
+  private final ReactiveQueryExecutor reactiveExecutor;
+  private final QueryResultCache resultCache;
+  private final QueryCoalescer coalescer;
+  private final KeysetPagination pagination;
+  private final BatchQueryExecutor batchExecutor;
+  private final QueryBatcher batcher;
+  private final long timeoutMillis;
+  private final long maxBodyBytes;
+  // null if the responses are never compressed
+  private final ResponseCompressor compressor;
+  private final String vary;
+  private final ResultLayout defaultLayout;
+  // true if the rows are written straight from the result set, false if they are needed as nodes,
+  // e.g. by the pagination cursor
+  private final boolean directWrite;
+  private final ResultSetShapes resultSetShapes = new ResultSetShapes();
+  // 分别学习单个请求、批量请求和错误响应的大小
+  private final ResponseBuffers responseBuffers = new ResponseBuffers();
+  private final ResponseBuffers batchBuffers = new ResponseBuffers();
+  private final ResponseBuffers errorBuffers = new ResponseBuffers();
+  private final AdaptiveConcurrencyLimit concurrencyLimit;
+  private final AdaptiveConcurrencyLimit dataSourceLimit;
+  private final InterfaceMetrics metrics;
 
   public GeneralQueryHandler(
-      @NonNull LinkedHashSet<ParameterScope> parameterScopes,
-      JsonSchema parameterValidation,
+      @NonNull ParameterResolver parameterResolver,
+      ParameterValidator parameterValidator,
       @NonNull SqlSessionFactory sqlSessionFactory,
       @NonNull String stmtId,
       boolean unwrapArray,
-      @NonNull ObjectMapper objectMapper) {
-    this.parameterScopes = parameterScopes;
-    this.parameterValidation = parameterValidation;
+      boolean streaming,
+      CacheDefinition cacheDefinition,
+      boolean coalesce,
+      PaginationDefinition paginationDefinition,
+      BatchWindowDefinition batchWindowDefinition,
+      long timeoutMillis,
+      long maxBodyBytes,
+      CompressionDefinition compressionDefinition,
+      @NonNull ResultLayout defaultLayout,
+      @NonNull ObjectMapper objectMapper,
+      BoundedWorkerExecutor workerExecutor,
+      ReactiveQueryExecutor reactiveExecutor,
+      AdaptiveConcurrencyLimit concurrencyLimit,
+      @NonNull AdaptiveConcurrencyLimit dataSourceLimit,
+      @NonNull InterfaceMetrics metrics) {
+    Preconditions.checkArgument(
+        (workerExecutor == null) != (reactiveExecutor == null),
+        "exactly one of workerExecutor and reactiveExecutor is required!");
+    Preconditions.checkArgument(
+        !(streaming && reactiveExecutor != null), "streaming is not supported by reactive engine!");
+    Preconditions.checkArgument(maxBodyBytes > 0, "illegal maxBodyBytes: %s", maxBodyBytes);
+    Preconditions.checkArgument(
+        !(defaultLayout == ResultLayout.COLUMNAR && reactiveExecutor != null),
+        "columnar layout is not supported by reactive engine!");
+    this.parameterResolver = parameterResolver;
+    this.parameterValidator = parameterValidator;
     this.sqlSessionFactory = sqlSessionFactory;
     this.stmtId = stmtId;
     this.unwrapArray = unwrapArray;
+    this.streaming = streaming;
+    this.timeoutMillis = timeoutMillis;
+    this.maxBodyBytes = maxBodyBytes;
+    this.compressor =
+        compressionDefinition == null ? null : new ResponseCompressor(compressionDefinition);
+    this.vary = compressor == null ? VARY : COMPRESSED_VARY;
+    this.defaultLayout = defaultLayout;
     this.objectMapper = objectMapper;
+    this.workerExecutor = workerExecutor;
+    this.reactiveExecutor = reactiveExecutor;
+    this.metrics = metrics;
+    this.concurrencyLimit = concurrencyLimit;
+    this.dataSourceLimit = dataSourceLimit;
+    // cached responses are precompressed, coalesced ones are shared by a few requests only
+    this.resultCache =
+        cacheDefinition == null
+            ? null
+            : new QueryResultCache(cacheDefinition, key -> loadResponse(key, compressor));
+    this.coalescer = coalesce ? new QueryCoalescer(key -> loadResponse(key, null)) : null;
+    this.pagination =
+        paginationDefinition == null
+            ? null
+            : new KeysetPagination(paginationDefinition, objectMapper);
+    this.batchExecutor =
+        workerExecutor == null
+            ? null
+            : new BatchQueryExecutor(sqlSessionFactory, stmtId, objectMapper.getNodeFactory());
+    this.batcher =
+        batchWindowDefinition == null
+            ? null
+            : new QueryBatcher(batchWindowDefinition, stmtId, objectMapper, this::loadWindowRows);
+    this.directWrite =
+        reactiveExecutor == null && !unwrapArray && pagination == null && batcher == null;
   }
 
-  private static void putMultiMap(ObjectNode parameters, MultiMap multiMap) {
-    if (multiMap == null || multiMap.isEmpty()) {
-      return;
-    }
-    for (String name : multiMap.names()) {
-      List<String> values = multiMap.getAll(name);
-      if (values.isEmpty()) {
-        continue;
-      }
-      if (values.size() == 1) {
-        String value = StringUtils.trimToEmpty(values.get(0));
-        if (!value.isEmpty()) {
-          parameters.put(name, value);
-        }
-        continue;
-      }
-      for (String value : values) {
-        value = StringUtils.trimToEmpty(values.get(0));
-        if (!value.isEmpty()) {
-          JsonNode arrayNode = parameters.get(name);
-          if (arrayNode == null || !arrayNode.isArray()) {
-            arrayNode = parameters.putArray(name);
-          }
-          ((ArrayNode) arrayNode).add(value);
-        }
-      }
+  @Override
+  public void handle(RoutingContext routingContext) {
+    if (parameterResolver.getParameterScopes().contains(ParameterScope.BODY)) {
+      readBody(
+          routingContext,
+          parameterResolver.newBodyParser(),
+          body -> handle(routingContext, body));
+    } else {
+      handle(routingContext, null);
     }
   }
 
-  @Override
-  public void handle(RoutingContext routingContext) {
+  /**
+   * Parses the body while it arrives, then hands it over. Ends with {@link
+   * QueryResult#BODY_TOO_LARGE} if it exceeds {@link #maxBodyBytes}, or with {@link
+   * QueryResult#PARAMETER_RESOLVE_FAIL} if it is not json.
+   */
+  private void readBody(
+      RoutingContext routingContext, JsonBodyParser bodyParser, Handler<JsonNode> bodyHandler) {
+    long startNanos = System.nanoTime();
+    bodyParser
+        .read(routingContext.request(), maxBodyBytes)
+        .onComplete(
+            ar -> {
+              if (ar.succeeded()) {
+                bodyHandler.handle(ar.result());
+                return;
+              }
+              QueryResult result =
+                  ar.cause() instanceof BodyTooLargeException
+                      ? QueryResult.BODY_TOO_LARGE
+                      : QueryResult.PARAMETER_RESOLVE_FAIL;
+              ObjectNode resultWrapper =
+                  result.createResultObject(objectMapper).put("cause", ar.cause().getMessage());
+              endWithJson(routingContext, result, resultWrapper, startNanos);
+            });
+  }
+
+  /** @param body null if it is empty or not used */
+  private void handle(RoutingContext routingContext, JsonNode body) {
+    // phases and the timeout start once the body has arrived
+    long startNanos = System.nanoTime();
+    ResultLayout layout;
     ObjectNode params;
     try {
-      params = resolveParameters(routingContext);
+      layout = resolveLayout(routingContext);
+      params = parameterResolver.resolve(routingContext.request().query(), body);
     } catch (Exception e) {
       ObjectNode resultWrapper =
           QueryResult.PARAMETER_RESOLVE_FAIL
               .createResultObject(objectMapper)
               .put("cause", e.getMessage());
-      endWithJson(routingContext, resultWrapper);
+      endWithJson(routingContext, QueryResult.PARAMETER_RESOLVE_FAIL, resultWrapper, startNanos);
       return;
     }
+    long resolvedNanos = System.nanoTime();
+    metrics.recordPhase(Phase.RESOLVE, resolvedNanos - startNanos);
 
-    if (parameterValidation != null) {
-      ValidationResult validationResult = parameterValidation.validateAndCollect(params);
-      Set<ValidationMessage> validationMessages = validationResult.getValidationMessages();
-      if (validationMessages != null && !validationMessages.isEmpty()) {
+    if (parameterValidator != null) {
+      List<String> validationMessages = parameterValidator.validate(params);
+      metrics.recordPhase(Phase.VALIDATE, System.nanoTime() - resolvedNanos);
+      if (!validationMessages.isEmpty()) {
         ObjectNode resultWrapper =
             QueryResult.PARAMETER_VALIDATION_FAIL.createResultObject(objectMapper);
-        for (ValidationMessage validationMessage : validationMessages) {
-          resultWrapper.withArray("details").add(validationMessage.getMessage());
+        for (String validationMessage : validationMessages) {
+          resultWrapper.withArray("details").add(validationMessage);
         }
-        endWithJson(routingContext, resultWrapper);
+        endWithJson(
+            routingContext, QueryResult.PARAMETER_VALIDATION_FAIL, resultWrapper, startNanos);
         return;
       }
     }
 
-    routingContext
-        .vertx()
-        .executeBlocking(
-            promise -> {
-              ObjectNode resultWrapper;
-              try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
-                ArrayNodeHandler handler = new ArrayNodeHandler(objectMapper.createArrayNode());
-                sqlSession.select(stmtId, params, handler);
-                ArrayNode arrayNode = handler.getArrayNode();
-                resultWrapper = wrapDbResult(arrayNode);
-              } catch (Exception e) {
-                log.error("Access DB with exception: ", e);
-                resultWrapper = QueryResult.UNKNOWN_EXCEPTION.createResultObject(objectMapper);
-                resultWrapper.put("cause", Throwables.getRootCause(e).getMessage());
+    if (pagination != null) {
+      try {
+        pagination.bind(params);
+      } catch (IllegalArgumentException e) {
+        ObjectNode resultWrapper =
+            QueryResult.PARAMETER_RESOLVE_FAIL
+                .createResultObject(objectMapper)
+                .put("cause", e.getMessage());
+        endWithJson(routingContext, QueryResult.PARAMETER_RESOLVE_FAIL, resultWrapper, startNanos);
+        return;
+      }
+    }
+
+    ResponseFormat format = ResponseFormat.negotiate(routingContext);
+    if (streaming) {
+      // the status line may be already sent, so it is bounded by the statement timeout only
+      CancellableQuery cancellation = cancelOnClose(routingContext);
+      long submitNanos = System.nanoTime();
+      // a streaming query lasts as long as its client reads, its latency says nothing of the DB
+      this.<Void>limited(
+              false,
+              () ->
+                  workerExecutor.executeBlocking(
+                      promise -> {
+                        metrics.recordPhase(Phase.QUEUE_WAIT, System.nanoTime() - submitNanos);
+                        streamDbResult(
+                            routingContext, params, layout, format, startNanos, cancellation);
+                        promise.complete();
+                      }))
+          .onFailure(e -> endWithDbException(routingContext, e, startNanos));
+      return;
+    }
+
+    // a load shared by other requests is not cancelled when only one of them times out
+    if (resultCache != null) {
+      // concurrent loads of the same key are already coalesced by the cache
+      endWithFuture(
+          routingContext,
+          withDeadline(
+              routingContext,
+              Future.fromCompletionStage(
+                  resultCache.get(QueryKey.of(stmtId, layout, params, objectMapper))),
+              startNanos,
+              null),
+          format,
+          startNanos);
+      return;
+    }
+
+    if (coalescer != null) {
+      endWithFuture(
+          routingContext,
+          withDeadline(
+              routingContext,
+              Future.fromCompletionStage(
+                  coalescer.get(QueryKey.of(stmtId, layout, params, objectMapper))),
+              startNanos,
+              null),
+          format,
+          startNanos);
+      return;
+    }
+
+    CancellableQuery cancellation = cancelOnClose(routingContext);
+    endWithFuture(
+        routingContext,
+        withDeadline(
+            routingContext,
+            queryResponse(params, layout, format, cancellation),
+            startNanos,
+            cancellation),
+        format,
+        startNanos);
+  }
+
+  /**
+   * @return the layout requested by {@link #LAYOUT_HEADER}, or the one of the interface
+   * @throws IllegalArgumentException if the layout is unknown or not supported by this interface
+   */
+  private ResultLayout resolveLayout(RoutingContext routingContext) {
+    String name = routingContext.request().getHeader(LAYOUT_HEADER);
+    if (name == null) {
+      return defaultLayout;
+    }
+    ResultLayout layout = ResultLayout.parse(name.trim());
+    Preconditions.checkArgument(
+        layout == ResultLayout.ROWS || directWrite,
+        "columnar layout is not supported by this interface!");
+    return layout;
+  }
+
+  /**
+   * @return the handle cancelling the statements of the request once its connection is closed, or
+   *     null for the reactive engine
+   */
+  private CancellableQuery cancelOnClose(RoutingContext routingContext) {
+    if (reactiveExecutor != null) {
+      return null;
+    }
+    CancellableQuery cancellation = new CancellableQuery();
+    routingContext.response().closeHandler(v -> cancellation.cancel());
+    return cancellation;
+  }
+
+  /**
+   * Fails with {@link TimeoutException} if the future is not completed within {@link
+   * #timeoutMillis} since the request arrived, the statements of cancellation are cancelled then.
+   */
+  private <T> Future<T> withDeadline(
+      RoutingContext routingContext,
+      Future<T> future,
+      long startNanos,
+      CancellableQuery cancellation) {
+    if (timeoutMillis <= 0) {
+      return future;
+    }
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    Promise<T> promise = Promise.promise();
+    long timerId =
+        routingContext
+            .vertx()
+            .setTimer(
+                Math.max(1, timeoutMillis - elapsedMillis),
+                id -> {
+                  String message = "query timeout after " + timeoutMillis + "ms";
+                  if (promise.tryFail(new TimeoutException(message)) && cancellation != null) {
+                    cancellation.cancel();
+                  }
+                });
+    future.onComplete(
+        ar -> {
+          routingContext.vertx().cancelTimer(timerId);
+          if (ar.succeeded()) {
+            if (!promise.tryComplete(ar.result())) {
+              // too late, nobody is going to write the pooled buffer of the response
+              ReferenceCountUtil.release(ar.result());
+            }
+          } else {
+            promise.tryFail(ar.cause());
+          }
+        });
+    return promise.future();
+  }
+
+  /**
+   * Handles {@code <uri>/_batch}, whose body is a json array of parameter objects. The response is
+   * a json array of the result of each parameter object in the same order. Results are neither
+   * cached nor coalesced.
+   */
+  public void handleBatch(RoutingContext routingContext) {
+    // every item is kept, the used fields of each one are picked later
+    readBody(
+        routingContext,
+        new JsonBodyParser(objectMapper, null),
+        body -> handleBatch(routingContext, body));
+  }
+
+  private void handleBatch(RoutingContext routingContext, JsonNode body) {
+    long startNanos = System.nanoTime();
+    List<ObjectNode> params;
+    try {
+      params = resolveBatchParameters(routingContext, body);
+    } catch (Exception e) {
+      ObjectNode resultWrapper =
+          QueryResult.PARAMETER_RESOLVE_FAIL
+              .createResultObject(objectMapper)
+              .put("cause", e.getMessage());
+      endWithJson(routingContext, QueryResult.PARAMETER_RESOLVE_FAIL, resultWrapper, startNanos);
+      return;
+    }
+    long resolvedNanos = System.nanoTime();
+    metrics.recordPhase(Phase.RESOLVE, resolvedNanos - startNanos);
+
+    // results of the invalid ones, their params are replaced by null
+    ObjectNode[] resultWrappers = new ObjectNode[params.size()];
+    for (int i = 0; i < params.size(); i++) {
+      if (parameterValidator != null) {
+        List<String> validationMessages = parameterValidator.validate(params.get(i));
+        if (!validationMessages.isEmpty()) {
+          resultWrappers[i] =
+              QueryResult.PARAMETER_VALIDATION_FAIL.createResultObject(objectMapper);
+          for (String validationMessage : validationMessages) {
+            resultWrappers[i].withArray("details").add(validationMessage);
+          }
+          params.set(i, null);
+          continue;
+        }
+      }
+      if (pagination != null) {
+        try {
+          pagination.bind(params.get(i));
+        } catch (IllegalArgumentException e) {
+          resultWrappers[i] =
+              QueryResult.PARAMETER_RESOLVE_FAIL
+                  .createResultObject(objectMapper)
+                  .put("cause", e.getMessage());
+          params.set(i, null);
+        }
+      }
+    }
+    metrics.recordPhase(Phase.VALIDATE, System.nanoTime() - resolvedNanos);
+
+    ResponseFormat format = ResponseFormat.negotiate(routingContext);
+    CancellableQuery cancellation = cancelOnClose(routingContext);
+    long submitNanos = System.nanoTime();
+    withDeadline(
+            routingContext,
+            limited(() -> queryBatch(params, resultWrappers, format, submitNanos, cancellation)),
+            startNanos,
+            cancellation)
+        .onComplete(
+            ar -> {
+              if (ar.failed()) {
+                endWithDbException(routingContext, ar.cause(), startNanos);
+              } else {
+                end(routingContext, QueryResult.OK, ar.result(), format, startNanos);
               }
-              endWithJson(routingContext, resultWrapper);
-              promise.complete();
-            },
-            false);
+            });
+  }
+
+  private Future<ByteBuf> queryBatch(
+      List<ObjectNode> params,
+      ObjectNode[] resultWrappers,
+      ResponseFormat format,
+      long submitNanos,
+      CancellableQuery cancellation) {
+    ArrayNode[] rows = new ArrayNode[params.size()];
+    Throwable[] failures = new Throwable[params.size()];
+    if (reactiveExecutor != null) {
+      List<Future> futures = new ArrayList<>(params.size());
+      for (int i = 0; i < params.size(); i++) {
+        if (params.get(i) != null) {
+          int index = i;
+          futures.add(
+              reactiveExecutor
+                  .query(stmtId, params.get(i))
+                  .onSuccess(arrayNode -> rows[index] = arrayNode)
+                  .onFailure(e -> failures[index] = e));
+        }
+      }
+      return CompositeFuture.join(futures)
+          .transform(
+              ar -> {
+                metrics.recordPhase(Phase.EXECUTE, System.nanoTime() - submitNanos);
+                return Future.succeededFuture(
+                    toBatchBuffer(params, resultWrappers, rows, failures, format));
+              });
+    }
+    return workerExecutor.executeBlocking(
+        promise -> {
+          long executeNanos = System.nanoTime();
+          metrics.recordPhase(Phase.QUEUE_WAIT, executeNanos - submitNanos);
+          cancellation.run(
+              () -> {
+                batchExecutor.execute(params, rows, failures);
+                return null;
+              });
+          metrics.recordPhase(Phase.EXECUTE, System.nanoTime() - executeNanos);
+          promise.complete(toBatchBuffer(params, resultWrappers, rows, failures, format));
+        });
+  }
+
+  private ByteBuf toBatchBuffer(
+      List<ObjectNode> params,
+      ObjectNode[] resultWrappers,
+      ArrayNode[] rows,
+      Throwable[] failures,
+      ResponseFormat format) {
+    long serializeNanos = System.nanoTime();
+    ArrayNode arrayNode = objectMapper.createArrayNode();
+    for (int i = 0; i < params.size(); i++) {
+      if (resultWrappers[i] != null) {
+        arrayNode.add(resultWrappers[i]);
+      } else if (failures[i] != null) {
+        arrayNode.add(createExceptionResult(exceptionResult(failures[i]), failures[i]));
+      } else {
+        metrics.recordRows(rows[i].size());
+        arrayNode.add(toResultWrapper(params.get(i), rows[i]));
+      }
+    }
+    ByteBuf content = serialize(arrayNode, format, batchBuffers);
+    metrics.recordPhase(Phase.SERIALIZE, System.nanoTime() - serializeNanos);
+    return content;
   }
 
-  private ObjectNode wrapDbResult(ArrayNode arrayNode) {
+  private List<ObjectNode> resolveBatchParameters(RoutingContext context, JsonNode bodyNode) {
+    Preconditions.checkArgument(
+        bodyNode != null && bodyNode.isArray(), "body is excepted to be a json array!");
+    Preconditions.checkArgument(
+        bodyNode.size() <= MAX_BATCH_SIZE,
+        "too many items: %s, at most %s items are allowed!",
+        bodyNode.size(),
+        MAX_BATCH_SIZE);
+    Set<ParameterScope> parameterScopes = parameterResolver.getParameterScopes();
+    ObjectNode queryParams =
+        parameterScopes.contains(ParameterScope.QUERY_STRING)
+            ? parameterResolver.resolveQueryString(context.request().query())
+            : null;
+    List<ObjectNode> params = new ArrayList<>(bodyNode.size());
+    for (JsonNode item : bodyNode) {
+      Preconditions.checkArgument(
+          item.isObject(), "item %s is excepted to be a json object!", params.size());
+      ObjectNode parameters = objectMapper.createObjectNode();
+      for (ParameterScope scope : parameterScopes) {
+        if (scope == ParameterScope.QUERY_STRING) {
+          // array values are never modified, so they are shared by the items
+          parameters.setAll(queryParams);
+        }
+        if (scope == ParameterScope.BODY) {
+          parameterResolver.putFields(parameters, (ObjectNode) item);
+        }
+      }
+      if (!parameterScopes.contains(ParameterScope.BODY)) {
+        // the items are always in the body of a batch request
+        parameterResolver.putFields(parameters, (ObjectNode) item);
+      }
+      params.add(parameters);
+    }
+    return params;
+  }
+
+  public Optional<AdaptiveConcurrencyLimit> getConcurrencyLimit() {
+    return Optional.ofNullable(concurrencyLimit);
+  }
+
+  public Optional<CacheStats> getCacheStats() {
+    return resultCache == null ? Optional.empty() : Optional.of(resultCache.stats());
+  }
+
+  /**
+   * @param format json if the response is shared by other requests
+   * @param cancellation null if the query is shared by other requests
+   */
+  private Future<QueryResponse> queryResponse(
+      ObjectNode params,
+      ResultLayout layout,
+      ResponseFormat format,
+      CancellableQuery cancellation) {
+    long submitNanos = System.nanoTime();
+    if (directWrite) {
+      return limited(
+          () ->
+              workerExecutor.executeBlocking(
+                  promise -> {
+                    metrics.recordPhase(Phase.QUEUE_WAIT, System.nanoTime() - submitNanos);
+                    promise.complete(
+                        cancellation == null
+                            ? queryDirect(params, layout, format)
+                            : cancellation.run(() -> queryDirect(params, layout, format)));
+                  }));
+    }
+    CompletableFuture<ArrayNode> windowRows = batcher == null ? null : batcher.get(params);
+    if (windowRows != null) {
+      return Future.fromCompletionStage(windowRows)
+          .map(arrayNode -> toResponse(params, arrayNode, format));
+    }
+    if (reactiveExecutor != null) {
+      // runs on the event loop, no worker thread is held while waiting for the DB
+      return limited(
+          () ->
+              reactiveExecutor
+                  .query(stmtId, params)
+                  .map(
+                      arrayNode -> {
+                        metrics.recordPhase(Phase.EXECUTE, System.nanoTime() - submitNanos);
+                        return toResponse(params, arrayNode, format);
+                      }));
+    }
+    return limited(
+        () ->
+            workerExecutor.executeBlocking(
+                promise -> {
+                  long executeNanos = System.nanoTime();
+                  metrics.recordPhase(Phase.QUEUE_WAIT, executeNanos - submitNanos);
+                  ArrayNode arrayNode =
+                      cancellation == null
+                          ? queryRows(params)
+                          : cancellation.run(() -> queryRows(params));
+                  metrics.recordPhase(Phase.EXECUTE, System.nanoTime() - executeNanos);
+                  promise.complete(toResponse(params, arrayNode, format));
+                }));
+  }
+
+  private <T> Future<T> limited(Supplier<Future<T>> query) {
+    return limited(true, query);
+  }
+
+  /**
+   * Sends the query only if neither the adaptive limit of this interface, if any, nor the cap of
+   * its dataSource is reached.
+   *
+   * @param sampled whether the latency of the query is fed to the adaptive limit
+   */
+  private <T> Future<T> limited(boolean sampled, Supplier<Future<T>> query) {
+    if (concurrencyLimit != null && !concurrencyLimit.tryAcquire()) {
+      return Future.failedFuture(new ConcurrencyLimitExceededException(concurrencyLimit));
+    }
+    if (!dataSourceLimit.tryAcquire()) {
+      if (concurrencyLimit != null) {
+        concurrencyLimit.release();
+      }
+      return Future.failedFuture(new ConcurrencyLimitExceededException(dataSourceLimit));
+    }
+    long acquiredNanos = System.nanoTime();
+    Future<T> future;
+    try {
+      future = query.get();
+    } catch (RuntimeException e) {
+      future = Future.failedFuture(e);
+    }
+    return future.onComplete(
+        ar -> {
+          dataSourceLimit.release();
+          if (concurrencyLimit == null) {
+            return;
+          }
+          if (sampled) {
+            boolean dropped =
+                ar.failed()
+                    && Throwables.getRootCause(ar.cause()) instanceof RejectedExecutionException;
+            concurrencyLimit.release(System.nanoTime() - acquiredNanos, dropped);
+          } else {
+            concurrencyLimit.release();
+          }
+        });
+  }
+
+  /** Rows of all keys of a window of {@link #batcher}. */
+  private CompletableFuture<ArrayNode> loadWindowRows(ObjectNode windowParams) {
+    String windowStmtId = stmtId + QueryBatcher.STMT_ID_SUFFIX;
+    long submitNanos = System.nanoTime();
+    Future<ArrayNode> future;
+    if (reactiveExecutor != null) {
+      future =
+          limited(
+              () ->
+                  reactiveExecutor
+                      .query(windowStmtId, windowParams)
+                      .onSuccess(
+                          arrayNode ->
+                              metrics.recordPhase(Phase.EXECUTE, System.nanoTime() - submitNanos)));
+    } else {
+      future =
+          limited(
+              () ->
+                  workerExecutor.executeBlocking(
+                      promise -> {
+                        long executeNanos = System.nanoTime();
+                        metrics.recordPhase(Phase.QUEUE_WAIT, executeNanos - submitNanos);
+                        ArrayNode arrayNode = queryRows(windowStmtId, windowParams);
+                        metrics.recordPhase(Phase.EXECUTE, System.nanoTime() - executeNanos);
+                        promise.complete(arrayNode);
+                      }));
+    }
+    return future.toCompletionStage().toCompletableFuture();
+  }
+
+  private QueryResponse toResponse(
+      ObjectNode params, ArrayNode arrayNode, ResponseFormat format) {
+    long serializeNanos = System.nanoTime();
+    metrics.recordRows(arrayNode.size());
+    QueryResult result =
+        unwrapArray && arrayNode.size() > 1 ? QueryResult.MULTIPLE_RESULT_OBJECTS : QueryResult.OK;
+    ByteBuf content = serialize(toResultWrapper(params, arrayNode), format, responseBuffers);
+    metrics.recordPhase(Phase.SERIALIZE, System.nanoTime() - serializeNanos);
+    return new QueryResponse(result, content, format);
+  }
+
+  private ObjectNode toResultWrapper(ObjectNode params, ArrayNode arrayNode) {
+    if (pagination == null) {
+      return wrapDbResult(arrayNode);
+    }
+    String cursor = pagination.nextCursor(params, arrayNode);
+    return wrapDbResult(arrayNode).put(KeysetPagination.CURSOR_FIELD, cursor);
+  }
+
+  /** @param compressor null if the response is not precompressed */
+  private CompletableFuture<QueryResponse> loadResponse(
+      QueryKey key, ResponseCompressor compressor) {
+    // shared responses are kept in json on the heap, and transcoded for the other formats
+    return queryResponse(key.getParams(), key.getLayout(), ResponseFormat.JSON, null)
+        .map(response -> response.toShared(compressor))
+        .toCompletionStage()
+        .toCompletableFuture();
+  }
+
+  private void endWithFuture(
+      RoutingContext routingContext,
+      Future<QueryResponse> future,
+      ResponseFormat format,
+      long startNanos) {
+    future.onComplete(
+        ar -> {
+          if (ar.failed()) {
+            endWithDbException(routingContext, ar.cause(), startNanos);
+            return;
+          }
+          QueryResponse response = ar.result();
+          if (response.getFormat() != format) {
+            ByteBuf content;
+            try {
+              content = transcode(response.content(), format);
+            } finally {
+              response.release();
+            }
+            end(routingContext, response.getResult(), content, format, startNanos);
+            return;
+          }
+          ContentCoding coding = negotiateCoding(routingContext, response.content());
+          ByteBuf compressed = coding == null ? null : response.getCompressed(coding);
+          if (compressed != null) {
+            // only shared responses are precompressed, which are never released
+            write(routingContext, response.getResult(), compressed, format, coding, startNanos);
+          } else {
+            end(
+                routingContext,
+                response.getResult(),
+                response.content(),
+                format,
+                coding,
+                startNanos);
+          }
+        });
+  }
+
+  ArrayNode queryRows(ObjectNode params) {
+    return queryRows(stmtId, params);
+  }
+
+  private ArrayNode queryRows(String stmtId, ObjectNode params) {
+    try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
+      ArrayNodeHandler handler = new ArrayNodeHandler(objectMapper.createArrayNode());
+      sqlSession.select(stmtId, params, handler);
+      return handler.getArrayNode();
+    }
+  }
+
+  /**
+   * Queries with the rows written straight from the result set, bypassing the result mapping. Rows
+   * are written while being fetched, so there is no separate serialize phase.
+   */
+  QueryResponse queryDirect(ObjectNode params, ResultLayout layout, ResponseFormat format) {
+    long executeNanos = System.nanoTime();
+    ByteBuf content = responseBuffers.allocate();
+    OutputStream out = new ByteBufOutputStream(content);
+    ResultSetWriter writer;
+    try (SqlSession sqlSession = sqlSessionFactory.openSession();
+        JsonGenerator generator = format.createGenerator(objectMapper, out)) {
+      writeEnvelopeStart(generator);
+      writer = createResultSetWriter(generator, layout);
+      sqlSession.select(stmtId, params, writer);
+      generator.writeEndObject();
+    } catch (IOException e) {
+      content.release();
+      throw new UncheckedIOException(e);
+    } catch (RuntimeException e) {
+      content.release();
+      throw e;
+    }
+    responseBuffers.record(content.readableBytes());
+    metrics.recordPhase(Phase.EXECUTE, System.nanoTime() - executeNanos);
+    metrics.recordRows(writer.getRowCount());
+    return new QueryResponse(QueryResult.OK, content, format);
+  }
+
+  private ResultSetWriter createResultSetWriter(JsonGenerator generator, ResultLayout layout) {
+    return layout == ResultLayout.COLUMNAR
+        ? new ColumnarResultSetWriter(generator, resultSetShapes)
+        : new RowsResultSetWriter(generator, resultSetShapes);
+  }
+
+  /** Writes the envelope up to the value of {@code data}. */
+  private static void writeEnvelopeStart(JsonGenerator generator) throws IOException {
+    // keep the same field order as QueryResult.createResultObject
+    generator.writeStartObject();
+    generator.writeNumberField("code", QueryResult.OK.code);
+    generator.writeStringField("msg", QueryResult.OK.msg);
+    generator.writeFieldName("data");
+  }
+
+  private void endWithDbException(RoutingContext routingContext, Throwable e, long startNanos) {
+    QueryResult result = exceptionResult(e);
+    if (routingContext.response().closed()) {
+      // most likely cancelled because the client is gone, nobody is waiting for the cause
+      log.debug("Query [{}] of a closed connection failed: {}", stmtId, e.toString());
+      endWithJson(routingContext, result, result.createResultObject(objectMapper), startNanos);
+      return;
+    }
+    endWithJson(routingContext, result, createExceptionResult(result, e), startNanos);
+  }
+
+  private static QueryResult exceptionResult(Throwable e) {
+    Throwable rootCause = Throwables.getRootCause(e);
+    if (rootCause instanceof ConcurrencyLimitExceededException) {
+      return QueryResult.OVERLOADED;
+    }
+    if (rootCause instanceof TimeoutException || rootCause instanceof SQLTimeoutException) {
+      return QueryResult.QUERY_TIMEOUT;
+    }
+    return rootCause instanceof RejectedExecutionException
+        ? QueryResult.QUERY_REJECTED
+        : QueryResult.UNKNOWN_EXCEPTION;
+  }
+
+  private ObjectNode createExceptionResult(QueryResult result, Throwable e) {
+    Throwable rootCause = Throwables.getRootCause(e);
+    if (result == QueryResult.QUERY_REJECTED || result == QueryResult.OVERLOADED) {
+      log.debug("Query [{}] rejected: {}", stmtId, rootCause.getMessage());
+      return result.createResultObject(objectMapper);
+    }
+    if (result == QueryResult.QUERY_TIMEOUT) {
+      log.warn("Query [{}] timeout: {}", stmtId, rootCause.getMessage());
+      return result.createResultObject(objectMapper);
+    }
+    log.error("Access DB with exception: ", e);
+    return result.createResultObject(objectMapper).put("cause", rootCause.getMessage());
+  }
+
+  private void streamDbResult(
+      RoutingContext routingContext,
+      ObjectNode params,
+      ResultLayout layout,
+      ResponseFormat format,
+      long startNanos,
+      CancellableQuery cancellation) {
+    HttpServerResponse response =
+        routingContext
+            .response()
+            .setStatusCode(200)
+            .setChunked(true)
+            .putHeader("content-type", format.contentType)
+            .putHeader("vary", vary);
+    // the size is unknown until the end, so a streaming response is always compressed if accepted
+    ContentCoding coding = compressor == null ? null : compressor.negotiate(routingContext);
+    if (coding != null) {
+      response.putHeader("content-encoding", coding.token);
+    }
+    ResponseOutputStream out = new ResponseOutputStream(response, STREAMING_CHUNK_SIZE);
+    long executeNanos = System.nanoTime();
+    try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
+      JsonGenerator generator =
+          format.createGenerator(
+              objectMapper, coding == null ? out : compressor.compress(out, coding));
+      writeEnvelopeStart(generator);
+      int rowCount;
+      if (directWrite) {
+        ResultSetWriter writer = createResultSetWriter(generator, layout);
+        cancellation.run(
+            () -> {
+              sqlSession.select(stmtId, params, writer);
+              return null;
+            });
+        rowCount = writer.getRowCount();
+      } else {
+        rowCount = streamRows(generator, sqlSession, params, cancellation);
+      }
+      generator.writeEndObject();
+      // closing the generator also ends the response
+      generator.close();
+      // rows are serialized while being fetched, so there is no separate serialize phase
+      metrics.recordPhase(Phase.EXECUTE, System.nanoTime() - executeNanos);
+      metrics.recordRows(rowCount);
+      metrics.recordResult(QueryResult.OK);
+      metrics.recordResponseBytes(out.getWrittenBytes());
+      metrics.recordPhase(Phase.TOTAL, System.nanoTime() - startNanos);
+    } catch (Exception e) {
+      if (out.isCommitted()) {
+        if (cancellation.isCancelled()) {
+          log.debug("Stream DB result cancelled: {}", e.toString());
+        } else {
+          log.error("Stream DB result with exception: ", e);
+        }
+        // the envelope is broken, the only thing we can do is to close the connection
+        response.reset();
+        metrics.recordResult(exceptionResult(e));
+        metrics.recordResponseBytes(out.getWrittenBytes());
+        metrics.recordPhase(Phase.TOTAL, System.nanoTime() - startNanos);
+      } else {
+        endWithDbException(routingContext, e, startNanos);
+      }
+    }
+  }
+
+  /** @return count of the rows written */
+  private int streamRows(
+      JsonGenerator generator,
+      SqlSession sqlSession,
+      ObjectNode params,
+      CancellableQuery cancellation)
+      throws IOException {
+    generator.writeStartArray();
+    GeneratorHandler generatorHandler =
+        new GeneratorHandler(
+            objectMapper,
+            generator,
+            pagination == null ? Integer.MAX_VALUE : pagination.pageSize(params));
+    cancellation.run(
+        () -> {
+          sqlSession.select(stmtId, params, generatorHandler);
+          return null;
+        });
+    generator.writeEndArray();
+    if (pagination != null) {
+      generator.writeFieldName(KeysetPagination.CURSOR_FIELD);
+      if (generatorHandler.isTruncated()) {
+        generator.writeString(pagination.encodeCursor(generatorHandler.getLastRow()));
+      } else {
+        generator.writeNull();
+      }
+    }
+    return generatorHandler.getRowCount();
+  }
+
+  ObjectNode wrapDbResult(ArrayNode arrayNode) {
     if (unwrapArray) {
       if (arrayNode.isEmpty()) {
         return QueryResult.OK.createResultObject(objectMapper).putNull("data");
@@ -153,39 +975,153 @@ public final class GeneralQueryHandler implements Handler<RoutingContext> {
     return QueryResult.OK.createResultObject(objectMapper).set("data", arrayNode);
   }
 
-  private void endWithJson(RoutingContext context, JsonNode jsonNode) {
-    Buffer buffer;
+  ByteBuf serialize(JsonNode jsonNode) {
+    return serialize(jsonNode, ResponseFormat.JSON, responseBuffers);
+  }
+
+  /** @return a pooled buffer of {@code buffers}, which is released if the serialization fails */
+  private ByteBuf serialize(JsonNode jsonNode, ResponseFormat format, ResponseBuffers buffers) {
+    ByteBuf content = buffers.allocate();
     try {
-      buffer = Buffer.buffer(objectMapper.writeValueAsBytes(jsonNode));
-    } catch (JsonProcessingException e) {
-      throw new RuntimeException(e);
-    }
-    context
-        .response()
-        .setStatusCode(200)
-        .putHeader("content-type", "application/json;charset=utf-8")
-        .end(buffer);
-  }
-
-  private ObjectNode resolveParameters(RoutingContext context) throws IOException {
-    ObjectNode parameters = objectMapper.createObjectNode();
-    for (ParameterScope scope : parameterScopes) {
-      if (scope == ParameterScope.QUERY_STRING) {
-        putMultiMap(parameters, context.queryParams(StandardCharsets.UTF_8));
-      }
-      if (scope == ParameterScope.BODY) {
-        Buffer buffer = context.getBody();
-        if (buffer == null) {
-          continue;
-        }
-        try (InputStream in = new ByteBufInputStream(buffer.getByteBuf())) {
-          JsonNode bodyNode = objectMapper.readTree(in);
-          Preconditions.checkArgument(bodyNode.isObject(), "body is excepted to be a json object!");
-          parameters.setAll(((ObjectNode) bodyNode));
-        }
+      format.write(objectMapper, jsonNode, new ByteBufOutputStream(content));
+    } catch (IOException e) {
+      content.release();
+      throw new UncheckedIOException(e);
+    } catch (RuntimeException e) {
+      content.release();
+      throw e;
+    }
+    buffers.record(content.readableBytes());
+    return content;
+  }
+
+  /** @return a pooled buffer of the shared json response re-encoded in the format */
+  private ByteBuf transcode(ByteBuf json, ResponseFormat format) {
+    ByteBuf content = ResponseBuffers.ALLOCATOR.ioBuffer(json.readableBytes());
+    try {
+      format.transcode(objectMapper, json, new ByteBufOutputStream(content));
+    } catch (IOException e) {
+      content.release();
+      throw new UncheckedIOException(e);
+    } catch (RuntimeException e) {
+      content.release();
+      throw e;
+    }
+    return content;
+  }
+
+  /** Ends with the envelope encoded in the format accepted by the client. */
+  private void endWithJson(
+      RoutingContext context, QueryResult result, JsonNode jsonNode, long startNanos) {
+    ResponseFormat format = ResponseFormat.negotiate(context);
+    end(context, result, serialize(jsonNode, format, errorBuffers), format, startNanos);
+  }
+
+  /** @return the coding accepted by the client if the content is worth compressing, or null */
+  private ContentCoding negotiateCoding(RoutingContext context, ByteBuf content) {
+    return compressor == null || !compressor.worthCompressing(content.readableBytes())
+        ? null
+        : compressor.negotiate(context);
+  }
+
+  private void end(
+      RoutingContext context,
+      QueryResult result,
+      ByteBuf content,
+      ResponseFormat format,
+      long startNanos) {
+    end(context, result, content, format, negotiateCoding(context, content), startNanos);
+  }
+
+  /** Compresses the content in the coding unless it is null, the content is released. */
+  private void end(
+      RoutingContext context,
+      QueryResult result,
+      ByteBuf content,
+      ResponseFormat format,
+      ContentCoding coding,
+      long startNanos) {
+    if (coding == null) {
+      write(context, result, content, format, null, startNanos);
+      return;
+    }
+    // on the event loop, as the compression of vert.x itself would be
+    long compressNanos = System.nanoTime();
+    ByteBuf compressed;
+    try {
+      compressed = compressor.compress(content, coding);
+    } finally {
+      content.release();
+    }
+    metrics.recordPhase(Phase.COMPRESS, System.nanoTime() - compressNanos);
+    write(context, result, compressed, format, coding, startNanos);
+  }
+
+  /**
+   * The content is handed to the connection without copying, and released once written.
+   *
+   * @param coding of the content, null if it is not compressed
+   */
+  private void write(
+      RoutingContext context,
+      QueryResult result,
+      ByteBuf content,
+      ResponseFormat format,
+      ContentCoding coding,
+      long startNanos) {
+    int length = content.readableBytes();
+    Future<Void> written;
+    try {
+      HttpServerResponse response =
+          context
+              .response()
+              .setStatusCode(result.httpStatus)
+              .putHeader("content-type", format.contentType)
+              .putHeader("vary", vary);
+      if (coding != null) {
+        response.putHeader("content-encoding", coding.token);
+      } else {
+        // set by a streaming response which fails before sending anything
+        response.headers().remove("content-encoding");
+      }
+      written = response.end(Buffer.buffer(content));
+    } catch (RuntimeException e) {
+      content.release();
+      throw e;
+    }
+    // vert.x never releases a buffer it is given, whether the write succeeds or not
+    written.onComplete(ar -> content.release());
+    metrics.recordResult(result);
+    metrics.recordResponseBytes(length);
+    metrics.recordPhase(Phase.TOTAL, System.nanoTime() - startNanos);
+  }
+
+  @RequiredArgsConstructor
+  private static final class GeneratorHandler implements ResultHandler<JsonNode> {
+
+    private final ObjectMapper objectMapper;
+    private final JsonGenerator generator;
+    private final int maxRows;
+    @Getter private int rowCount = 0;
+    // true if there are more rows than maxRows
+    @Getter private boolean truncated = false;
+    @Getter private JsonNode lastRow;
+
+    @Override
+    public void handleResult(ResultContext<? extends JsonNode> resultContext) {
+      if (rowCount == maxRows) {
+        truncated = true;
+        resultContext.stop();
+        return;
+      }
+      rowCount++;
+      lastRow = resultContext.getResultObject();
+      try {
+        objectMapper.writeTree(generator, lastRow);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
       }
     }
-    return parameters;
   }
 
   @RequiredArgsConstructor
@@ -0,0 +1,228 @@
+package com.tencent.weblancer.web.handler;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ContainerNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.primitives.Longs;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerRequest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+
+/**
+ * Parses a json body while its chunks arrive. Every chunk is fed to the non-blocking parser of
+ * jackson, and the nodes are built from the tokens available so far, so neither the whole body nor
+ * its tokens are kept. The nodes are the same as {@link ObjectMapper#readTree} builds, only the
+ * first value of the body is read.
+ *
+ * @author fishzhao
+ * @since 2021-03-24
+ */
+final class JsonBodyParser {
+
+  private final ObjectMapper objectMapper;
+  private final JsonNodeFactory nodeFactory;
+  // fields of the root object to keep, null if every field is kept
+  private final Set<String> rootFieldNames;
+  private final JsonParser parser;
+  private final ByteArrayFeeder feeder;
+  // containers being built, the innermost on top
+  private final Deque<ContainerNode<?>> containers = new ArrayDeque<>();
+  private JsonNode root;
+  private boolean done;
+  private String fieldName;
+  // depth of the value being skipped, 0 if none
+  private int skipDepth;
+  private boolean skipNextValue;
+  private long receivedBytes;
+
+  JsonBodyParser(ObjectMapper objectMapper, Set<String> rootFieldNames) {
+    this.objectMapper = objectMapper;
+    this.nodeFactory = objectMapper.getNodeFactory();
+    this.rootFieldNames = rootFieldNames;
+    try {
+      this.parser = objectMapper.getFactory().createNonBlockingByteArrayParser();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+  }
+
+  /**
+   * Reads the body of the request while it arrives, the rest of the body is discarded once it
+   * fails.
+   *
+   * @return the first value of the body, null if it is empty. Failed with {@link
+   *     BodyTooLargeException} if the body exceeds {@code maxBodyBytes}, or with the parse error.
+   */
+  Future<JsonNode> read(HttpServerRequest request, long maxBodyBytes) {
+    Promise<JsonNode> promise = Promise.promise();
+    String contentLengthHeader = request.getHeader(HttpHeaders.CONTENT_LENGTH);
+    Long contentLength = contentLengthHeader == null ? null : Longs.tryParse(contentLengthHeader);
+    if (contentLength != null && contentLength > maxBodyBytes) {
+      // rejected before a byte of the body is read
+      promise.fail(new BodyTooLargeException(maxBodyBytes));
+      return promise.future();
+    }
+    if (request.isEnded()) {
+      promise.complete(null);
+      return promise.future();
+    }
+    request.handler(
+        chunk -> {
+          if (promise.future().isComplete()) {
+            return;
+          }
+          receivedBytes += chunk.length();
+          if (receivedBytes > maxBodyBytes) {
+            promise.fail(new BodyTooLargeException(maxBodyBytes));
+            return;
+          }
+          try {
+            feed(chunk);
+          } catch (IOException | RuntimeException e) {
+            promise.fail(e);
+          }
+        });
+    request.endHandler(
+        v -> {
+          if (promise.future().isComplete()) {
+            return;
+          }
+          try {
+            promise.complete(end());
+          } catch (IOException | RuntimeException e) {
+            promise.fail(e);
+          }
+        });
+    request.exceptionHandler(promise::tryFail);
+    return promise.future();
+  }
+
+  /** Parses the tokens of the chunk, a heap chunk is fed without copying. */
+  void feed(Buffer chunk) throws IOException {
+    if (done || chunk.length() == 0) {
+      return;
+    }
+    ByteBuf byteBuf = chunk.getByteBuf();
+    if (byteBuf.hasArray()) {
+      int start = byteBuf.arrayOffset() + byteBuf.readerIndex();
+      feeder.feedInput(byteBuf.array(), start, start + byteBuf.readableBytes());
+    } else {
+      byte[] bytes = ByteBufUtil.getBytes(byteBuf);
+      feeder.feedInput(bytes, 0, bytes.length);
+    }
+    parseAvailable();
+  }
+
+  /** @return the first value of the body, null if it is empty */
+  JsonNode end() throws IOException {
+    if (!done) {
+      feeder.endOfInput();
+      parseAvailable();
+    }
+    parser.close();
+    return root;
+  }
+
+  private void parseAvailable() throws IOException {
+    JsonToken token;
+    while (!done && (token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+      onToken(token);
+    }
+  }
+
+  private void onToken(JsonToken token) throws IOException {
+    if (skipDepth > 0) {
+      if (token.isStructStart()) {
+        skipDepth++;
+      } else if (token.isStructEnd()) {
+        skipDepth--;
+      }
+      return;
+    }
+    switch (token) {
+      case FIELD_NAME:
+        fieldName = parser.getCurrentName();
+        skipNextValue =
+            containers.size() == 1 && rootFieldNames != null && !rootFieldNames.contains(fieldName);
+        return;
+      case END_OBJECT:
+      case END_ARRAY:
+        containers.pop();
+        done = containers.isEmpty();
+        return;
+      default:
+        break;
+    }
+    if (skipNextValue) {
+      skipNextValue = false;
+      skipDepth = token.isStructStart() ? 1 : 0;
+      return;
+    }
+    JsonNode value;
+    if (token == JsonToken.START_OBJECT) {
+      value = nodeFactory.objectNode();
+    } else if (token == JsonToken.START_ARRAY) {
+      value = nodeFactory.arrayNode();
+    } else {
+      value = scalarValue(token);
+    }
+    ContainerNode<?> parent = containers.peek();
+    if (parent == null) {
+      root = value;
+    } else if (parent.isObject()) {
+      ((ObjectNode) parent).set(fieldName, value);
+    } else {
+      ((ArrayNode) parent).add(value);
+    }
+    if (value.isContainerNode()) {
+      containers.push((ContainerNode<?>) value);
+    } else {
+      done = parent == null;
+    }
+  }
+
+  private JsonNode scalarValue(JsonToken token) throws IOException {
+    switch (token) {
+      case VALUE_STRING:
+        return nodeFactory.textNode(parser.getText());
+      case VALUE_NUMBER_INT:
+        switch (parser.getNumberType()) {
+          case INT:
+            return nodeFactory.numberNode(parser.getIntValue());
+          case LONG:
+            return nodeFactory.numberNode(parser.getLongValue());
+          default:
+            return nodeFactory.numberNode(parser.getBigIntegerValue());
+        }
+      case VALUE_NUMBER_FLOAT:
+        return objectMapper.isEnabled(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS)
+            ? nodeFactory.numberNode(parser.getDecimalValue())
+            : nodeFactory.numberNode(parser.getDoubleValue());
+      case VALUE_TRUE:
+      case VALUE_FALSE:
+        return nodeFactory.booleanNode(token == JsonToken.VALUE_TRUE);
+      case VALUE_NULL:
+        return nodeFactory.nullNode();
+      default:
+        throw new IOException("unexpected token: " + token);
+    }
+  }
+}
@@ -0,0 +1,211 @@
+package com.tencent.weblancer.web.handler;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Ints;
+import com.google.common.xml.XmlEscapers;
+import com.tencent.weblancer.web.conf.PaginationDefinition;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Keyset pagination of one interface. The sql of the interface is wrapped as a derived table,
+ * ordered by the cursor columns and limited to one row more than the page, which tells whether
+ * there is a next page:
+ *
+ * <pre>
+ * select * from (...) web_lancer_page
+ * where (c1 &gt; ?) or (c1 = ? and c2 &gt; ?)
+ * order by c1, c2 limit ?
+ * </pre>
+ *
+ * The cursor given to the client is the base64 encoded json array of the cursor columns of the
+ * last row in the page.
+ *
+ * @author fishzhao
+ * @since 2021-03-13
+ */
+public final class KeysetPagination {
+
+  /** Request parameters, they are never passed to the sql. */
+  public static final String CURSOR_PARAMETER = "cursor";
+
+  public static final String PAGE_SIZE_PARAMETER = "pageSize";
+
+  /** Field of the response envelope next to {@code data}, null on the last page. */
+  static final String CURSOR_FIELD = "cursor";
+
+  private static final String DERIVED_TABLE_ALIAS = "web_lancer_page";
+  private static final String LIMIT_KEY = "_pageLimit";
+  private static final String CURSOR_KEY_PREFIX = "_pageCursor";
+
+  private final PaginationDefinition definition;
+  private final ObjectMapper objectMapper;
+  private final ObjectReader cursorReader;
+
+  KeysetPagination(PaginationDefinition definition, ObjectMapper objectMapper) {
+    definition.validate();
+    this.definition = definition;
+    this.objectMapper = objectMapper;
+    // decimals such as 1.10 must be bound back exactly
+    this.cursorReader =
+        objectMapper.reader().with(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);
+  }
+
+  /** @return the mybatis script of {@code script} with the keyset predicate and limit injected */
+  public static String wrapScript(String script, PaginationDefinition definition) {
+    String inner;
+    if (script.startsWith("<script>") && script.endsWith("</script>")) {
+      inner = script.substring("<script>".length(), script.length() - "</script>".length());
+    } else {
+      inner = XmlEscapers.xmlContentEscaper().escape(script);
+    }
+    List<String> columns = definition.getCursorColumns();
+    String comparison = definition.isDescending() ? " &lt; " : " &gt; ";
+    StringBuilder sb = new StringBuilder("<script>select * from (");
+    sb.append(inner).append(") ").append(DERIVED_TABLE_ALIAS);
+    sb.append(" <if test=\"").append(CURSOR_KEY_PREFIX).append("0 != null\">where ");
+    // 展开成 or 的形式，行值比较 (c1, c2) > (?, ?) 在一些数据库上用不到索引
+    for (int i = 0; i < columns.size(); i++) {
+      sb.append(i == 0 ? "(" : " or (");
+      for (int j = 0; j < i; j++) {
+        sb.append(columns.get(j)).append(" = #{").append(CURSOR_KEY_PREFIX).append(j);
+        sb.append("} and ");
+      }
+      sb.append(columns.get(i)).append(comparison).append("#{").append(CURSOR_KEY_PREFIX);
+      sb.append(i).append("})");
+    }
+    sb.append("</if> order by ");
+    for (int i = 0; i < columns.size(); i++) {
+      sb.append(i == 0 ? "" : ", ").append(columns.get(i));
+      sb.append(definition.isDescending() ? " desc" : "");
+    }
+    return sb.append(" limit #{").append(LIMIT_KEY).append("}</script>").toString();
+  }
+
+  /**
+   * Replaces the {@link #CURSOR_PARAMETER} and {@link #PAGE_SIZE_PARAMETER} of the request by the
+   * parameters of the wrapped script.
+   *
+   * @throws IllegalArgumentException if the cursor or the page size is illegal
+   */
+  void bind(ObjectNode params) {
+    int pageSize = definition.getPageSize();
+    JsonNode pageSizeNode = params.remove(PAGE_SIZE_PARAMETER);
+    if (pageSizeNode != null && !pageSizeNode.isNull()) {
+      Integer requested =
+          pageSizeNode.canConvertToInt() && pageSizeNode.isIntegralNumber()
+              ? Integer.valueOf(pageSizeNode.intValue())
+              : Ints.tryParse(pageSizeNode.asText().trim());
+      Preconditions.checkArgument(
+          requested != null && requested > 0 && requested <= definition.getMaxPageSize(),
+          "illegal pageSize: %s, valid range is [1, %s]",
+          pageSizeNode,
+          definition.getMaxPageSize());
+      pageSize = requested;
+    }
+    params.put(LIMIT_KEY, pageSize + 1);
+
+    List<String> columns = definition.getCursorColumns();
+    JsonNode cursorNode = params.remove(CURSOR_PARAMETER);
+    if (cursorNode == null || cursorNode.isNull() || cursorNode.asText().isEmpty()) {
+      // the first page, values sent by the client must not be used
+      for (int i = 0; i < columns.size(); i++) {
+        params.remove(CURSOR_KEY_PREFIX + i);
+      }
+      return;
+    }
+    JsonNode values = decodeCursor(cursorNode.asText());
+    for (int i = 0; i < columns.size(); i++) {
+      params.set(CURSOR_KEY_PREFIX + i, values.get(i));
+    }
+  }
+
+  private JsonNode decodeCursor(String cursor) {
+    JsonNode values;
+    try {
+      values = cursorReader.readTree(Base64.getUrlDecoder().decode(cursor));
+    } catch (IOException | IllegalArgumentException e) {
+      throw new IllegalArgumentException("illegal cursor: " + cursor);
+    }
+    Preconditions.checkArgument(
+        values != null
+            && values.isArray()
+            && values.size() == definition.getCursorColumns().size(),
+        "illegal cursor: %s",
+        cursor);
+    for (JsonNode value : values) {
+      Preconditions.checkArgument(value.isValueNode(), "illegal cursor: %s", cursor);
+    }
+    return values;
+  }
+
+  /** @return the rows of a page requested with {@code params} */
+  int pageSize(ObjectNode params) {
+    return params.get(LIMIT_KEY).intValue() - 1;
+  }
+
+  /**
+   * Removes the row which only tells there is a next page.
+   *
+   * @return the cursor of the next page, null if this is the last one
+   */
+  String nextCursor(ObjectNode params, ArrayNode rows) {
+    int pageSize = pageSize(params);
+    if (rows.size() <= pageSize) {
+      return null;
+    }
+    while (rows.size() > pageSize) {
+      rows.remove(rows.size() - 1);
+    }
+    return encodeCursor(rows.get(pageSize - 1));
+  }
+
+  String encodeCursor(JsonNode row) {
+    ArrayNode values = objectMapper.createArrayNode();
+    if (row.isObject()) {
+      for (String column : definition.getCursorColumns()) {
+        values.add(columnValue(row, column));
+      }
+    } else {
+      // the result of a single column sql is its value
+      Preconditions.checkState(
+          definition.getCursorColumns().size() == 1,
+          "cursor columns %s are not in the result!",
+          definition.getCursorColumns());
+      values.add(row);
+    }
+    try {
+      return Base64.getUrlEncoder()
+          .withoutPadding()
+          .encodeToString(objectMapper.writeValueAsBytes(values));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static JsonNode columnValue(JsonNode row, String column) {
+    JsonNode value = row.get(column);
+    if (value != null) {
+      return value;
+    }
+    // labels of unquoted columns are upper case in some databases
+    Iterator<String> fieldNames = row.fieldNames();
+    while (fieldNames.hasNext()) {
+      String fieldName = fieldNames.next();
+      if (fieldName.equalsIgnoreCase(column)) {
+        return row.get(fieldName);
+      }
+    }
+    throw new IllegalStateException("cursor column `" + column + "` is not in the result!");
+  }
+}
@@ -0,0 +1,319 @@
+package com.tencent.weblancer.web.handler;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.Longs;
+import com.networknt.schema.JsonSchema;
+import com.tencent.weblancer.web.conf.DynamicInterfaceDefinition;
+import com.tencent.weblancer.web.conf.ParameterScope;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.vertx.core.buffer.Buffer;
+import lombok.NonNull;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves the parameters of one interface, compiled from its parameter schema and sql script:
+ *
+ * <ul>
+ *   <li>the query string is decoded straight into the parameters, values of properties declared
+ *       as {@code integer}/{@code number}/{@code boolean} become the same nodes as in a json body,
+ *       values of {@code array} properties are always arrays
+ *   <li>the body is parsed while it arrives by {@link JsonBodyParser}, fields neither referenced by
+ *       the sql nor declared by the schema are skipped without building their nodes
+ * </ul>
+ *
+ * Every field is kept if the sql refers to the whole parameter object, or the schema may depend on
+ * the fields it does not declare.
+ *
+ * @author fishzhao
+ * @since 2021-03-19
+ */
+public final class ParameterResolver {
+
+  private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_$][A-Za-z0-9_$]*");
+  // 只有这些关键字时，未声明的字段不影响校验结果
+  private static final Set<String> CLOSED_SCHEMA_KEYWORDS =
+      ImmutableSet.of(
+          "$schema", "$id", "id", "title", "description", "type", "properties", "required");
+
+  private final LinkedHashSet<ParameterScope> parameterScopes;
+  private final ObjectMapper objectMapper;
+  private final JsonNodeFactory nodeFactory;
+  // null if every field is kept
+  private final Set<String> usedNames;
+  private final Map<String, ValueType> valueTypes;
+  private final Set<String> arrayNames;
+
+  private ParameterResolver(
+      LinkedHashSet<ParameterScope> parameterScopes,
+      ObjectMapper objectMapper,
+      Set<String> usedNames,
+      Map<String, ValueType> valueTypes,
+      Set<String> arrayNames) {
+    this.parameterScopes = parameterScopes;
+    this.objectMapper = objectMapper;
+    this.nodeFactory = objectMapper.getNodeFactory();
+    this.usedNames = usedNames;
+    this.valueTypes = valueTypes;
+    this.arrayNames = arrayNames;
+  }
+
+  public static ParameterResolver compile(
+      @NonNull DynamicInterfaceDefinition definition, @NonNull ObjectMapper objectMapper) {
+    JsonNode schema =
+        definition.getParameterValidation().map(JsonSchema::getSchemaNode).orElse(null);
+    Map<String, ValueType> valueTypes = new HashMap<>();
+    Set<String> arrayNames = new HashSet<>();
+    JsonNode properties = schema == null ? null : schema.get("properties");
+    if (properties != null && properties.isObject()) {
+      Iterator<Map.Entry<String, JsonNode>> fields = properties.fields();
+      while (fields.hasNext()) {
+        Map.Entry<String, JsonNode> field = fields.next();
+        JsonNode property = field.getValue();
+        if ("array".equals(property.path("type").textValue())) {
+          arrayNames.add(field.getKey());
+          property = property.path("items");
+        }
+        ValueType valueType = ValueType.of(property.path("type").textValue());
+        if (valueType != null) {
+          valueTypes.put(field.getKey(), valueType);
+        }
+      }
+    }
+    return new ParameterResolver(
+        definition.getParameterScopes(),
+        objectMapper,
+        usedNames(definition, schema),
+        valueTypes,
+        arrayNames);
+  }
+
+  /** @return null if every field must be kept */
+  private static Set<String> usedNames(DynamicInterfaceDefinition definition, JsonNode schema) {
+    String script = StringUtils.join(definition.getSqlScriptSegments(), ' ');
+    if (script.contains("_parameter")) {
+      return null;
+    }
+    Set<String> usedNames = new HashSet<>();
+    if (schema != null) {
+      Iterator<String> keywords = schema.fieldNames();
+      while (keywords.hasNext()) {
+        String keyword = keywords.next();
+        if (!CLOSED_SCHEMA_KEYWORDS.contains(keyword)) {
+          return null;
+        }
+      }
+      schema.path("properties").fieldNames().forEachRemaining(usedNames::add);
+      schema.path("required").forEach(name -> usedNames.add(name.asText()));
+    }
+    // every identifier of the script, a superset of the parameters it refers to
+    Matcher matcher = IDENTIFIER.matcher(script);
+    while (matcher.find()) {
+      usedNames.add(matcher.group());
+    }
+    if (definition.getPagination().isPresent()) {
+      usedNames.add(KeysetPagination.CURSOR_PARAMETER);
+      usedNames.add(KeysetPagination.PAGE_SIZE_PARAMETER);
+    }
+    return usedNames;
+  }
+
+  LinkedHashSet<ParameterScope> getParameterScopes() {
+    return parameterScopes;
+  }
+
+  /** @return a parser of a request body, which keeps only the fields used by this interface */
+  JsonBodyParser newBodyParser() {
+    return new JsonBodyParser(objectMapper, usedNames);
+  }
+
+  /** The same as {@link #resolve(String, JsonNode)} with a body not parsed yet. */
+  ObjectNode resolve(String query, Buffer body) throws IOException {
+    JsonBodyParser bodyParser = newBodyParser();
+    if (body != null) {
+      bodyParser.feed(body);
+    }
+    return resolve(query, bodyParser.end());
+  }
+
+  /**
+   * Parameters of the scopes in order, a parameter of a later scope overrides the former one.
+   *
+   * @param body parsed by {@link #newBodyParser()}, null if it is empty
+   */
+  ObjectNode resolve(String query, JsonNode body) {
+    Preconditions.checkArgument(
+        body == null || body.isObject(), "body is excepted to be a json object!");
+    ObjectNode parameters = objectMapper.createObjectNode();
+    for (ParameterScope scope : parameterScopes) {
+      if (scope == ParameterScope.QUERY_STRING) {
+        if (parameters.isEmpty()) {
+          putQueryString(parameters, query);
+        } else {
+          parameters.setAll(resolveQueryString(query));
+        }
+      }
+      if (scope == ParameterScope.BODY && body != null) {
+        parameters.setAll((ObjectNode) body);
+      }
+    }
+    return parameters;
+  }
+
+  ObjectNode resolveQueryString(String query) {
+    ObjectNode parameters = objectMapper.createObjectNode();
+    putQueryString(parameters, query);
+    return parameters;
+  }
+
+  /**
+   * Empty values are ignored, a parameter given more than once is an array. Both {@code &} and
+   * {@code ;} separate parameters, the same as {@link QueryStringDecoder}.
+   */
+  private void putQueryString(ObjectNode parameters, String query) {
+    if (query == null) {
+      return;
+    }
+    int start = 0;
+    while (start <= query.length()) {
+      int end = start;
+      int equals = -1;
+      for (; end < query.length(); end++) {
+        char c = query.charAt(end);
+        if (c == '&' || c == ';') {
+          break;
+        }
+        if (c == '=' && equals < 0) {
+          equals = end;
+        }
+      }
+      if (equals > start) {
+        String name = decode(query, start, equals);
+        if (usedNames == null || usedNames.contains(name)) {
+          String value = decode(query, equals + 1, end).trim();
+          if (!value.isEmpty()) {
+            putQueryValue(parameters, name, value);
+          }
+        }
+      }
+      start = end + 1;
+    }
+  }
+
+  private static String decode(String query, int start, int end) {
+    for (int i = start; i < end; i++) {
+      char c = query.charAt(i);
+      if (c == '%' || c == '+') {
+        return QueryStringDecoder.decodeComponent(
+            query.substring(start, end), StandardCharsets.UTF_8);
+      }
+    }
+    return query.substring(start, end);
+  }
+
+  private void putQueryValue(ObjectNode parameters, String name, String value) {
+    JsonNode node = typed(name, value);
+    JsonNode existing = parameters.get(name);
+    if (existing == null) {
+      if (arrayNames.contains(name)) {
+        parameters.putArray(name).add(node);
+      } else {
+        parameters.set(name, node);
+      }
+    } else if (existing.isArray()) {
+      ((ArrayNode) existing).add(node);
+    } else {
+      parameters.putArray(name).add(existing).add(node);
+    }
+  }
+
+  /** @return the node of the declared type, or the text itself if it is not of that type */
+  private JsonNode typed(String name, String text) {
+    ValueType valueType = valueTypes.get(name);
+    if (valueType == null) {
+      return nodeFactory.textNode(text);
+    }
+    switch (valueType) {
+      case INTEGER:
+      case NUMBER:
+        Long longValue = Longs.tryParse(text);
+        if (longValue != null) {
+          long l = longValue;
+          return l == (int) l ? nodeFactory.numberNode((int) l) : nodeFactory.numberNode(l);
+        }
+        if (valueType == ValueType.NUMBER) {
+          try {
+            BigDecimal decimal = new BigDecimal(text);
+            return objectMapper.isEnabled(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS)
+                ? nodeFactory.numberNode(decimal)
+                : nodeFactory.numberNode(decimal.doubleValue());
+          } catch (NumberFormatException e) {
+            // not a number, left to the validation
+          }
+        }
+        return nodeFactory.textNode(text);
+      case BOOLEAN:
+        if ("true".equals(text) || "false".equals(text)) {
+          return nodeFactory.booleanNode(Boolean.parseBoolean(text));
+        }
+        return nodeFactory.textNode(text);
+      default:
+        return nodeFactory.textNode(text);
+    }
+  }
+
+  /** Copies the used fields of a json object, e.g. an item of a batch request. */
+  void putFields(ObjectNode parameters, ObjectNode object) {
+    if (usedNames == null) {
+      parameters.setAll(object);
+      return;
+    }
+    Iterator<Map.Entry<String, JsonNode>> fields = object.fields();
+    while (fields.hasNext()) {
+      Map.Entry<String, JsonNode> field = fields.next();
+      if (usedNames.contains(field.getKey())) {
+        parameters.set(field.getKey(), field.getValue());
+      }
+    }
+  }
+
+  private enum ValueType {
+    INTEGER,
+    NUMBER,
+    BOOLEAN;
+
+    static ValueType of(String type) {
+      if (type == null) {
+        return null;
+      }
+      switch (type) {
+        case "integer":
+          return INTEGER;
+        case "number":
+          return NUMBER;
+        case "boolean":
+          return BOOLEAN;
+        default:
+          return null;
+      }
+    }
+  }
+}
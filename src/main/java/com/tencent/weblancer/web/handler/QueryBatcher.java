@@ -0,0 +1,449 @@
+package com.tencent.weblancer.web.handler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.xml.XmlEscapers;
+import com.tencent.weblancer.web.conf.BatchWindowDefinition;
+import lombok.extern.slf4j.Slf4j;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * DataLoader style micro-batching of a keyed lookup. Requests whose parameters differ only in
+ * {@link BatchWindowDefinition#getKeyParameter()} join the same window, which is queried once
+ * when it is full or {@link BatchWindowDefinition#getWindowMillis()} after it is opened. The
+ * query is a companion statement whose {@code column = #{key}} is rewritten as:
+ *
+ * <pre>
+ * column in (#{key1}, #{key2}, ...)
+ * </pre>
+ *
+ * and every request gets the rows whose key column equals its key, compared as numbers if the key
+ * column is a number, or else as text. The database compares text by the collation of the column,
+ * which may ignore case or trailing spaces, so a key without a row of exactly its text is queried
+ * again on its own.
+ *
+ * @author fishzhao
+ * @since 2021-03-15
+ */
+@Slf4j
+public final class QueryBatcher {
+
+  public static final String STMT_ID_SUFFIX = "-window";
+
+  private static final String KEYS_KEY = "_windowKeys";
+  private static final String KEY_ITEM = "_windowKey";
+  // the rows of one key must not depend on the other keys
+  private static final Pattern ROW_LIMIT_PATTERN =
+      Pattern.compile("\\b(limit|offset|fetch)\\b", Pattern.CASE_INSENSITIVE);
+  private static final Pattern SELECT_PATTERN =
+      Pattern.compile("\\bselect\\b", Pattern.CASE_INSENSITIVE);
+  private static final Pattern TAG_PATTERN = Pattern.compile("<[^>]*>");
+  // label of an item of the select list, i.e. its alias or its last identifier
+  private static final Pattern LABEL_PATTERN =
+      Pattern.compile("([\\w$]+|`[^`]+`|\"[^\"]+\")\\s*$");
+  private static final Pattern AGGREGATE_PATTERN =
+      Pattern.compile(
+          "\\b(count|sum|avg|min|max|group_concat|string_agg|array_agg|listagg|json_arrayagg"
+              + "|json_objectagg|bit_and|bit_or|bit_xor|bool_and|bool_or|stddev\\w*|variance"
+              + "|var_pop|var_samp)\\s*\\(",
+          Pattern.CASE_INSENSITIVE);
+  private static final Pattern WINDOW_FUNCTION_PATTERN =
+      Pattern.compile("\\bover\\s*\\(", Pattern.CASE_INSENSITIVE);
+  private static final Pattern GROUP_BY_PATTERN =
+      Pattern.compile(
+          "\\bgroup\\s+by\\b(.*?)(\\b(having|order|limit|union|window)\\b|$)",
+          Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+  // 只负责关闭窗口，查询本身仍在各自的执行器上
+  private static final ScheduledExecutorService TIMER =
+      Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder()
+              .setNameFormat("web-lancer-batch-window-%d")
+              .setDaemon(true)
+              .build());
+
+  private final BatchWindowDefinition definition;
+  private final String stmtId;
+  private final ObjectMapper objectMapper;
+  private final Function<ObjectNode, CompletableFuture<ArrayNode>> loader;
+  private final ConcurrentMap<QueryKey, Window> windows = new ConcurrentHashMap<>();
+
+  /** @param loader queries the rows of the {@link #STMT_ID_SUFFIX} statement */
+  QueryBatcher(
+      BatchWindowDefinition definition,
+      String stmtId,
+      ObjectMapper objectMapper,
+      Function<ObjectNode, CompletableFuture<ArrayNode>> loader) {
+    definition.validate();
+    this.definition = definition;
+    this.stmtId = stmtId;
+    this.objectMapper = objectMapper;
+    this.loader = loader;
+  }
+
+  /**
+   * @return the mybatis script of {@code script} with its only {@code column = #{keyParameter}}
+   *     rewritten as an {@code in} of all keys of a window
+   * @throws IllegalArgumentException if the script is not a lookup of a single key, or the rows
+   *     of a key may depend on the other keys, e.g. the key column is not selected or rows of
+   *     different keys are aggregated together
+   */
+  public static String rewriteScript(String script, BatchWindowDefinition definition) {
+    String inner;
+    if (script.startsWith("<script>") && script.endsWith("</script>")) {
+      inner = script.substring("<script>".length(), script.length() - "</script>".length());
+    } else {
+      inner = XmlEscapers.xmlContentEscaper().escape(script);
+    }
+    String key = Pattern.quote(definition.getKeyParameter());
+    Matcher usage = Pattern.compile("#\\{\\s*" + key + "\\s*[,}]").matcher(inner);
+    int usageCount = 0;
+    while (usage.find()) {
+      usageCount++;
+    }
+    Matcher lookup =
+        Pattern.compile("([\\w.`\"]+)\\s*=\\s*#\\{\\s*" + key + "\\s*(,[^}]*)?}").matcher(inner);
+    Preconditions.checkArgument(
+        usageCount == 1 && lookup.find(),
+        "batchWindow requires exactly one `column = #{%s}` and no other use of `%s` in the sql",
+        definition.getKeyParameter(),
+        definition.getKeyParameter());
+    Preconditions.checkArgument(
+        !ROW_LIMIT_PATTERN.matcher(inner).find(),
+        "batchWindow can not be used with a sql limiting its rows");
+    checkSelectList(inner, definition.getKeyColumn());
+    String options = lookup.group(2) == null ? "" : lookup.group(2);
+    String in =
+        lookup.group(1)
+            + " in <foreach collection=\""
+            + KEYS_KEY
+            + "\" item=\""
+            + KEY_ITEM
+            + "\" open=\"(\" separator=\", \" close=\")\">#{"
+            + KEY_ITEM
+            + options
+            + "}</foreach>";
+    return "<script>"
+        + inner.substring(0, lookup.start())
+        + in
+        + inner.substring(lookup.end())
+        + "</script>";
+  }
+
+  /**
+   * Checks the top level select list selects the key column, and aggregates rows only by groups
+   * of the key column, so that the rows of a key are split back to it.
+   */
+  private static void checkSelectList(String inner, String keyColumn) {
+    String sql = TAG_PATTERN.matcher(inner).replaceAll(" ");
+    Matcher select = SELECT_PATTERN.matcher(sql);
+    Preconditions.checkArgument(select.find(), "batchWindow requires a select sql");
+    List<String> items = new ArrayList<>();
+    // the select list without what is in parentheses, e.g. arguments and subqueries
+    StringBuilder topLevel = new StringBuilder();
+    int depth = 0;
+    int itemStart = select.end();
+    int end = sql.length();
+    for (int i = select.end(); i < sql.length() && end == sql.length(); i++) {
+      char c = sql.charAt(i);
+      if (c == '\'') {
+        int close = sql.indexOf('\'', i + 1);
+        i = close < 0 ? sql.length() : close;
+        continue;
+      }
+      if (c == ')') {
+        depth--;
+      }
+      if (depth == 0) {
+        if (c == ',') {
+          items.add(sql.substring(itemStart, i));
+          itemStart = i + 1;
+        } else if (isWordAt(sql, i, "from")) {
+          end = i;
+        }
+        topLevel.append(c);
+      }
+      if (c == '(') {
+        depth++;
+      }
+    }
+    items.add(sql.substring(itemStart, end));
+    boolean selected = false;
+    for (String item : items) {
+      item = item.trim();
+      Matcher label = LABEL_PATTERN.matcher(item);
+      if (item.endsWith("*")
+          || label.find() && label.group(1).replaceAll("[`\"]", "").equalsIgnoreCase(keyColumn)) {
+        selected = true;
+        break;
+      }
+    }
+    Preconditions.checkArgument(
+        selected, "batchWindow keyColumn `%s` is not selected by the sql", keyColumn);
+    Preconditions.checkArgument(
+        !WINDOW_FUNCTION_PATTERN.matcher(topLevel).find(),
+        "batchWindow can not be used with a sql of window functions");
+    if (AGGREGATE_PATTERN.matcher(topLevel).find()) {
+      Matcher groupBy = GROUP_BY_PATTERN.matcher(sql.substring(end));
+      Pattern keyReference =
+          Pattern.compile(
+              "(^|[^\\w$])[`\"]?" + Pattern.quote(keyColumn) + "[`\"]?($|[^\\w$])",
+              Pattern.CASE_INSENSITIVE);
+      Preconditions.checkArgument(
+          groupBy.find() && keyReference.matcher(groupBy.group(1)).find(),
+          "batchWindow can not be used with a sql aggregating rows without `group by %s`",
+          keyColumn);
+    }
+  }
+
+  private static boolean isWordAt(String sql, int index, String word) {
+    int end = index + word.length();
+    return sql.regionMatches(true, index, word, 0, word.length())
+        && (index == 0 || !Character.isLetterOrDigit(sql.charAt(index - 1)))
+        && (end == sql.length() || !Character.isLetterOrDigit(sql.charAt(end)));
+  }
+
+  /**
+   * @return rows of the key of {@code params}, or null if its key is not a scalar and it can not
+   *     be batched
+   */
+  CompletableFuture<ArrayNode> get(ObjectNode params) {
+    JsonNode key = params.get(definition.getKeyParameter());
+    if (key == null || !key.isValueNode() || key.isNull()) {
+      return null;
+    }
+    ObjectNode others = params.deepCopy();
+    others.remove(definition.getKeyParameter());
+    QueryKey windowKey = QueryKey.of(stmtId, others, objectMapper);
+    while (true) {
+      Window window = windows.computeIfAbsent(windowKey, k -> new Window(k, params));
+      CompletableFuture<ArrayNode> future = window.add(key);
+      if (future != null) {
+        return future;
+      }
+      // the window is closed just now, its removal is racing with us
+      windows.remove(windowKey, window);
+    }
+  }
+
+  int openWindowCount() {
+    return windows.size();
+  }
+
+  private final class Window {
+
+    private final QueryKey windowKey;
+    // parameters of the first request, the key parameter keeps `<if test>` on it the same
+    private final ObjectNode params;
+    private final ArrayNode keys;
+    private final Map<String, List<CompletableFuture<ArrayNode>>> waiters = new LinkedHashMap<>();
+    private ScheduledFuture<?> timer;
+    private boolean closed;
+
+    Window(QueryKey windowKey, ObjectNode params) {
+      this.windowKey = windowKey;
+      this.params = params;
+      this.keys = objectMapper.createArrayNode();
+    }
+
+    /** @return null if the window is closed */
+    CompletableFuture<ArrayNode> add(JsonNode key) {
+      CompletableFuture<ArrayNode> future = new CompletableFuture<>();
+      boolean full;
+      synchronized (this) {
+        if (closed) {
+          return null;
+        }
+        waiters
+            .computeIfAbsent(
+                key.asText(),
+                k -> {
+                  keys.add(key);
+                  return new ArrayList<>(1);
+                })
+            .add(future);
+        full = waiters.size() >= definition.getMaxKeys();
+        if (full) {
+          closed = true;
+        } else if (timer == null) {
+          timer = TIMER.schedule(this::expire, definition.getWindowMillis(), TimeUnit.MILLISECONDS);
+        }
+      }
+      if (full) {
+        if (timer != null) {
+          timer.cancel(false);
+        }
+        dispatch();
+      }
+      return future;
+    }
+
+    private void expire() {
+      synchronized (this) {
+        if (closed) {
+          return;
+        }
+        closed = true;
+      }
+      dispatch();
+    }
+
+    private void dispatch() {
+      windows.remove(windowKey, this);
+      log.debug("Window of [{}] keys of [{}] is closed.", waiters.size(), stmtId);
+      load(keys)
+          .whenComplete(
+              (arrayNode, e) -> {
+                if (e != null) {
+                  waiters.keySet().forEach(key -> complete(key, null, e));
+                  return;
+                }
+                Map<String, ArrayNode> rowsByKey;
+                try {
+                  rowsByKey = split(arrayNode, waiters.keySet());
+                } catch (RuntimeException splitException) {
+                  waiters.keySet().forEach(key -> complete(key, null, splitException));
+                  return;
+                }
+                boolean textKeys = hasTextKey(arrayNode);
+                for (JsonNode key : keys) {
+                  ArrayNode keyRows = rowsByKey.get(key.asText());
+                  if (keyRows == null && textKeys) {
+                    // e.g. the row of 'abc' is returned for 'ABC' by a case-insensitive collation
+                    load(objectMapper.createArrayNode().add(key))
+                        .whenComplete(
+                            (rows, reloadException) ->
+                                complete(key.asText(), rows, reloadException));
+                  } else {
+                    complete(
+                        key.asText(),
+                        keyRows != null ? keyRows : objectMapper.createArrayNode(),
+                        null);
+                  }
+                }
+              });
+    }
+
+    private CompletableFuture<ArrayNode> load(ArrayNode windowKeys) {
+      ObjectNode windowParams = params.deepCopy();
+      windowParams.set(KEYS_KEY, windowKeys);
+      try {
+        return loader.apply(windowParams);
+      } catch (RuntimeException e) {
+        CompletableFuture<ArrayNode> rows = new CompletableFuture<>();
+        rows.completeExceptionally(e);
+        return rows;
+      }
+    }
+
+    private void complete(String key, ArrayNode rows, Throwable e) {
+      for (CompletableFuture<ArrayNode> waiter : waiters.get(key)) {
+        if (e != null) {
+          waiter.completeExceptionally(e);
+        } else {
+          waiter.complete(rows);
+        }
+      }
+    }
+  }
+
+  private Map<String, ArrayNode> split(ArrayNode arrayNode, Set<String> keys) {
+    Map<String, ArrayNode> rowsByKey = new HashMap<>();
+    // keys of the requests by their value as a number, built once a key column is a number
+    Map<BigDecimal, List<String>> keysByNumber = null;
+    for (JsonNode row : arrayNode) {
+      // the result of a single column sql is its value, which must be the key column
+      JsonNode key = row.isObject() ? keyOf((ObjectNode) row) : row;
+      List<String> rowKeys;
+      if (key == null) {
+        rowKeys = Collections.emptyList();
+      } else if (key.isNumber()) {
+        // a decimal key 1 is looked up by a request of 1.0 as well
+        if (keysByNumber == null) {
+          keysByNumber = keysByNumber(keys);
+        }
+        rowKeys =
+            keysByNumber.getOrDefault(
+                key.decimalValue().stripTrailingZeros(), Collections.emptyList());
+      } else {
+        rowKeys =
+            keys.contains(key.asText())
+                ? Collections.singletonList(key.asText())
+                : Collections.emptyList();
+      }
+      // a text key may not equal the requested one exactly, see hasTextKey
+      Preconditions.checkState(
+          key != null && (row.isObject() || !rowKeys.isEmpty() || !key.isNumber()),
+          "batchWindow key column `%s` is not in the result",
+          definition.getKeyColumn());
+      for (String rowKey : rowKeys) {
+        rowsByKey.computeIfAbsent(rowKey, k -> objectMapper.createArrayNode()).add(row);
+      }
+    }
+    return rowsByKey;
+  }
+
+  /** @return true if a row has a key column which is not a number, i.e. compared as text */
+  private boolean hasTextKey(ArrayNode arrayNode) {
+    for (JsonNode row : arrayNode) {
+      JsonNode key = row.isObject() ? keyOf((ObjectNode) row) : row;
+      if (key != null && !key.isNumber()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static Map<BigDecimal, List<String>> keysByNumber(Set<String> keys) {
+    Map<BigDecimal, List<String>> keysByNumber = new HashMap<>();
+    for (String key : keys) {
+      BigDecimal number;
+      try {
+        number = new BigDecimal(key.trim()).stripTrailingZeros();
+      } catch (NumberFormatException e) {
+        continue;
+      }
+      keysByNumber.computeIfAbsent(number, k -> new ArrayList<>(1)).add(key);
+    }
+    return keysByNumber;
+  }
+
+  private JsonNode keyOf(ObjectNode row) {
+    JsonNode key = row.get(definition.getKeyColumn());
+    if (key != null) {
+      return key;
+    }
+    // labels of unquoted columns are upper case in some databases
+    Iterator<Map.Entry<String, JsonNode>> fields = row.fields();
+    while (fields.hasNext()) {
+      Map.Entry<String, JsonNode> field = fields.next();
+      if (field.getKey().equalsIgnoreCase(definition.getKeyColumn())) {
+        return field.getValue();
+      }
+    }
+    return null;
+  }
+}
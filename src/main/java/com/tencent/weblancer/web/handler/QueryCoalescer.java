@@ -0,0 +1,56 @@
+package com.tencent.weblancer.web.handler;
+
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Single-flight execution of identical queries: while a query is in flight, every other request
+ * with an equal {@link QueryKey} waits for the same {@link QueryResponse} instead of taking
+ * another connection.
+ *
+ * @author fishzhao
+ * @since 2021-03-03
+ */
+final class QueryCoalescer {
+
+  private final ConcurrentMap<QueryKey, CompletableFuture<QueryResponse>> inFlight =
+      new ConcurrentHashMap<>();
+  private final Function<QueryKey, CompletableFuture<QueryResponse>> loader;
+
+  QueryCoalescer(Function<QueryKey, CompletableFuture<QueryResponse>> loader) {
+    this.loader = loader;
+  }
+
+  CompletableFuture<QueryResponse> get(QueryKey key) {
+    CompletableFuture<QueryResponse> created = new CompletableFuture<>();
+    CompletableFuture<QueryResponse> existing = inFlight.putIfAbsent(key, created);
+    if (existing != null) {
+      return existing;
+    }
+    try {
+      loader
+          .apply(key)
+          .whenComplete(
+              (response, e) -> {
+                // remove before completing, so late comers will start a new query
+                inFlight.remove(key, created);
+                if (e != null) {
+                  created.completeExceptionally(e);
+                } else {
+                  created.complete(response);
+                }
+              });
+    } catch (RuntimeException e) {
+      inFlight.remove(key, created);
+      created.completeExceptionally(e);
+    }
+    return created;
+  }
+
+  int inFlightCount() {
+    return inFlight.size();
+  }
+}
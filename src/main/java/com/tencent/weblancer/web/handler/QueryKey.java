@@ -0,0 +1,125 @@
+package com.tencent.weblancer.web.handler;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.tencent.weblancer.web.conf.ResultLayout;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Identity of a query: the statement id, the layout of its result plus the canonical form of the
+ * resolved parameters, two parameter trees which differ only in field order produce equal keys.
+ *
+ * @author fishzhao
+ * @since 2021-03-02
+ */
+final class QueryKey {
+
+  private final String stmtId;
+  private final ResultLayout layout;
+  private final String canonicalParams;
+  private final ObjectNode params;
+  private final int hash;
+
+  private QueryKey(
+      String stmtId, ResultLayout layout, String canonicalParams, ObjectNode params) {
+    this.stmtId = stmtId;
+    this.layout = layout;
+    this.canonicalParams = canonicalParams;
+    this.params = params;
+    this.hash = 31 * (31 * stmtId.hashCode() + layout.hashCode()) + canonicalParams.hashCode();
+  }
+
+  static QueryKey of(String stmtId, ObjectNode params, ObjectMapper objectMapper) {
+    return of(stmtId, ResultLayout.ROWS, params, objectMapper);
+  }
+
+  static QueryKey of(
+      String stmtId, ResultLayout layout, ObjectNode params, ObjectMapper objectMapper) {
+    StringWriter writer = new StringWriter(64);
+    try (JsonGenerator generator = objectMapper.getFactory().createGenerator(writer)) {
+      writeCanonical(generator, params);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return new QueryKey(stmtId, layout, writer.toString(), params);
+  }
+
+  private static void writeCanonical(JsonGenerator generator, JsonNode node) throws IOException {
+    if (node.isObject()) {
+      List<String> fieldNames = new ArrayList<>(node.size());
+      Iterator<String> iterator = node.fieldNames();
+      while (iterator.hasNext()) {
+        fieldNames.add(iterator.next());
+      }
+      Collections.sort(fieldNames);
+      generator.writeStartObject();
+      for (String fieldName : fieldNames) {
+        generator.writeFieldName(fieldName);
+        writeCanonical(generator, node.get(fieldName));
+      }
+      generator.writeEndObject();
+      return;
+    }
+    if (node.isArray()) {
+      generator.writeStartArray();
+      for (JsonNode element : node) {
+        writeCanonical(generator, element);
+      }
+      generator.writeEndArray();
+      return;
+    }
+    generator.writeTree(node);
+  }
+
+  String getStmtId() {
+    return stmtId;
+  }
+
+  ResultLayout getLayout() {
+    return layout;
+  }
+
+  /** @return the parameters this key was built from, they should never be modified. */
+  ObjectNode getParams() {
+    return params;
+  }
+
+  /** @return approximate heap size of this key in bytes. */
+  int weight() {
+    return 2 * (stmtId.length() + canonicalParams.length());
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof QueryKey)) {
+      return false;
+    }
+    QueryKey that = (QueryKey) o;
+    return hash == that.hash
+        && stmtId.equals(that.stmtId)
+        && layout == that.layout
+        && canonicalParams.equals(that.canonicalParams);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return stmtId + canonicalParams;
+  }
+}
@@ -0,0 +1,102 @@
+package com.tencent.weblancer.web.handler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.DefaultByteBufHolder;
+import io.netty.buffer.Unpooled;
+
+/**
+ * A serialized response and its result, what {@link QueryResultCache} and {@link QueryCoalescer}
+ * share between requests. The content of a response to a single request is a pooled buffer, which
+ * is released once it is written, see {@link ResponseBuffers}. A cached response also keeps its
+ * content precompressed, so it is compressed once and sent many times.
+ *
+ * @author fishzhao
+ * @since 2021-03-12
+ */
+final class QueryResponse extends DefaultByteBufHolder {
+
+  private final QueryResult result;
+  private final ResponseFormat format;
+  // indexed by ContentCoding#ordinal, null if not precompressed
+  private final ByteBuf[] compressed;
+
+  QueryResponse(QueryResult result, ByteBuf content, ResponseFormat format) {
+    this(result, content, format, null);
+  }
+
+  private QueryResponse(
+      QueryResult result, ByteBuf content, ResponseFormat format, ByteBuf[] compressed) {
+    super(content);
+    this.result = result;
+    this.format = format;
+    this.compressed = compressed;
+  }
+
+  QueryResult getResult() {
+    return result;
+  }
+
+  ResponseFormat getFormat() {
+    return format;
+  }
+
+  /** @return the content precompressed in the coding, null if it is not */
+  ByteBuf getCompressed(ContentCoding coding) {
+    return compressed == null ? null : compressed[coding.ordinal()];
+  }
+
+  /** @return bytes of the content and its precompressed copies */
+  int weight() {
+    int weight = content().readableBytes();
+    if (compressed != null) {
+      for (ByteBuf buf : compressed) {
+        weight += buf == null ? 0 : buf.readableBytes();
+      }
+    }
+    return weight;
+  }
+
+  QueryResponse toShared() {
+    return toShared(null);
+  }
+
+  /**
+   * Copies the content to the heap with exactly its size, which is never released, so the copy can
+   * be kept and written by many requests. This response is released.
+   *
+   * @param compressor null if the content is not precompressed. Or else the content is also
+   *     compressed in the gzip coding and in the zstd coding if available, which nearly all clients
+   *     accept, if it is worth compressing. A deflate client is still answered by compressing it.
+   */
+  QueryResponse toShared(ResponseCompressor compressor) {
+    try {
+      ByteBuf[] sharedCompressed = null;
+      if (compressor != null && compressor.worthCompressing(content().readableBytes())) {
+        sharedCompressed = new ByteBuf[ContentCoding.values().length];
+        for (ContentCoding coding : new ContentCoding[] {ContentCoding.ZSTD, ContentCoding.GZIP}) {
+          if (coding.isAvailable()) {
+            ByteBuf buf = compressor.compress(content(), coding);
+            try {
+              sharedCompressed[coding.ordinal()] = sharedCopy(buf);
+            } finally {
+              buf.release();
+            }
+          }
+        }
+      }
+      return new QueryResponse(result, sharedCopy(content()), format, sharedCompressed);
+    } finally {
+      release();
+    }
+  }
+
+  private static ByteBuf sharedCopy(ByteBuf buf) {
+    return Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(ByteBufUtil.getBytes(buf)));
+  }
+
+  @Override
+  public QueryResponse replace(ByteBuf content) {
+    return new QueryResponse(result, content, format, compressed);
+  }
+}
@@ -8,13 +8,24 @@ public enum QueryResult {
   PARAMETER_RESOLVE_FAIL(1001, "parameter resolve failed!"),
   PARAMETER_VALIDATION_FAIL(1002, "parameter validation failed!"),
   MULTIPLE_RESULT_OBJECTS(1003, "multiply results found for single value query!"),
+  QUERY_REJECTED(1004, "too many pending queries, request rejected!"),
+  // 并发超过自适应限制时立即拒绝，而不是排队等到客户端超时
+  OVERLOADED(1005, "server overloaded, request shed!", 503),
+  QUERY_TIMEOUT(1006, "query timeout!", 504),
+  BODY_TOO_LARGE(1007, "request body too large!", 413),
   UNKNOWN_EXCEPTION(9999, "unknown exception!");
   public final int code;
   public final String msg;
+  public final int httpStatus;
 
   QueryResult(int code, String msg) {
+    this(code, msg, 200);
+  }
+
+  QueryResult(int code, String msg, int httpStatus) {
     this.code = code;
     this.msg = msg;
+    this.httpStatus = httpStatus;
   }
 
   ObjectNode createResultObject(ObjectMapper objectMapper) {
@@ -0,0 +1,46 @@
+package com.tencent.weblancer.web.handler;
+
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.tencent.weblancer.web.conf.CacheDefinition;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Caches the serialized response of a query, so a hit skips both the DB and the serialization, and
+ * the compression if it is precompressed.
+ * Failed loads are never cached.
+ *
+ * @author fishzhao
+ * @since 2021-03-02
+ */
+final class QueryResultCache {
+
+  private final AsyncLoadingCache<QueryKey, QueryResponse> cache;
+
+  QueryResultCache(
+      CacheDefinition definition, Function<QueryKey, CompletableFuture<QueryResponse>> loader) {
+    definition.validate();
+    Caffeine<QueryKey, QueryResponse> builder =
+        Caffeine.newBuilder()
+            .expireAfterWrite(definition.getTtlMillis(), TimeUnit.MILLISECONDS)
+            .maximumWeight(definition.getMaxWeightBytes())
+            .weigher((QueryKey key, QueryResponse value) -> key.weight() + value.weight())
+            .recordStats();
+    if (definition.refreshEnabled()) {
+      builder.refreshAfterWrite(definition.getRefreshAfterWriteMillis(), TimeUnit.MILLISECONDS);
+    }
+    this.cache = builder.buildAsync((key, executor) -> loader.apply(key));
+  }
+
+  CompletableFuture<QueryResponse> get(QueryKey key) {
+    return cache.get(key);
+  }
+
+  CacheStats stats() {
+    return cache.synchronous().stats();
+  }
+}
@@ -0,0 +1,44 @@
+package com.tencent.weblancer.web.handler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+
+/**
+ * Output buffers of the responses of one interface, allocated from the pooled (direct if possible)
+ * memory of netty and pre-sized by the sizes of its recent responses. A response is serialized
+ * into such a buffer once and handed to the connection without copying, the buffer must be
+ * released once it is written.
+ *
+ * @author fishzhao
+ * @since 2021-03-23
+ */
+final class ResponseBuffers {
+
+  static final ByteBufAllocator ALLOCATOR = PooledByteBufAllocator.DEFAULT;
+
+  private static final int MIN_CAPACITY = 256;
+  // 更大的响应由ByteBuf自行扩容
+  private static final int MAX_INITIAL_CAPACITY = 1024 * 1024;
+  // the hint moves down by 1/8 of the difference per smaller response
+  private static final int DECAY_SHIFT = 3;
+
+  // a decaying maximum of the recent sizes, races between threads only make it less accurate
+  private volatile int sizeHint = MIN_CAPACITY;
+
+  /** @return an empty buffer with the capacity of the size hint */
+  ByteBuf allocate() {
+    return ALLOCATOR.ioBuffer(sizeHint);
+  }
+
+  /** Feeds the size hint with the size of a written response. */
+  void record(int size) {
+    int hint = sizeHint;
+    int next = size >= hint ? size : hint - ((hint - size) >> DECAY_SHIFT);
+    sizeHint = Math.max(MIN_CAPACITY, Math.min(MAX_INITIAL_CAPACITY, next));
+  }
+
+  int getSizeHint() {
+    return sizeHint;
+  }
+}
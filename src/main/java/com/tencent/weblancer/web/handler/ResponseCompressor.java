@@ -0,0 +1,172 @@
+package com.tencent.weblancer.web.handler;
+
+import com.tencent.weblancer.web.conf.CompressionDefinition;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.FastThreadLocal;
+import io.vertx.ext.web.RoutingContext;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses the responses of one interface by its {@link CompressionDefinition}. Gzip and deflate
+ * share the raw deflate stream of a {@link Deflater} reused by the thread, only their header and
+ * trailer differ.
+ *
+ * @author fishzhao
+ * @since 2021-03-25
+ */
+final class ResponseCompressor {
+
+  private static final int CHUNK_SIZE = 8 * 1024;
+  // 创建Deflater需要分配数百KB的native内存，每个线程按压缩级别复用
+  private static final FastThreadLocal<Deflater[]> DEFLATERS =
+      new FastThreadLocal<Deflater[]>() {
+        @Override
+        protected Deflater[] initialValue() {
+          return new Deflater[Deflater.BEST_COMPRESSION + 1];
+        }
+      };
+  // input chunks of direct buffers and output chunks of the deflater
+  private static final FastThreadLocal<byte[][]> CHUNKS =
+      new FastThreadLocal<byte[][]>() {
+        @Override
+        protected byte[][] initialValue() {
+          return new byte[][] {new byte[CHUNK_SIZE], new byte[CHUNK_SIZE]};
+        }
+      };
+  // no file name and no modification time
+  private static final byte[] GZIP_HEADER = {
+    0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0
+  };
+  private static final int ZLIB_CMF = 0x78;
+
+  private final int minBytes;
+  private final int level;
+  private final int zstdLevel;
+
+  ResponseCompressor(CompressionDefinition definition) {
+    definition.validate();
+    this.minBytes = definition.getMinBytes();
+    this.level = definition.getLevel();
+    this.zstdLevel = definition.getZstdLevel();
+  }
+
+  /** @return the coding accepted by the client, null if none */
+  ContentCoding negotiate(RoutingContext routingContext) {
+    return ContentCoding.negotiate(routingContext.parsedHeaders().acceptEncoding());
+  }
+
+  boolean worthCompressing(int length) {
+    return length >= minBytes;
+  }
+
+  /** @return a pooled buffer of the content compressed in the coding, the content is not changed */
+  ByteBuf compress(ByteBuf content, ContentCoding coding) {
+    return coding == ContentCoding.ZSTD
+        ? ZstdCodec.compress(content, zstdLevel)
+        : deflate(content, coding == ContentCoding.GZIP);
+  }
+
+  /**
+   * @return a stream compressing into {@code out} in the coding, which is closed together with it
+   */
+  OutputStream compress(OutputStream out, ContentCoding coding) throws IOException {
+    switch (coding) {
+      case ZSTD:
+        return ZstdCodec.outputStream(out, zstdLevel);
+      case GZIP:
+        return new GZIPOutputStream(out, CHUNK_SIZE) {
+          {
+            def.setLevel(level);
+          }
+        };
+      default:
+        return new DeflaterOutputStream(out, new Deflater(level), CHUNK_SIZE) {
+          @Override
+          public void close() throws IOException {
+            try {
+              super.close();
+            } finally {
+              // a deflater given to the stream is not ended by it
+              def.end();
+            }
+          }
+        };
+    }
+  }
+
+  private ByteBuf deflate(ByteBuf content, boolean gzip) {
+    Deflater deflater = deflater();
+    Checksum checksum = gzip ? new CRC32() : new Adler32();
+    byte[][] chunks = CHUNKS.get();
+    byte[] output = chunks[1];
+    int length = content.readableBytes();
+    // json is usually compressed to less than 1/4
+    ByteBuf compressed = ResponseBuffers.ALLOCATOR.ioBuffer(Math.max(64, length >> 2));
+    try {
+      if (gzip) {
+        compressed.writeBytes(GZIP_HEADER);
+      } else {
+        compressed.writeByte(ZLIB_CMF).writeByte(zlibFlags());
+      }
+      if (content.hasArray()) {
+        int offset = content.arrayOffset() + content.readerIndex();
+        checksum.update(content.array(), offset, length);
+        deflater.setInput(content.array(), offset, length);
+        while (!deflater.needsInput()) {
+          compressed.writeBytes(output, 0, deflater.deflate(output));
+        }
+      } else {
+        byte[] input = chunks[0];
+        for (int index = content.readerIndex(); index < content.writerIndex(); ) {
+          int chunkLength = Math.min(CHUNK_SIZE, content.writerIndex() - index);
+          content.getBytes(index, input, 0, chunkLength);
+          checksum.update(input, 0, chunkLength);
+          deflater.setInput(input, 0, chunkLength);
+          while (!deflater.needsInput()) {
+            compressed.writeBytes(output, 0, deflater.deflate(output));
+          }
+          index += chunkLength;
+        }
+      }
+      deflater.finish();
+      while (!deflater.finished()) {
+        compressed.writeBytes(output, 0, deflater.deflate(output));
+      }
+      if (gzip) {
+        compressed.writeIntLE((int) checksum.getValue()).writeIntLE(length);
+      } else {
+        compressed.writeInt((int) checksum.getValue());
+      }
+      return compressed;
+    } catch (RuntimeException e) {
+      compressed.release();
+      throw e;
+    } finally {
+      deflater.reset();
+    }
+  }
+
+  private Deflater deflater() {
+    Deflater[] deflaters = DEFLATERS.get();
+    if (deflaters[level] == null) {
+      // raw deflate, the header and the trailer are written by deflate()
+      deflaters[level] = new Deflater(level, true);
+    }
+    return deflaters[level];
+  }
+
+  /** @return the FLG byte of the zlib header, which tells the level and checks the CMF byte */
+  private int zlibFlags() {
+    int levelFlag = level == 1 ? 0 : level < 6 ? 1 : level == 6 ? 2 : 3;
+    int flags = levelFlag << 6;
+    return flags + (31 - (ZLIB_CMF * 256 + flags) % 31) % 31;
+  }
+}
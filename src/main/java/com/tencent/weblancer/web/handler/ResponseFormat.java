@@ -0,0 +1,147 @@
+package com.tencent.weblancer.web.handler;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.JsonGeneratorDelegate;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.vertx.ext.web.MIMEHeader;
+import io.vertx.ext.web.RoutingContext;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+
+/**
+ * Encodings of the response envelope, negotiated by the {@code Accept} header. The binary ones are
+ * meant for service-to-service callers, numbers and repeated field names of a result set are much
+ * smaller and cheaper to write than json text.
+ *
+ * @author fishzhao
+ * @since 2021-03-20
+ */
+public enum ResponseFormat {
+  // 默认格式，不认识的Accept也返回json
+  JSON("application/json;charset=utf-8", null, "application/json"),
+  SMILE("application/x-jackson-smile", new SmileMapper(), "application/x-jackson-smile"),
+  CBOR("application/cbor", new CBORMapper(), "application/cbor"),
+  MSGPACK(
+      "application/x-msgpack",
+      new ObjectMapper(new MessagePackFactory()),
+      "application/x-msgpack",
+      "application/msgpack",
+      "application/vnd.msgpack");
+
+  public final String contentType;
+  // null for json, which is written by the ObjectMapper of the handler
+  private final ObjectMapper objectMapper;
+  private final ObjectWriter writer;
+  private final String[] mediaTypes;
+
+  ResponseFormat(String contentType, ObjectMapper objectMapper, String... mediaTypes) {
+    this.contentType = contentType;
+    this.objectMapper = objectMapper;
+    this.writer = objectMapper == null ? null : objectMapper.writer();
+    this.mediaTypes = mediaTypes;
+  }
+
+  /** @return the first format acceptable by the client in order of preference, json by default */
+  static ResponseFormat negotiate(RoutingContext routingContext) {
+    for (MIMEHeader accept : routingContext.parsedHeaders().accept()) {
+      // isPermitted() of this vert.x version is inverted, q=0 means not acceptable
+      if (accept.weight() <= 0) {
+        continue;
+      }
+      if ("*".equals(accept.component()) || "*".equals(accept.subComponent())) {
+        return JSON;
+      }
+      String mediaType = accept.value();
+      for (ResponseFormat format : values()) {
+        for (String acceptable : format.mediaTypes) {
+          if (acceptable.equalsIgnoreCase(mediaType)) {
+            return format;
+          }
+        }
+      }
+    }
+    return JSON;
+  }
+
+  JsonGenerator createGenerator(ObjectMapper jsonMapper, OutputStream out) throws IOException {
+    if (this == JSON) {
+      return jsonMapper.getFactory().createGenerator(out);
+    }
+    JsonGenerator generator = objectMapper.getFactory().createGenerator(out);
+    return this == MSGPACK ? new DoubleOrStringDecimalGenerator(generator) : generator;
+  }
+
+  void write(ObjectMapper jsonMapper, JsonNode jsonNode, OutputStream out) throws IOException {
+    if (this == JSON) {
+      jsonMapper.writeValue(out, jsonNode);
+      return;
+    }
+    try (JsonGenerator generator = createGenerator(jsonMapper, out)) {
+      writer.writeValue(generator, jsonNode);
+    }
+  }
+
+  /**
+   * Re-encodes a json buffer in this format token by token, no tree is built. A fraction is copied
+   * as a double only if the double is printed as the same text, the digits of a {@code decimal}
+   * column are never lost. The indexes of {@code json} are not changed.
+   */
+  void transcode(ObjectMapper jsonMapper, ByteBuf json, OutputStream out) throws IOException {
+    if (this == JSON) {
+      json.getBytes(json.readerIndex(), out, json.readableBytes());
+      return;
+    }
+    try (InputStream in = new ByteBufInputStream(json.duplicate());
+        JsonParser parser = jsonMapper.getFactory().createParser(in);
+        JsonGenerator generator = createGenerator(jsonMapper, out)) {
+      JsonToken token;
+      while ((token = parser.nextToken()) != null) {
+        if (token == JsonToken.VALUE_NUMBER_FLOAT) {
+          String text = parser.getText();
+          double doubleValue = parser.getDoubleValue();
+          if (Double.toString(doubleValue).equals(text)) {
+            generator.writeNumber(doubleValue);
+          } else {
+            generator.writeNumber(new BigDecimal(text));
+          }
+        } else {
+          generator.copyCurrentEvent(parser);
+        }
+      }
+    }
+  }
+
+  /**
+   * MessagePack has no decimal type, a decimal is written as a double if it is exactly the double,
+   * or else as its text.
+   */
+  private static final class DoubleOrStringDecimalGenerator extends JsonGeneratorDelegate {
+
+    DoubleOrStringDecimalGenerator(JsonGenerator delegate) {
+      super(delegate, false);
+    }
+
+    @Override
+    public void writeNumber(BigDecimal value) throws IOException {
+      double doubleValue = value.doubleValue();
+      if (!Double.isInfinite(doubleValue)
+          && new BigDecimal(Double.toString(doubleValue)).compareTo(value) == 0) {
+        delegate.writeNumber(doubleValue);
+      } else {
+        delegate.writeString(value.toString());
+      }
+    }
+  }
+}
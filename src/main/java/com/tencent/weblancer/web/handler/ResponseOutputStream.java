@@ -0,0 +1,109 @@
+package com.tencent.weblancer.web.handler;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes chunked {@link Buffer}s to a {@link HttpServerResponse}, must be used on a worker thread
+ * because it blocks while the write queue of the response is full.
+ *
+ * @author fishzhao
+ * @since 2021-03-01
+ */
+final class ResponseOutputStream extends OutputStream {
+
+  private static final long DRAIN_CHECK_INTERVAL_MILLIS = 100;
+
+  private final HttpServerResponse response;
+  private final int chunkSize;
+  private Buffer chunk;
+  private boolean committed = false;
+  private long writtenBytes = 0;
+
+  ResponseOutputStream(HttpServerResponse response, int chunkSize) {
+    this.response = response;
+    this.chunkSize = chunkSize;
+    this.chunk = Buffer.buffer(chunkSize);
+  }
+
+  /** @return true if any byte has been sent to the client. */
+  boolean isCommitted() {
+    return committed;
+  }
+
+  /** @return bytes sent to the client so far. */
+  long getWrittenBytes() {
+    return writtenBytes;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    chunk.appendByte((byte) b);
+    if (chunk.length() >= chunkSize) {
+      writeChunk();
+    }
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    chunk.appendBytes(b, off, len);
+    if (chunk.length() >= chunkSize) {
+      writeChunk();
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    if (chunk.length() > 0) {
+      writeChunk();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    awaitDrain();
+    committed = true;
+    writtenBytes += chunk.length();
+    response.end(chunk);
+    chunk = null;
+  }
+
+  private void writeChunk() throws IOException {
+    awaitDrain();
+    committed = true;
+    writtenBytes += chunk.length();
+    response.write(chunk);
+    chunk = Buffer.buffer(chunkSize);
+  }
+
+  private void awaitDrain() throws IOException {
+    if (response.closed()) {
+      throw new IOException("connection closed by peer!");
+    }
+    if (!response.writeQueueFull()) {
+      return;
+    }
+    CountDownLatch latch = new CountDownLatch(1);
+    response.drainHandler(v -> latch.countDown());
+    try {
+      // the queue may have been drained before the drainHandler is set
+      while (response.writeQueueFull()
+          && !latch.await(DRAIN_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+        if (response.closed()) {
+          throw new IOException("connection closed by peer!");
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while waiting for the response to drain");
+    } finally {
+      response.drainHandler(null);
+    }
+  }
+}
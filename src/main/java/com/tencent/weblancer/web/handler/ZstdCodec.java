@@ -0,0 +1,96 @@
+package com.tencent.weblancer.web.handler;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdOutputStream;
+import com.github.luben.zstd.util.Native;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.concurrent.FastThreadLocal;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The zstd coding of zstd-jni, only touched if {@link #AVAILABLE}, i.e. its native library is
+ * loaded on this platform.
+ *
+ * @author fishzhao
+ * @since 2021-03-25
+ */
+@Slf4j
+final class ZstdCodec {
+
+  static final boolean AVAILABLE = load();
+
+  // 每个线程复用一个native上下文
+  private static final FastThreadLocal<ZstdCompressCtx> CONTEXTS =
+      new FastThreadLocal<ZstdCompressCtx>() {
+        @Override
+        protected ZstdCompressCtx initialValue() {
+          return new ZstdCompressCtx();
+        }
+      };
+
+  private ZstdCodec() {}
+
+  private static boolean load() {
+    try {
+      Native.load();
+      return true;
+    } catch (LinkageError e) {
+      log.info("zstd is not available, only gzip and deflate are offered: {}", e.toString());
+      return false;
+    }
+  }
+
+  /** @return a pooled buffer of the content in one zstd frame, the content is not changed */
+  static ByteBuf compress(ByteBuf content, int level) {
+    int length = content.readableBytes();
+    int bound = (int) Zstd.compressBound(length);
+    ZstdCompressCtx context = CONTEXTS.get().setLevel(level);
+    ByteBuf compressed;
+    int compressedLength;
+    if (!content.hasArray() && content.nioBufferCount() == 1) {
+      compressed = ResponseBuffers.ALLOCATOR.directBuffer(bound);
+      try {
+        ByteBuffer src = content.nioBuffer(content.readerIndex(), length);
+        ByteBuffer dst = compressed.nioBuffer(0, bound);
+        compressedLength =
+            context.compressDirectByteBuffer(
+                dst, dst.position(), bound, src, src.position(), length);
+      } catch (RuntimeException e) {
+        compressed.release();
+        throw e;
+      }
+    } else {
+      byte[] src;
+      int srcOffset;
+      if (content.hasArray()) {
+        src = content.array();
+        srcOffset = content.arrayOffset() + content.readerIndex();
+      } else {
+        src = ByteBufUtil.getBytes(content);
+        srcOffset = 0;
+      }
+      compressed = ResponseBuffers.ALLOCATOR.heapBuffer(bound);
+      try {
+        compressedLength =
+            context.compressByteArray(
+                compressed.array(), compressed.arrayOffset(), bound, src, srcOffset, length);
+      } catch (RuntimeException e) {
+        compressed.release();
+        throw e;
+      }
+    }
+    return compressed.writerIndex(compressedLength);
+  }
+
+  /** @return a stream compressing into {@code out}, which is closed together with it */
+  static OutputStream outputStream(OutputStream out, int level) throws IOException {
+    // the finalizer frees the native context if the stream is abandoned on failure
+    return new ZstdOutputStream(out, level);
+  }
+}
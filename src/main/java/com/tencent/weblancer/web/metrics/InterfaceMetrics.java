@@ -0,0 +1,38 @@
+package com.tencent.weblancer.web.metrics;
+
+import com.tencent.weblancer.web.handler.QueryResult;
+
+/**
+ * Records the metrics of one interface, the methods are called on the hot path, so they should
+ * neither block nor allocate.
+ *
+ * @author fishzhao
+ * @since 2021-03-12
+ */
+public interface InterfaceMetrics {
+
+  InterfaceMetrics NOOP =
+      new InterfaceMetrics() {
+        @Override
+        public void recordPhase(Phase phase, long nanos) {}
+
+        @Override
+        public void recordResult(QueryResult result) {}
+
+        @Override
+        public void recordRows(int rows) {}
+
+        @Override
+        public void recordResponseBytes(long bytes) {}
+      };
+
+  void recordPhase(Phase phase, long nanos);
+
+  /** Called once for every response. */
+  void recordResult(QueryResult result);
+
+  /** Called once for every query sent to the DB, cache hits are not counted. */
+  void recordRows(int rows);
+
+  void recordResponseBytes(long bytes);
+}
@@ -0,0 +1,76 @@
+package com.tencent.weblancer.web.metrics;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram with log-linear buckets like HdrHistogram: every power of two is split
+ * into two buckets, so the upper bounds are {@code 2^n, 1.5 * 2^n, 2^(n+1), ...} and the
+ * relative error is at most 50%. Recording is a couple of bit operations and an atomic
+ * increment, nothing is allocated.
+ *
+ * @author fishzhao
+ * @since 2021-03-12
+ */
+final class LogHistogram {
+
+  private final int minExponent;
+  private final long[] upperBounds;
+  // 最后一个为+Inf
+  private final AtomicLongArray counts;
+  private final AtomicLong sum = new AtomicLong();
+
+  /** Buckets from {@code 2^minExponent} to {@code 2^maxExponent}, plus +Inf. */
+  LogHistogram(int minExponent, int maxExponent) {
+    Preconditions.checkArgument(
+        minExponent >= 1 && minExponent < maxExponent && maxExponent < 62,
+        "illegal exponents: [%s, %s]",
+        minExponent,
+        maxExponent);
+    this.minExponent = minExponent;
+    this.upperBounds = new long[1 + 2 * (maxExponent - minExponent)];
+    upperBounds[0] = 1L << minExponent;
+    for (int exponent = minExponent, i = 1; exponent < maxExponent; exponent++) {
+      upperBounds[i++] = 3L << (exponent - 1);
+      upperBounds[i++] = 1L << (exponent + 1);
+    }
+    this.counts = new AtomicLongArray(upperBounds.length + 1);
+  }
+
+  void record(long value) {
+    counts.incrementAndGet(bucketIndex(value));
+    sum.addAndGet(value);
+  }
+
+  int bucketIndex(long value) {
+    if (value <= upperBounds[0]) {
+      return 0;
+    }
+    if (value > upperBounds[upperBounds.length - 1]) {
+      return upperBounds.length;
+    }
+    // value - 1 is in [2^exponent, 2^(exponent+1)), so value is in (2^exponent, 2^(exponent+1)]
+    int exponent = 63 - Long.numberOfLeadingZeros(value - 1);
+    int half = (int) ((value - 1) >>> (exponent - 1)) & 1;
+    return 1 + 2 * (exponent - minExponent) + half;
+  }
+
+  long[] getUpperBounds() {
+    return upperBounds;
+  }
+
+  /** @return non-cumulative counts, the last one is the +Inf bucket */
+  long[] snapshotCounts() {
+    long[] snapshot = new long[counts.length()];
+    for (int i = 0; i < snapshot.length; i++) {
+      snapshot[i] = counts.get(i);
+    }
+    return snapshot;
+  }
+
+  long getSum() {
+    return sum.get();
+  }
+}
@@ -0,0 +1,29 @@
+package com.tencent.weblancer.web.metrics;
+
+import io.vertx.core.Handler;
+import io.vertx.ext.web.RoutingContext;
+import lombok.NonNull;
+
+/**
+ * Serves {@link MetricsRegistry#scrape()} to prometheus.
+ *
+ * @author fishzhao
+ * @since 2021-03-12
+ */
+public final class MetricsHandler implements Handler<RoutingContext> {
+
+  private final MetricsRegistry metricsRegistry;
+
+  public MetricsHandler(@NonNull MetricsRegistry metricsRegistry) {
+    this.metricsRegistry = metricsRegistry;
+  }
+
+  @Override
+  public void handle(RoutingContext routingContext) {
+    routingContext
+        .response()
+        .setStatusCode(200)
+        .putHeader("content-type", MetricsRegistry.CONTENT_TYPE)
+        .end(metricsRegistry.scrape());
+  }
+}
@@ -0,0 +1,31 @@
+package com.tencent.weblancer.web.metrics;
+
+import java.util.ServiceLoader;
+
+/**
+ * SPI to export the metrics to other systems, implementations are loaded by {@link ServiceLoader}
+ * from {@code META-INF/services/com.tencent.weblancer.web.metrics.MetricsProvider}, and are used
+ * together with the built-in {@code /metrics} endpoint.
+ *
+ * @author fishzhao
+ * @since 2021-03-12
+ */
+public interface MetricsProvider {
+
+  /**
+   * Called when an interface is built, again for the same interface after every hot reload.
+   *
+   * @return never null, {@link InterfaceMetrics#NOOP} if the interface is not interested
+   */
+  InterfaceMetrics forInterface(String dataSourceId, String uri);
+
+  /**
+   * The same as {@link #forInterface(String, String)}, for interfaces which share a uri but not
+   * their http methods.
+   *
+   * @param methods see {@link MetricsRegistry#methodsLabel}
+   */
+  default InterfaceMetrics forInterface(String dataSourceId, String uri, String methods) {
+    return forInterface(dataSourceId, uri);
+  }
+}
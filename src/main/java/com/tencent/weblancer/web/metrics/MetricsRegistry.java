@@ -0,0 +1,410 @@
+package com.tencent.weblancer.web.metrics;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.tencent.weblancer.web.handler.QueryResult;
+import com.tencent.weblancer.web.repo.AdaptiveConcurrencyLimit;
+import com.tencent.weblancer.web.repo.BoundedWorkerExecutor;
+import com.tencent.weblancer.web.repo.DataSourceRegistry;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocatorMetric;
+import io.vertx.core.http.HttpMethod;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.tuple.Triple;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Metrics of every interface, the dataSource pools and the worker pools, exposed in the
+ * prometheus text format by {@link #scrape()}. Other systems can be fed by a {@link
+ * MetricsProvider}.
+ *
+ * <p>Interfaces are identified by {@code (dataSourceId, uri, methods)} rather than the statement
+ * id, so their metrics survive a hot reload, while interfaces of the same uri and different http
+ * methods are kept apart.
+ *
+ * @author fishzhao
+ * @since 2021-03-12
+ */
+@Slf4j
+public final class MetricsRegistry {
+
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private static final String PREFIX = "web_lancer_";
+  private static final double NANOS_PER_SECOND = 1e9;
+
+  private final DataSourceRegistry dataSourceRegistry;
+  private final List<MetricsProvider> providers = new ArrayList<>();
+  private final ConcurrentNavigableMap<Triple<String, String, String>, PrometheusInterfaceMetrics>
+      interfaceMetricsMap = new ConcurrentSkipListMap<>();
+
+  public MetricsRegistry(@NonNull DataSourceRegistry dataSourceRegistry) {
+    this.dataSourceRegistry = dataSourceRegistry;
+    for (MetricsProvider provider : ServiceLoader.load(MetricsProvider.class)) {
+      providers.add(provider);
+      log.info("MetricsProvider loaded: {}", provider.getClass().getName());
+    }
+  }
+
+  /**
+   * @param methods http methods of the interface, see {@link #methodsLabel}
+   * @return the metrics of an interface, the same counters are returned after a reload.
+   */
+  public InterfaceMetrics forInterface(
+      @NonNull String dataSourceId, @NonNull String uri, @NonNull String methods) {
+    PrometheusInterfaceMetrics metrics =
+        interfaceMetricsMap.computeIfAbsent(
+            Triple.of(dataSourceId, uri, methods),
+            key -> new PrometheusInterfaceMetrics(dataSourceId, uri, methods));
+    if (providers.isEmpty()) {
+      return metrics;
+    }
+    List<InterfaceMetrics> delegates = new ArrayList<>(providers.size() + 1);
+    delegates.add(metrics);
+    for (MetricsProvider provider : providers) {
+      delegates.add(provider.forInterface(dataSourceId, uri, methods));
+    }
+    return new CompositeInterfaceMetrics(delegates.toArray(new InterfaceMetrics[0]));
+  }
+
+  public void bindCacheStats(
+      @NonNull String dataSourceId,
+      @NonNull String uri,
+      @NonNull String methods,
+      @NonNull Supplier<Optional<CacheStats>> cacheStatsSupplier) {
+    PrometheusInterfaceMetrics metrics =
+        interfaceMetricsMap.get(Triple.of(dataSourceId, uri, methods));
+    if (metrics != null) {
+      metrics.setCacheStatsSupplier(cacheStatsSupplier);
+    }
+  }
+
+  /** @param concurrencyLimit null if the interface has no limit of its own */
+  public void bindConcurrencyLimit(
+      @NonNull String dataSourceId,
+      @NonNull String uri,
+      @NonNull String methods,
+      AdaptiveConcurrencyLimit concurrencyLimit) {
+    PrometheusInterfaceMetrics metrics =
+        interfaceMetricsMap.get(Triple.of(dataSourceId, uri, methods));
+    if (metrics != null) {
+      metrics.setConcurrencyLimit(concurrencyLimit);
+    }
+  }
+
+  /** Drops the metrics of interfaces which no longer exist. */
+  public void retainInterfaces(
+      @NonNull Collection<Triple<String, String, String>> dataSourceIdUriMethods) {
+    interfaceMetricsMap.keySet().retainAll(dataSourceIdUriMethods);
+  }
+
+  /**
+   * @return the value of the {@code method} label of an interface, its http methods in order
+   *     separated by commas, or {@code ANY} if it accepts every method
+   */
+  public static String methodsLabel(Set<HttpMethod> httpMethods) {
+    if (httpMethods == null || httpMethods.isEmpty()) {
+      return "ANY";
+    }
+    return httpMethods.stream().map(HttpMethod::name).sorted().collect(Collectors.joining(","));
+  }
+
+  /** @return all metrics in the prometheus text format 0.0.4 */
+  public String scrape() {
+    Collection<PrometheusInterfaceMetrics> interfaces = interfaceMetricsMap.values();
+    StringBuilder sb = new StringBuilder(4096);
+
+    family(sb, "requests_total", "counter", "Requests by result code.");
+    for (PrometheusInterfaceMetrics metrics : interfaces) {
+      for (QueryResult result : QueryResult.values()) {
+        long count = metrics.getResultCount(result);
+        if (count > 0) {
+          sample(sb, "requests_total", labels(metrics, "code", String.valueOf(result.code)), count);
+        }
+      }
+    }
+
+    family(sb, "phase_seconds", "histogram", "Time spent in each phase of a request.");
+    for (PrometheusInterfaceMetrics metrics : interfaces) {
+      for (Phase phase : Phase.values()) {
+        histogram(
+            sb,
+            "phase_seconds",
+            labels(metrics, "phase", phase.label),
+            metrics.getPhaseHistogram(phase),
+            NANOS_PER_SECOND);
+      }
+    }
+
+    family(sb, "rows", "histogram", "Rows returned by the DB for each query.");
+    for (PrometheusInterfaceMetrics metrics : interfaces) {
+      histogram(sb, "rows", labels(metrics), metrics.getRowsHistogram(), 1);
+    }
+
+    family(sb, "response_bytes", "histogram", "Size of each response body.");
+    for (PrometheusInterfaceMetrics metrics : interfaces) {
+      histogram(sb, "response_bytes", labels(metrics), metrics.getResponseBytesHistogram(), 1);
+    }
+
+    scrapeCaches(sb, interfaces);
+    scrapeConnectionPools(sb);
+    scrapeWorkerPools(sb);
+    scrapeConcurrencyLimits(sb, interfaces);
+    scrapeBufferPool(sb);
+    return sb.toString();
+  }
+
+  /** Memory of the netty pool shared by the response buffers and the connections. */
+  private static void scrapeBufferPool(StringBuilder sb) {
+    PooledByteBufAllocatorMetric metric = PooledByteBufAllocator.DEFAULT.metric();
+    family(sb, "pooled_buffer_bytes", "gauge", "Memory held by the pooled netty buffers.");
+    sample(sb, "pooled_buffer_bytes", labels("memory", "direct"), metric.usedDirectMemory());
+    sample(sb, "pooled_buffer_bytes", labels("memory", "heap"), metric.usedHeapMemory());
+  }
+
+  private void scrapeConcurrencyLimits(
+      StringBuilder sb, Collection<PrometheusInterfaceMetrics> interfaces) {
+    Map<String, AdaptiveConcurrencyLimit> labeledLimits = new LinkedHashMap<>();
+    new TreeMap<>(dataSourceRegistry.getConcurrencyLimits())
+        .forEach(
+            (dataSourceId, limit) -> labeledLimits.put(labels("data_source", dataSourceId), limit));
+    for (PrometheusInterfaceMetrics metrics : interfaces) {
+      metrics.getConcurrencyLimit().ifPresent(limit -> labeledLimits.put(labels(metrics), limit));
+    }
+    family(
+        sb,
+        "concurrency_limit",
+        "gauge",
+        "Cap of the queries in flight of a dataSource, or adaptive limit of an interface.");
+    labeledLimits.forEach(
+        (labels, limit) -> sample(sb, "concurrency_limit", labels, limit.getLimit()));
+    family(sb, "concurrency_in_flight", "gauge", "Queries in flight.");
+    labeledLimits.forEach(
+        (labels, limit) -> sample(sb, "concurrency_in_flight", labels, limit.getInFlight()));
+    family(
+        sb, "concurrency_rejected_total", "counter", "Queries shed by the concurrency limit.");
+    labeledLimits.forEach(
+        (labels, limit) ->
+            sample(sb, "concurrency_rejected_total", labels, limit.getRejectedCount()));
+  }
+
+  private void scrapeCaches(StringBuilder sb, Collection<PrometheusInterfaceMetrics> interfaces) {
+    Map<PrometheusInterfaceMetrics, CacheStats> cacheStatsMap = new LinkedHashMap<>();
+    for (PrometheusInterfaceMetrics metrics : interfaces) {
+      metrics.getCacheStats().ifPresent(stats -> cacheStatsMap.put(metrics, stats));
+    }
+    family(sb, "cache_requests_total", "counter", "Result cache lookups.");
+    cacheStatsMap.forEach(
+        (metrics, stats) -> {
+          sample(sb, "cache_requests_total", labels(metrics, "result", "hit"), stats.hitCount());
+          sample(sb, "cache_requests_total", labels(metrics, "result", "miss"), stats.missCount());
+        });
+    family(sb, "cache_evictions_total", "counter", "Result cache evictions.");
+    cacheStatsMap.forEach(
+        (metrics, stats) ->
+            sample(sb, "cache_evictions_total", labels(metrics), stats.evictionCount()));
+  }
+
+  private void scrapeConnectionPools(StringBuilder sb) {
+    Map<String, HikariPoolMXBean> poolMXBeans = dataSourceRegistry.getPoolMXBeans();
+    family(sb, "hikari_connections", "gauge", "Connections of the jdbc pool by state.");
+    poolMXBeans.forEach(
+        (dataSourceId, pool) -> {
+          sample(
+              sb,
+              "hikari_connections",
+              labels("data_source", dataSourceId, "state", "active"),
+              pool.getActiveConnections());
+          sample(
+              sb,
+              "hikari_connections",
+              labels("data_source", dataSourceId, "state", "idle"),
+              pool.getIdleConnections());
+          sample(
+              sb,
+              "hikari_connections",
+              labels("data_source", dataSourceId, "state", "total"),
+              pool.getTotalConnections());
+          sample(
+              sb,
+              "hikari_connections",
+              labels("data_source", dataSourceId, "state", "pending"),
+              pool.getThreadsAwaitingConnection());
+        });
+    family(sb, "replica_healthy", "gauge", "Whether the replica is in service.");
+    dataSourceRegistry
+        .getReplicaHealth()
+        .forEach(
+            (replica, healthy) ->
+                sample(sb, "replica_healthy", labels("data_source", replica), healthy ? 1 : 0));
+  }
+
+  private void scrapeWorkerPools(StringBuilder sb) {
+    Map<String, BoundedWorkerExecutor> workerExecutors =
+        new TreeMap<>(dataSourceRegistry.getWorkerExecutors());
+    workerPool(
+        sb,
+        workerExecutors,
+        "worker_pool_size",
+        "gauge",
+        "Threads of the worker pool.",
+        BoundedWorkerExecutor::getPoolSize);
+    workerPool(
+        sb,
+        workerExecutors,
+        "worker_pending",
+        "gauge",
+        "Tasks running or waiting in the worker pool.",
+        BoundedWorkerExecutor::getPendingCount);
+    workerPool(
+        sb,
+        workerExecutors,
+        "worker_queued",
+        "gauge",
+        "Tasks waiting for a worker thread.",
+        BoundedWorkerExecutor::getQueuedCount);
+    workerPool(
+        sb,
+        workerExecutors,
+        "worker_rejected_total",
+        "counter",
+        "Tasks rejected because the wait queue is full.",
+        BoundedWorkerExecutor::getRejectedCount);
+  }
+
+  private static void workerPool(
+      StringBuilder sb,
+      Map<String, BoundedWorkerExecutor> workerExecutors,
+      String name,
+      String type,
+      String help,
+      Function<BoundedWorkerExecutor, Number> value) {
+    family(sb, name, type, help);
+    workerExecutors.forEach(
+        (dataSourceId, executor) ->
+            sample(sb, name, labels("data_source", dataSourceId), value.apply(executor)));
+  }
+
+  private static void histogram(
+      StringBuilder sb, String name, String labels, LogHistogram histogram, double unit) {
+    long[] counts = histogram.snapshotCounts();
+    long[] upperBounds = histogram.getUpperBounds();
+    long cumulative = 0;
+    for (long count : counts) {
+      cumulative += count;
+    }
+    if (cumulative == 0) {
+      return;
+    }
+    String prefix = labels.substring(0, labels.length() - 1) + ",le=\"";
+    cumulative = 0;
+    for (int i = 0; i < counts.length; i++) {
+      cumulative += counts[i];
+      String le = i < upperBounds.length ? format(upperBounds[i], unit) : "+Inf";
+      sample(sb, name + "_bucket", prefix + le + "\"}", cumulative);
+    }
+    sb.append(PREFIX).append(name).append("_sum").append(labels).append(' ');
+    sb.append(format(histogram.getSum(), unit)).append('\n');
+    sample(sb, name + "_count", labels, cumulative);
+  }
+
+  private static String format(long value, double unit) {
+    return unit == 1 ? String.valueOf(value) : String.valueOf(value / unit);
+  }
+
+  private static void family(StringBuilder sb, String name, String type, String help) {
+    sb.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+    sb.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+  }
+
+  private static void sample(StringBuilder sb, String name, String labels, Number value) {
+    sb.append(PREFIX).append(name).append(labels).append(' ').append(value).append('\n');
+  }
+
+  private static String labels(PrometheusInterfaceMetrics metrics, String... nameValues) {
+    String[] all = new String[nameValues.length + 6];
+    all[0] = "data_source";
+    all[1] = metrics.getDataSourceId();
+    all[2] = "uri";
+    all[3] = metrics.getUri();
+    all[4] = "method";
+    all[5] = metrics.getMethods();
+    System.arraycopy(nameValues, 0, all, 6, nameValues.length);
+    return labels(all);
+  }
+
+  private static String labels(String... nameValues) {
+    StringBuilder sb = new StringBuilder("{");
+    for (int i = 0; i < nameValues.length; i += 2) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      sb.append(nameValues[i]).append("=\"");
+      String value = nameValues[i + 1];
+      for (int j = 0; j < value.length(); j++) {
+        char c = value.charAt(j);
+        if (c == '\\' || c == '"') {
+          sb.append('\\').append(c);
+        } else if (c == '\n') {
+          sb.append("\\n");
+        } else {
+          sb.append(c);
+        }
+      }
+      sb.append('"');
+    }
+    return sb.append('}').toString();
+  }
+
+  private static final class CompositeInterfaceMetrics implements InterfaceMetrics {
+
+    private final InterfaceMetrics[] delegates;
+
+    CompositeInterfaceMetrics(InterfaceMetrics[] delegates) {
+      this.delegates = delegates;
+    }
+
+    @Override
+    public void recordPhase(Phase phase, long nanos) {
+      for (InterfaceMetrics delegate : delegates) {
+        delegate.recordPhase(phase, nanos);
+      }
+    }
+
+    @Override
+    public void recordResult(QueryResult result) {
+      for (InterfaceMetrics delegate : delegates) {
+        delegate.recordResult(result);
+      }
+    }
+
+    @Override
+    public void recordRows(int rows) {
+      for (InterfaceMetrics delegate : delegates) {
+        delegate.recordRows(rows);
+      }
+    }
+
+    @Override
+    public void recordResponseBytes(long bytes) {
+      for (InterfaceMetrics delegate : delegates) {
+        delegate.recordResponseBytes(bytes);
+      }
+    }
+  }
+}
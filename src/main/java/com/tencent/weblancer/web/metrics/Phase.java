@@ -0,0 +1,25 @@
+package com.tencent.weblancer.web.metrics;
+
+/**
+ * Phases of a query request, {@link #TOTAL} covers all of them.
+ *
+ * @author fishzhao
+ * @since 2021-03-12
+ */
+public enum Phase {
+  RESOLVE("resolve"),
+  VALIDATE("validate"),
+  // 从提交到worker线程开始执行之间的等待
+  QUEUE_WAIT("queue_wait"),
+  EXECUTE("execute"),
+  SERIALIZE("serialize"),
+  // 只有被压缩的响应才有该阶段
+  COMPRESS("compress"),
+  TOTAL("total");
+
+  public final String label;
+
+  Phase(String label) {
+    this.label = label;
+  }
+}
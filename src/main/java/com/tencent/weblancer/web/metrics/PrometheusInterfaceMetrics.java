@@ -0,0 +1,94 @@
+package com.tencent.weblancer.web.metrics;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.tencent.weblancer.web.handler.QueryResult;
+import com.tencent.weblancer.web.repo.AdaptiveConcurrencyLimit;
+import lombok.Getter;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * Metrics of one interface kept in memory for {@link MetricsRegistry#scrape()}.
+ *
+ * @author fishzhao
+ * @since 2021-03-12
+ */
+final class PrometheusInterfaceMetrics implements InterfaceMetrics {
+
+  @Getter private final String dataSourceId;
+  @Getter private final String uri;
+  @Getter private final String methods;
+  // indexed by QueryResult#ordinal
+  private final AtomicLongArray resultCounts = new AtomicLongArray(QueryResult.values().length);
+  // indexed by Phase#ordinal, 1us ~ 17s
+  private final LogHistogram[] phaseHistograms = new LogHistogram[Phase.values().length];
+  // 2 ~ 128k
+  private final LogHistogram rowsHistogram = new LogHistogram(1, 17);
+  // 128B ~ 128MB
+  private final LogHistogram responseBytesHistogram = new LogHistogram(7, 27);
+  private volatile Supplier<Optional<CacheStats>> cacheStatsSupplier = Optional::empty;
+  private volatile AdaptiveConcurrencyLimit concurrencyLimit;
+
+  PrometheusInterfaceMetrics(String dataSourceId, String uri, String methods) {
+    this.dataSourceId = dataSourceId;
+    this.uri = uri;
+    this.methods = methods;
+    for (int i = 0; i < phaseHistograms.length; i++) {
+      phaseHistograms[i] = new LogHistogram(10, 34);
+    }
+  }
+
+  @Override
+  public void recordPhase(Phase phase, long nanos) {
+    phaseHistograms[phase.ordinal()].record(nanos);
+  }
+
+  @Override
+  public void recordResult(QueryResult result) {
+    resultCounts.incrementAndGet(result.ordinal());
+  }
+
+  @Override
+  public void recordRows(int rows) {
+    rowsHistogram.record(rows);
+  }
+
+  @Override
+  public void recordResponseBytes(long bytes) {
+    responseBytesHistogram.record(bytes);
+  }
+
+  long getResultCount(QueryResult result) {
+    return resultCounts.get(result.ordinal());
+  }
+
+  LogHistogram getPhaseHistogram(Phase phase) {
+    return phaseHistograms[phase.ordinal()];
+  }
+
+  LogHistogram getRowsHistogram() {
+    return rowsHistogram;
+  }
+
+  LogHistogram getResponseBytesHistogram() {
+    return responseBytesHistogram;
+  }
+
+  Optional<CacheStats> getCacheStats() {
+    return cacheStatsSupplier.get();
+  }
+
+  Optional<AdaptiveConcurrencyLimit> getConcurrencyLimit() {
+    return Optional.ofNullable(concurrencyLimit);
+  }
+
+  void setConcurrencyLimit(AdaptiveConcurrencyLimit concurrencyLimit) {
+    this.concurrencyLimit = concurrencyLimit;
+  }
+
+  void setCacheStatsSupplier(Supplier<Optional<CacheStats>> cacheStatsSupplier) {
+    this.cacheStatsSupplier = cacheStatsSupplier;
+  }
+}
@@ -0,0 +1,114 @@
+package com.tencent.weblancer.web.repo;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AIMD limit of the queries in flight, adapted to the observed latency: the limit grows by one
+ * for every limit-worth of samples while it is in use, and shrinks by {@link #BACKOFF_RATIO} when
+ * a query is dropped or its latency exceeds {@link #TOLERANCE} times the baseline latency, at
+ * most once per limit-worth of samples. The baseline follows decreases of the latency at once and
+ * increases slowly, so it tracks the latency of an unloaded DB. A limit with equal bounds is a
+ * plain cap and ignores the samples.
+ *
+ * @author fishzhao
+ * @since 2021-03-17
+ */
+public final class AdaptiveConcurrencyLimit {
+
+  private static final double BACKOFF_RATIO = 0.9;
+  private static final double TOLERANCE = 2.0;
+  // 基线每个样本只向上漂移差值的 1/1024
+  private static final int BASELINE_DRIFT_SHIFT = 10;
+
+  private final String name;
+  private final int minLimit;
+  private final int maxLimit;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final LongAdder rejectedCount = new LongAdder();
+  private volatile double limit;
+  // guarded by this
+  private long baselineNanos;
+  private int samplesSinceBackoff;
+
+  public AdaptiveConcurrencyLimit(String name, int minLimit, int initialLimit, int maxLimit) {
+    Preconditions.checkArgument(
+        0 < minLimit && minLimit <= initialLimit && initialLimit <= maxLimit,
+        "illegal concurrency limits of `%s`: min %s, initial %s, max %s",
+        name,
+        minLimit,
+        initialLimit,
+        maxLimit);
+    this.name = name;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.limit = initialLimit;
+  }
+
+  /** @return a limit which never adapts */
+  public static AdaptiveConcurrencyLimit fixed(String name, int limit) {
+    return new AdaptiveConcurrencyLimit(name, limit, limit, limit);
+  }
+
+  /** @return false if the limit is reached, otherwise {@link #release} must be called once. */
+  public boolean tryAcquire() {
+    if (inFlight.incrementAndGet() > (int) limit) {
+      inFlight.decrementAndGet();
+      rejectedCount.increment();
+      return false;
+    }
+    return true;
+  }
+
+  /** Releases without a sample, e.g. the query is not sent at all. */
+  public void release() {
+    inFlight.decrementAndGet();
+  }
+
+  /**
+   * @param latencyNanos from acquiring to the completion of the query
+   * @param dropped whether the query is rejected by the layer below, e.g. a full worker queue
+   */
+  public void release(long latencyNanos, boolean dropped) {
+    int inFlightBefore = inFlight.getAndDecrement();
+    if (minLimit == maxLimit) {
+      return;
+    }
+    synchronized (this) {
+      if (baselineNanos == 0 || latencyNanos < baselineNanos) {
+        baselineNanos = latencyNanos;
+      } else {
+        baselineNanos += (latencyNanos - baselineNanos) >> BASELINE_DRIFT_SHIFT;
+      }
+      samplesSinceBackoff++;
+      double current = limit;
+      if (dropped || latencyNanos > baselineNanos * TOLERANCE) {
+        if (samplesSinceBackoff >= current) {
+          limit = Math.max(minLimit, current * BACKOFF_RATIO);
+          samplesSinceBackoff = 0;
+        }
+      } else if (inFlightBefore * 2 >= current) {
+        // 只有在限制被用到一半以上时才增长，避免空闲时无限增长
+        limit = Math.min(maxLimit, current + 1 / current);
+      }
+    }
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getLimit() {
+    return (int) limit;
+  }
+
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  public long getRejectedCount() {
+    return rejectedCount.sum();
+  }
+}
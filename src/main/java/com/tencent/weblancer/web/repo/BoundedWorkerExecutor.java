@@ -0,0 +1,78 @@
+package com.tencent.weblancer.web.repo;
+
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.WorkerExecutor;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A named {@link WorkerExecutor} dedicated to one dataSource, tasks are rejected immediately once
+ * {@code poolSize + maxQueueSize} tasks are pending.
+ *
+ * @author fishzhao
+ * @since 2021-03-04
+ */
+public final class BoundedWorkerExecutor implements AutoCloseable {
+
+  private final String name;
+  private final WorkerExecutor delegate;
+  private final int poolSize;
+  private final int maxQueueSize;
+  private final AtomicInteger pendingCount = new AtomicInteger(0);
+  private final LongAdder rejectedCount = new LongAdder();
+
+  BoundedWorkerExecutor(String name, WorkerExecutor delegate, int poolSize, int maxQueueSize) {
+    this.name = name;
+    this.delegate = delegate;
+    this.poolSize = poolSize;
+    this.maxQueueSize = maxQueueSize;
+  }
+
+  /**
+   * @return a failed future with {@link RejectedExecutionException} if the wait queue is full.
+   */
+  public <T> Future<T> executeBlocking(Handler<Promise<T>> blockingCodeHandler) {
+    if (pendingCount.incrementAndGet() > poolSize + maxQueueSize) {
+      pendingCount.decrementAndGet();
+      rejectedCount.increment();
+      return Future.failedFuture(
+          new RejectedExecutionException("wait queue of worker pool `" + name + "` is full!"));
+    }
+    return delegate
+        .executeBlocking(blockingCodeHandler, false)
+        .onComplete(ar -> pendingCount.decrementAndGet());
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getPoolSize() {
+    return poolSize;
+  }
+
+  public int getMaxQueueSize() {
+    return maxQueueSize;
+  }
+
+  public int getPendingCount() {
+    return pendingCount.get();
+  }
+
+  public int getQueuedCount() {
+    return Math.max(0, pendingCount.get() - poolSize);
+  }
+
+  public long getRejectedCount() {
+    return rejectedCount.sum();
+  }
+
+  @Override
+  public void close() {
+    delegate.close();
+  }
+}
@@ -0,0 +1,19 @@
+package com.tencent.weblancer.web.repo;
+
+/**
+ * Thrown when a query is shed by an {@link AdaptiveConcurrencyLimit}.
+ *
+ * @author fishzhao
+ * @since 2021-03-17
+ */
+public final class ConcurrencyLimitExceededException extends RuntimeException {
+
+  public ConcurrencyLimitExceededException(AdaptiveConcurrencyLimit limit) {
+    // shed on the hot path of an overloaded server, no stack trace is needed
+    super(
+        "concurrency limit of `" + limit.getName() + "` exceeded: " + limit.getLimit(),
+        null,
+        false,
+        false);
+  }
+}
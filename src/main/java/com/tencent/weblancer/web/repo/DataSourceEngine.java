@@ -0,0 +1,26 @@
+package com.tencent.weblancer.web.repo;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * How queries of a dataSource are executed.
+ *
+ * @author fishzhao
+ * @since 2021-03-05
+ */
+public enum DataSourceEngine {
+  // blocking JDBC with HikariCP, queries run on a worker pool
+  JDBC,
+  // non-blocking vertx-mysql-client, queries run on the event loop
+  REACTIVE;
+
+  public static DataSourceEngine of(String name) {
+    for (DataSourceEngine engine : values()) {
+      if (engine.name().equalsIgnoreCase(name)) {
+        return engine;
+      }
+    }
+    Preconditions.checkArgument(false, "illegal dataSource engine: `%s`", name);
+    return null;
+  }
+}
@@ -8,6 +8,11 @@ import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import io.vertx.core.Vertx;
+import io.vertx.mysqlclient.MySQLConnectOptions;
+import io.vertx.mysqlclient.MySQLPool;
+import io.vertx.sqlclient.PoolOptions;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.ClassUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -19,10 +24,12 @@ import java.lang.reflect.Modifier;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ScheduledExecutorService;
@@ -40,11 +47,28 @@ public final class DataSourceRegistry implements Function<String, DataSource>, A
 
   private static final Pattern DATA_SOURCE_ID_PATTERN = Pattern.compile("[A-Za-z0-9_\\-]+");
   private static final int DEFAULT_MAX_POOL_SIZE = 3;
+  private static final int DEFAULT_WORKER_QUEUE_SIZE = 128;
+  private static final String WORKER_QUEUE_SIZE_KEY = "workerQueueSize";
+  private static final String ENGINE_KEY = "engine";
+  private static final String REPLICAS_KEY = "replicas";
+  private static final String WEIGHT_KEY = "weight";
 
   private final AtomicBoolean closed = new AtomicBoolean(false);
   private final Map<Pair<String, Class<?>>, Method> setterMap = new HashMap<>();
   private final ConcurrentMap<String, HikariConfig> configMap = new ConcurrentHashMap<>();
   private final ConcurrentMap<String, HikariDataSource> dataSourceMap = new ConcurrentHashMap<>();
+  // 配置了replicas的数据源，每个副本一个连接池
+  private final ConcurrentMap<String, List<Pair<HikariConfig, Integer>>> replicaConfigMap =
+      new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, ReplicaGroupDataSource> replicaGroupMap =
+      new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Integer> workerQueueSizeMap = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, DataSourceEngine> engineMap = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, MySQLPool> mySqlPoolMap = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, BoundedWorkerExecutor> workerExecutorMap =
+      new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, AdaptiveConcurrencyLimit> concurrencyLimitMap =
+      new ConcurrentHashMap<>();
   private final ScheduledExecutorService poolScheduler =
       new ScheduledThreadPoolExecutor(
           Math.min(3, Runtime.getRuntime().availableProcessors()),
@@ -52,6 +76,14 @@ public final class DataSourceRegistry implements Function<String, DataSource>, A
               .setDaemon(true)
               .setNameFormat("hikari-cp-pool-scheduler-%d")
               .build());
+  // probes may block for a connection timeout, so they do not share the pool scheduler
+  private final ScheduledExecutorService replicaProbeScheduler =
+      new ScheduledThreadPoolExecutor(
+          1,
+          new ThreadFactoryBuilder()
+              .setDaemon(true)
+              .setNameFormat("web-lancer-replica-probe-%d")
+              .build());
 
   {
     initializeSetterMap();
@@ -64,9 +96,152 @@ public final class DataSourceRegistry implements Function<String, DataSource>, A
     HikariConfig config = configMap.get(s);
     Preconditions.checkArgument(
         config != null, "No dataSource with id `%s` has been registered!", s);
+    List<Pair<HikariConfig, Integer>> replicas = replicaConfigMap.get(s);
+    if (replicas != null) {
+      return replicaGroupMap.computeIfAbsent(
+          s, key -> new ReplicaGroupDataSource(key, replicas, replicaProbeScheduler));
+    }
     return dataSourceMap.computeIfAbsent(s, key -> new HikariDataSource(config));
   }
 
+  /**
+   * @return the worker pool dedicated to dataSource {@code s}, sized from its {@code
+   *     maximumPoolSize}
+   */
+  public BoundedWorkerExecutor workerExecutor(String s, Vertx vertx) {
+    checkNotClosed();
+    checkDataSourceId(s);
+    HikariConfig config = configMap.get(s);
+    Preconditions.checkArgument(
+        config != null, "No dataSource with id `%s` has been registered!", s);
+    return workerExecutorMap.computeIfAbsent(
+        s,
+        key -> {
+          String name = "web-lancer-jdbc-" + key;
+          int poolSize = poolSize(key);
+          return new BoundedWorkerExecutor(
+              name,
+              vertx.createSharedWorkerExecutor(name, poolSize),
+              poolSize,
+              workerQueueSizeMap.getOrDefault(key, DEFAULT_WORKER_QUEUE_SIZE));
+        });
+  }
+
+  /**
+   * @return the cap of the queries in flight of dataSource {@code s}, its pool size plus {@code
+   *     workerQueueSize}
+   */
+  public AdaptiveConcurrencyLimit concurrencyLimit(String s) {
+    checkRegistered(s);
+    return concurrencyLimitMap.computeIfAbsent(
+        s, key -> AdaptiveConcurrencyLimit.fixed(key, maxConcurrency(key)));
+  }
+
+  /**
+   * @return a new adaptive limit of the queries in flight of an interface of dataSource {@code s},
+   *     between its pool size and the cap of {@link #concurrencyLimit}
+   */
+  public AdaptiveConcurrencyLimit newAdaptiveConcurrencyLimit(String s, String name) {
+    checkRegistered(s);
+    int poolSize = poolSize(s);
+    int maxLimit = maxConcurrency(s);
+    return new AdaptiveConcurrencyLimit(
+        name, poolSize, Math.min(2 * poolSize, maxLimit), maxLimit);
+  }
+
+  private void checkRegistered(String s) {
+    checkNotClosed();
+    checkDataSourceId(s);
+    Preconditions.checkArgument(
+        configMap.containsKey(s), "No dataSource with id `%s` has been registered!", s);
+  }
+
+  private int maxConcurrency(String s) {
+    return poolSize(s) + workerQueueSizeMap.getOrDefault(s, DEFAULT_WORKER_QUEUE_SIZE);
+  }
+
+  /** @return connections of all replicas of dataSource {@code s} */
+  private int poolSize(String s) {
+    List<Pair<HikariConfig, Integer>> replicas = replicaConfigMap.get(s);
+    // one thread for every connection of every replica
+    return replicas == null
+        ? configMap.get(s).getMaximumPoolSize()
+        : replicas.stream().mapToInt(r -> r.getLeft().getMaximumPoolSize()).sum();
+  }
+
+  public DataSourceEngine engine(String s) {
+    checkDataSourceId(s);
+    Preconditions.checkArgument(
+        configMap.containsKey(s), "No dataSource with id `%s` has been registered!", s);
+    return engineMap.getOrDefault(s, DataSourceEngine.JDBC);
+  }
+
+  /** @return the reactive pool of a dataSource whose engine is {@link DataSourceEngine#REACTIVE} */
+  public MySQLPool mySqlPool(String s, Vertx vertx) {
+    checkNotClosed();
+    Preconditions.checkArgument(
+        engine(s) == DataSourceEngine.REACTIVE, "engine of dataSource `%s` is not reactive!", s);
+    Preconditions.checkArgument(
+        !replicaConfigMap.containsKey(s), "replicas are not supported by reactive engine: `%s`", s);
+    HikariConfig config = configMap.get(s);
+    return mySqlPoolMap.computeIfAbsent(
+        s,
+        key -> {
+          String jdbcUrl = config.getJdbcUrl();
+          Preconditions.checkArgument(
+              StringUtils.startsWith(jdbcUrl, "jdbc:mysql://"),
+              "reactive engine only supports mysql, jdbcUrl: %s",
+              jdbcUrl);
+          MySQLConnectOptions connectOptions =
+              MySQLConnectOptions.fromUri(StringUtils.removeStart(jdbcUrl, "jdbc:"));
+          if (config.getUsername() != null) {
+            connectOptions.setUser(config.getUsername());
+          }
+          if (config.getPassword() != null) {
+            connectOptions.setPassword(config.getPassword());
+          }
+          return MySQLPool.pool(
+              vertx,
+              connectOptions,
+              new PoolOptions()
+                  .setMaxSize(config.getMaximumPoolSize())
+                  .setMaxWaitQueueSize(
+                      workerQueueSizeMap.getOrDefault(key, DEFAULT_WORKER_QUEUE_SIZE)));
+        });
+  }
+
+  public Map<String, AdaptiveConcurrencyLimit> getConcurrencyLimits() {
+    return Collections.unmodifiableMap(concurrencyLimitMap);
+  }
+
+  public Map<String, BoundedWorkerExecutor> getWorkerExecutors() {
+    return Collections.unmodifiableMap(workerExecutorMap);
+  }
+
+  /**
+   * @return pools of the jdbc dataSources already started, sorted by dataSourceId, a replica is
+   *     keyed by {@code dataSourceId#index}
+   */
+  public Map<String, HikariPoolMXBean> getPoolMXBeans() {
+    Map<String, HikariPoolMXBean> poolMXBeans = new TreeMap<>();
+    dataSourceMap.forEach(
+        (id, dataSource) -> {
+          HikariPoolMXBean poolMXBean = dataSource.getHikariPoolMXBean();
+          if (poolMXBean != null) {
+            poolMXBeans.put(id, poolMXBean);
+          }
+        });
+    replicaGroupMap.values().forEach(group -> group.putPoolMXBeans(poolMXBeans));
+    return poolMXBeans;
+  }
+
+  /** @return whether each replica is in service, keyed the same as {@link #getPoolMXBeans()} */
+  public Map<String, Boolean> getReplicaHealth() {
+    Map<String, Boolean> replicaHealth = new TreeMap<>();
+    replicaGroupMap.values().forEach(group -> group.putReplicaHealth(replicaHealth));
+    return replicaHealth;
+  }
+
   private void checkNotClosed() {
     Preconditions.checkArgument(!closed.get(), "DataSourceRegistry already closed!");
   }
@@ -114,6 +289,56 @@ public final class DataSourceRegistry implements Function<String, DataSource>, A
     Preconditions.checkArgument(config != null && !config.isEmpty(), "illegal config");
     HikariConfig hikariConfig = new HikariConfig();
     hikariConfig.setMaximumPoolSize(DEFAULT_MAX_POOL_SIZE);
+    JsonNode workerQueueSize = config.remove(WORKER_QUEUE_SIZE_KEY);
+    if (workerQueueSize != null && !workerQueueSize.isNull()) {
+      Preconditions.checkArgument(
+          workerQueueSize.asInt() >= 0, "illegal %s: %s", WORKER_QUEUE_SIZE_KEY, workerQueueSize);
+      workerQueueSizeMap.put(id, workerQueueSize.asInt());
+    }
+    JsonNode engine = config.remove(ENGINE_KEY);
+    if (engine != null && !engine.isNull()) {
+      engineMap.put(id, DataSourceEngine.of(engine.asText()));
+    }
+    JsonNode replicas = config.remove(REPLICAS_KEY);
+    applyConfig(hikariConfig, config);
+    hikariConfig.setScheduledExecutor(poolScheduler);
+    if (replicas != null && !replicas.isNull()) {
+      replicaConfigMap.put(id, createReplicaConfigs(id, config, replicas));
+    }
+    configMap.put(id, hikariConfig);
+  }
+
+  /** Every replica inherits the config of its dataSource, overridden by its own fields. */
+  private List<Pair<HikariConfig, Integer>> createReplicaConfigs(
+      String id, ObjectNode baseConfig, JsonNode replicas) {
+    Preconditions.checkArgument(
+        replicas.isArray() && replicas.size() > 0,
+        "%s of dataSource `%s` should be a non-empty array",
+        REPLICAS_KEY,
+        id);
+    List<Pair<HikariConfig, Integer>> replicaConfigs = new ArrayList<>(replicas.size());
+    for (JsonNode replica : replicas) {
+      Preconditions.checkArgument(
+          replica.isObject(), "illegal replica of dataSource `%s`: %s", id, replica);
+      ObjectNode replicaConfig = ((ObjectNode) replica).deepCopy();
+      JsonNode weight = replicaConfig.remove(WEIGHT_KEY);
+      int weightValue = weight == null || weight.isNull() ? 1 : weight.asInt();
+      Preconditions.checkArgument(
+          weightValue > 0, "illegal replica %s of dataSource `%s`: %s", WEIGHT_KEY, id, weight);
+      HikariConfig hikariConfig = new HikariConfig();
+      hikariConfig.setMaximumPoolSize(DEFAULT_MAX_POOL_SIZE);
+      applyConfig(hikariConfig, baseConfig);
+      applyConfig(hikariConfig, replicaConfig);
+      hikariConfig.setScheduledExecutor(poolScheduler);
+      hikariConfig.setPoolName(id + "#" + replicaConfigs.size());
+      // an unreachable replica is ejected instead of failing the whole dataSource
+      hikariConfig.setInitializationFailTimeout(-1);
+      replicaConfigs.add(Pair.of(hikariConfig, weightValue));
+    }
+    return replicaConfigs;
+  }
+
+  private void applyConfig(HikariConfig hikariConfig, ObjectNode config) {
     final Iterator<Map.Entry<String, JsonNode>> fields = config.fields();
     while (fields.hasNext()) {
       Map.Entry<String, JsonNode> entry = fields.next();
@@ -130,8 +355,6 @@ public final class DataSourceRegistry implements Function<String, DataSource>, A
         hikariConfig.addDataSourceProperty(entry.getKey(), textValue);
       }
     }
-    hikariConfig.setScheduledExecutor(poolScheduler);
-    configMap.put(id, hikariConfig);
   }
 
   private boolean trySet(HikariConfig config, String fieldName, JsonNode value) {
@@ -177,6 +400,19 @@ public final class DataSourceRegistry implements Function<String, DataSource>, A
     if (!closed.compareAndSet(false, true)) {
       return;
     }
+    for (BoundedWorkerExecutor workerExecutor : workerExecutorMap.values()) {
+      workerExecutor.close();
+    }
+    workerExecutorMap.clear();
+    for (Map.Entry<String, MySQLPool> entry : mySqlPoolMap.entrySet()) {
+      entry.getValue().close();
+      log.info("MySQLPool[{}] closed.", entry.getKey());
+    }
+    mySqlPoolMap.clear();
+    for (ReplicaGroupDataSource replicaGroup : replicaGroupMap.values()) {
+      replicaGroup.close();
+    }
+    replicaGroupMap.clear();
     List<String> dataSourceIdList = new ArrayList<>(dataSourceMap.keySet());
     for (String dataSourceId : dataSourceIdList) {
       HikariDataSource dataSource = dataSourceMap.remove(dataSourceId);
@@ -187,5 +423,7 @@ public final class DataSourceRegistry implements Function<String, DataSource>, A
     }
     //noinspection UnstableApiUsage
     MoreExecutors.shutdownAndAwaitTermination(poolScheduler, Duration.ofSeconds(2));
+    //noinspection UnstableApiUsage
+    MoreExecutors.shutdownAndAwaitTermination(replicaProbeScheduler, Duration.ofSeconds(2));
   }
 }
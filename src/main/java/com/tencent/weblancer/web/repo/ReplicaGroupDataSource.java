@@ -0,0 +1,301 @@
+package com.tencent.weblancer.web.repo;
+
+import com.google.common.base.Preconditions;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.tuple.Pair;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * A group of read replicas behind one dataSourceId, each with its own {@link HikariDataSource}.
+ * Every {@link #getConnection()} goes to the healthy replica with the least outstanding
+ * connections relative to its weight, a replica whose pool is fully used is only chosen if all of
+ * them are. A replica failing to connect, or whose connection fails with a connection exception
+ * (sql state {@code 08xxx}), is ejected until a health probe connects to it again, while a timeout
+ * of its saturated pool is not its fault. If every replica is ejected, all of them are tried.
+ *
+ * @author fishzhao
+ * @since 2021-03-16
+ */
+@Slf4j
+final class ReplicaGroupDataSource implements DataSource, AutoCloseable {
+
+  private static final long PROBE_INTERVAL_MILLIS = 5000;
+  private static final int PROBE_TIMEOUT_SECONDS = 2;
+
+  private final String id;
+  private final List<Replica> replicas;
+  private final ScheduledFuture<?> probeFuture;
+
+  /** @param replicas config and weight of every replica */
+  ReplicaGroupDataSource(
+      String id,
+      List<Pair<HikariConfig, Integer>> replicas,
+      ScheduledExecutorService probeScheduler) {
+    Preconditions.checkArgument(!replicas.isEmpty(), "empty replicas of dataSource `%s`", id);
+    this.id = id;
+    List<Replica> replicaList = new ArrayList<>(replicas.size());
+    for (Pair<HikariConfig, Integer> replica : replicas) {
+      replicaList.add(
+          new Replica(
+              id + "#" + replicaList.size(),
+              new HikariDataSource(replica.getLeft()),
+              replica.getLeft().getMaximumPoolSize(),
+              replica.getRight()));
+    }
+    this.replicas = Collections.unmodifiableList(replicaList);
+    this.probeFuture =
+        probeScheduler.scheduleWithFixedDelay(
+            this::probe, PROBE_INTERVAL_MILLIS, PROBE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    SQLException failure = null;
+    List<Replica> tried = new ArrayList<>(1);
+    Replica replica;
+    // 换一个副本重试，直到每个副本都试过
+    while ((replica = choose(tried)) != null) {
+      tried.add(replica);
+      replica.outstanding.incrementAndGet();
+      try {
+        return replica.wrap(replica.dataSource.getConnection());
+      } catch (SQLException e) {
+        replica.outstanding.decrementAndGet();
+        if (isConnectionFailure(e)) {
+          replica.eject(e);
+        }
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    throw failure;
+  }
+
+  /**
+   * A pool timeout of hikari carries the last failure to connect of the pool as its cause, or none
+   * if the pool is just saturated.
+   */
+  private static boolean isConnectionFailure(SQLException e) {
+    return isConnectionException(e)
+        || (e instanceof SQLTransientConnectionException && e.getCause() != null);
+  }
+
+  private static boolean isConnectionException(SQLException e) {
+    String sqlState = e.getSQLState();
+    return sqlState != null && sqlState.startsWith("08");
+  }
+
+  /** @return the replica to try next, or null if all of them have been tried */
+  private Replica choose(List<Replica> tried) {
+    // 依次放宽：健康且连接池未满、健康、全部
+    for (int pass = 0; pass < 3; pass++) {
+      Replica chosen = null;
+      double minLoad = Double.MAX_VALUE;
+      int ties = 0;
+      for (Replica replica : replicas) {
+        int outstanding = replica.outstanding.get();
+        if ((pass < 2 && !replica.healthy)
+            || (pass == 0 && outstanding >= replica.maxPoolSize)
+            || tried.contains(replica)) {
+          continue;
+        }
+        // +1 so that an idle group still prefers the heavier replicas
+        double load = (outstanding + 1.0) / replica.weight;
+        if (load < minLoad) {
+          minLoad = load;
+          chosen = replica;
+          ties = 1;
+        } else if (load == minLoad && ThreadLocalRandom.current().nextInt(++ties) == 0) {
+          chosen = replica;
+        }
+      }
+      if (chosen != null) {
+        return chosen;
+      }
+    }
+    return null;
+  }
+
+  private void probe() {
+    for (Replica replica : replicas) {
+      if (replica.healthy) {
+        continue;
+      }
+      try (Connection connection = replica.dataSource.getConnection()) {
+        if (connection.isValid(PROBE_TIMEOUT_SECONDS)) {
+          replica.healthy = true;
+          log.info("Replica [{}] is healthy again.", replica.name);
+        }
+      } catch (SQLException | RuntimeException e) {
+        log.debug("Replica [{}] is still unhealthy: {}", replica.name, e.getMessage());
+      }
+    }
+  }
+
+  void putPoolMXBeans(Map<String, HikariPoolMXBean> poolMXBeans) {
+    for (Replica replica : replicas) {
+      HikariPoolMXBean poolMXBean = replica.dataSource.getHikariPoolMXBean();
+      if (poolMXBean != null) {
+        poolMXBeans.put(replica.name, poolMXBean);
+      }
+    }
+  }
+
+  void putReplicaHealth(Map<String, Boolean> replicaHealth) {
+    for (Replica replica : replicas) {
+      replicaHealth.put(replica.name, replica.healthy);
+    }
+  }
+
+  @Override
+  public void close() {
+    probeFuture.cancel(false);
+    for (Replica replica : replicas) {
+      replica.dataSource.close();
+    }
+    log.info("DataSource[{}] with [{}] replica(s) closed.", id, replicas.size());
+  }
+
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException {
+    throw new SQLFeatureNotSupportedException("credentials are configured per replica");
+  }
+
+  @Override
+  public PrintWriter getLogWriter() throws SQLException {
+    return replicas.get(0).dataSource.getLogWriter();
+  }
+
+  @Override
+  public void setLogWriter(PrintWriter out) throws SQLException {
+    for (Replica replica : replicas) {
+      replica.dataSource.setLogWriter(out);
+    }
+  }
+
+  @Override
+  public void setLoginTimeout(int seconds) throws SQLException {
+    for (Replica replica : replicas) {
+      replica.dataSource.setLoginTimeout(seconds);
+    }
+  }
+
+  @Override
+  public int getLoginTimeout() throws SQLException {
+    return replicas.get(0).dataSource.getLoginTimeout();
+  }
+
+  @Override
+  public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+    throw new SQLFeatureNotSupportedException();
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    if (iface.isInstance(this)) {
+      return iface.cast(this);
+    }
+    throw new SQLException("Wrapped DataSource is not an instance of " + iface);
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) {
+    return iface.isInstance(this);
+  }
+
+  private static final class Replica {
+
+    private final String name;
+    private final HikariDataSource dataSource;
+    private final int maxPoolSize;
+    private final int weight;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private volatile boolean healthy = true;
+
+    Replica(String name, HikariDataSource dataSource, int maxPoolSize, int weight) {
+      this.name = name;
+      this.dataSource = dataSource;
+      this.maxPoolSize = maxPoolSize;
+      this.weight = weight;
+    }
+
+    void eject(SQLException e) {
+      if (healthy) {
+        healthy = false;
+        log.warn("Replica [{}] is ejected: {}", name, e.getMessage());
+      }
+    }
+
+    /** Tracks the connection as outstanding until it is closed. */
+    Connection wrap(Connection connection) {
+      AtomicBoolean released = new AtomicBoolean(false);
+      return (Connection)
+          Proxy.newProxyInstance(
+              Connection.class.getClassLoader(),
+              new Class<?>[] {Connection.class},
+              (proxy, method, args) -> {
+                if ("close".equals(method.getName()) && released.compareAndSet(false, true)) {
+                  outstanding.decrementAndGet();
+                }
+                Object result = invoke(connection, method, args);
+                if (result instanceof Statement) {
+                  return wrap((Statement) result, method.getReturnType());
+                }
+                return result;
+              });
+    }
+
+    /** Statements are wrapped only to see the connection exceptions of their executions. */
+    private Object wrap(Statement statement, Class<?> type) {
+      if (type != Statement.class
+          && type != PreparedStatement.class
+          && type != CallableStatement.class) {
+        return statement;
+      }
+      InvocationHandler handler = (proxy, method, args) -> invoke(statement, method, args);
+      return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, handler);
+    }
+
+    private Object invoke(Object target, Method method, Object[] args) throws Throwable {
+      try {
+        return method.invoke(target, args);
+      } catch (InvocationTargetException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof SQLException && isConnectionException((SQLException) cause)) {
+          eject((SQLException) cause);
+        }
+        throw cause;
+      }
+    }
+  }
+}
@@ -0,0 +1,41 @@
+package com.tencent.weblancer.web.validation;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.networknt.schema.JsonSchema;
+import com.networknt.schema.ValidationMessage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Validates parameters with a compiled networknt {@link JsonSchema}, supports the whole json schema
+ * draft v4.
+ *
+ * @author fishzhao
+ * @since 2021-03-08
+ */
+final class NetworkntParameterValidator implements ParameterValidator {
+
+  private final JsonSchema jsonSchema;
+
+  NetworkntParameterValidator(JsonSchema jsonSchema) {
+    this.jsonSchema = Objects.requireNonNull(jsonSchema, "jsonSchema");
+  }
+
+  @Override
+  public List<String> validate(JsonNode parameters) {
+    Set<ValidationMessage> validationMessages =
+        jsonSchema.validateAndCollect(parameters).getValidationMessages();
+    if (validationMessages == null || validationMessages.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<String> messages = new ArrayList<>(validationMessages.size());
+    for (ValidationMessage validationMessage : validationMessages) {
+      messages.add(validationMessage.getMessage());
+    }
+    return messages;
+  }
+}
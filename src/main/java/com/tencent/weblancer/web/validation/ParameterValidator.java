@@ -0,0 +1,18 @@
+package com.tencent.weblancer.web.validation;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.List;
+
+/**
+ * Validates the resolved parameters of a request, implementations are compiled once per interface
+ * and must be thread safe.
+ *
+ * @author fishzhao
+ * @since 2021-03-08
+ */
+public interface ParameterValidator {
+
+  /** @return messages of the failed checks, an empty list if the parameters are valid. */
+  List<String> validate(JsonNode parameters);
+}
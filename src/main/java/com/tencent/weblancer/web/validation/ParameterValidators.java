@@ -0,0 +1,31 @@
+package com.tencent.weblancer.web.validation;
+
+import com.networknt.schema.JsonSchema;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author fishzhao
+ * @since 2021-03-08
+ */
+@Slf4j
+public final class ParameterValidators {
+
+  private ParameterValidators() {
+    throw new IllegalStateException();
+  }
+
+  /**
+   * Compiles a flat schema into a {@link SimpleSchemaValidator}, falls back to networknt for the
+   * schemas it does not understand.
+   */
+  public static ParameterValidator compile(JsonSchema jsonSchema) {
+    NetworkntParameterValidator networkntValidator = new NetworkntParameterValidator(jsonSchema);
+    SimpleSchemaValidator simpleValidator =
+        SimpleSchemaValidator.compile(jsonSchema.getSchemaNode(), networkntValidator);
+    if (simpleValidator == null) {
+      log.debug("Schema is too complex for the fast path: {}", jsonSchema.getSchemaNode());
+      return networkntValidator;
+    }
+    return simpleValidator;
+  }
+}
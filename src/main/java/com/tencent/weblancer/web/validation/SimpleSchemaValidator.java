@@ -0,0 +1,348 @@
+package com.tencent.weblancer.web.validation;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableSet;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Validator of flat {@code type/properties/required/enum/minimum/maximum} schemas, the parameters
+ * are walked once without any allocation when they are valid.
+ *
+ * <p>The checks are conservative: whatever passes here also passes networknt. When a check fails
+ * the parameters are validated again by the fallback validator, so the messages are exactly the
+ * same as before.
+ *
+ * @author fishzhao
+ * @since 2021-03-08
+ */
+final class SimpleSchemaValidator implements ParameterValidator {
+
+  private static final Set<String> ROOT_KEYWORDS =
+      ImmutableSet.of(
+          "$schema",
+          "id",
+          "title",
+          "description",
+          "type",
+          "properties",
+          "required",
+          "additionalProperties");
+  private static final Set<String> PROPERTY_KEYWORDS =
+      ImmutableSet.of(
+          "title",
+          "description",
+          "type",
+          "enum",
+          "minimum",
+          "maximum",
+          "exclusiveMinimum",
+          "exclusiveMaximum",
+          "minLength",
+          "maxLength",
+          "items");
+
+  private final String[] requiredNames;
+  private final String[] propertyNames;
+  private final Rule[] propertyRules;
+  private final Set<String> propertyNameSet;
+  private final boolean additionalPropertiesAllowed;
+  private final ParameterValidator fallback;
+
+  private SimpleSchemaValidator(
+      List<String> requiredNames,
+      List<String> propertyNames,
+      List<Rule> propertyRules,
+      boolean additionalPropertiesAllowed,
+      ParameterValidator fallback) {
+    this.requiredNames = requiredNames.toArray(new String[0]);
+    this.propertyNames = propertyNames.toArray(new String[0]);
+    this.propertyRules = propertyRules.toArray(new Rule[0]);
+    this.propertyNameSet = new HashSet<>(propertyNames);
+    this.additionalPropertiesAllowed = additionalPropertiesAllowed;
+    this.fallback = fallback;
+  }
+
+  /** @return null if the schema uses any keyword not supported by the fast path. */
+  static SimpleSchemaValidator compile(JsonNode schema, ParameterValidator fallback) {
+    if (schema == null || !schema.isObject() || !ROOT_KEYWORDS.containsAll(fieldNames(schema))) {
+      return null;
+    }
+    JsonNode type = schema.get("type");
+    if (type != null && !"object".equals(type.textValue())) {
+      return null;
+    }
+    List<String> requiredNames = new ArrayList<>();
+    JsonNode required = schema.get("required");
+    if (required != null) {
+      if (!required.isArray()) {
+        return null;
+      }
+      for (JsonNode name : required) {
+        if (!name.isTextual()) {
+          return null;
+        }
+        requiredNames.add(name.textValue());
+      }
+    }
+    List<String> propertyNames = new ArrayList<>();
+    List<Rule> propertyRules = new ArrayList<>();
+    JsonNode properties = schema.get("properties");
+    if (properties != null) {
+      if (!properties.isObject()) {
+        return null;
+      }
+      Iterator<Map.Entry<String, JsonNode>> fields = properties.fields();
+      while (fields.hasNext()) {
+        Map.Entry<String, JsonNode> field = fields.next();
+        Rule rule = Rule.compile(field.getValue());
+        if (rule == null) {
+          return null;
+        }
+        propertyNames.add(field.getKey());
+        propertyRules.add(rule);
+      }
+    }
+    JsonNode additionalProperties = schema.get("additionalProperties");
+    if (additionalProperties != null && !additionalProperties.isBoolean()) {
+      return null;
+    }
+    return new SimpleSchemaValidator(
+        requiredNames,
+        propertyNames,
+        propertyRules,
+        additionalProperties == null || additionalProperties.booleanValue(),
+        fallback);
+  }
+
+  private static List<String> fieldNames(JsonNode node) {
+    List<String> names = new ArrayList<>(node.size());
+    node.fieldNames().forEachRemaining(names::add);
+    return names;
+  }
+
+  @Override
+  public List<String> validate(JsonNode parameters) {
+    boolean passed;
+    try {
+      passed = parameters != null && parameters.isObject() && passes(parameters);
+    } catch (RuntimeException e) {
+      // e.g. NaN can not be compared as decimal, let networknt decide
+      passed = false;
+    }
+    return passed ? Collections.emptyList() : fallback.validate(parameters);
+  }
+
+  private boolean passes(JsonNode parameters) {
+    for (String name : requiredNames) {
+      if (parameters.get(name) == null) {
+        return false;
+      }
+    }
+    for (int i = 0; i < propertyNames.length; i++) {
+      JsonNode value = parameters.get(propertyNames[i]);
+      if (value != null && !propertyRules[i].passes(value)) {
+        return false;
+      }
+    }
+    if (!additionalPropertiesAllowed) {
+      Iterator<String> names = parameters.fieldNames();
+      while (names.hasNext()) {
+        if (!propertyNameSet.contains(names.next())) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private enum Type {
+    INTEGER,
+    NUMBER,
+    STRING,
+    BOOLEAN,
+    ARRAY;
+
+    boolean matches(JsonNode node) {
+      switch (this) {
+        case INTEGER:
+          return node.isIntegralNumber();
+        case NUMBER:
+          return node.isNumber();
+        case STRING:
+          return node.isTextual();
+        case BOOLEAN:
+          return node.isBoolean();
+        case ARRAY:
+          return node.isArray();
+        default:
+          return false;
+      }
+    }
+  }
+
+  private static final class Rule {
+
+    private Type type;
+    private JsonNode[] enumValues;
+    private Bound minimum;
+    private Bound maximum;
+    private int minLength = -1;
+    private int maxLength = -1;
+    private Rule items;
+
+    static Rule compile(JsonNode schema) {
+      if (!schema.isObject() || !PROPERTY_KEYWORDS.containsAll(fieldNames(schema))) {
+        return null;
+      }
+      Rule rule = new Rule();
+      JsonNode type = schema.get("type");
+      if (type != null) {
+        if (!type.isTextual()) {
+          return null;
+        }
+        switch (type.textValue()) {
+          case "integer":
+            rule.type = Type.INTEGER;
+            break;
+          case "number":
+            rule.type = Type.NUMBER;
+            break;
+          case "string":
+            rule.type = Type.STRING;
+            break;
+          case "boolean":
+            rule.type = Type.BOOLEAN;
+            break;
+          case "array":
+            rule.type = Type.ARRAY;
+            break;
+          default:
+            return null;
+        }
+      }
+      JsonNode enumValues = schema.get("enum");
+      if (enumValues != null) {
+        if (!enumValues.isArray()) {
+          return null;
+        }
+        rule.enumValues = new JsonNode[enumValues.size()];
+        for (int i = 0; i < enumValues.size(); i++) {
+          rule.enumValues[i] = enumValues.get(i);
+        }
+      }
+      JsonNode minimum = schema.get("minimum");
+      JsonNode exclusiveMinimum = schema.get("exclusiveMinimum");
+      JsonNode maximum = schema.get("maximum");
+      JsonNode exclusiveMaximum = schema.get("exclusiveMaximum");
+      if ((minimum != null && !minimum.isNumber())
+          || (maximum != null && !maximum.isNumber())
+          || (exclusiveMinimum != null && !exclusiveMinimum.isBoolean())
+          || (exclusiveMaximum != null && !exclusiveMaximum.isBoolean())) {
+        return null;
+      }
+      if (minimum != null) {
+        rule.minimum =
+            new Bound(minimum, exclusiveMinimum != null && exclusiveMinimum.booleanValue());
+      }
+      if (maximum != null) {
+        rule.maximum =
+            new Bound(maximum, exclusiveMaximum != null && exclusiveMaximum.booleanValue());
+      }
+      JsonNode minLength = schema.get("minLength");
+      JsonNode maxLength = schema.get("maxLength");
+      if ((minLength != null && !minLength.canConvertToInt())
+          || (maxLength != null && !maxLength.canConvertToInt())) {
+        return null;
+      }
+      rule.minLength = minLength == null ? -1 : minLength.intValue();
+      rule.maxLength = maxLength == null ? -1 : maxLength.intValue();
+      JsonNode items = schema.get("items");
+      if (items != null && (rule.items = compile(items)) == null) {
+        return null;
+      }
+      return rule;
+    }
+
+    boolean passes(JsonNode node) {
+      if (type != null && !type.matches(node)) {
+        return false;
+      }
+      if (enumValues != null && !inEnum(node)) {
+        return false;
+      }
+      if (node.isNumber()) {
+        if (minimum != null && minimum.compareTo(node) > 0) {
+          return false;
+        }
+        if (maximum != null && maximum.compareTo(node) < 0) {
+          return false;
+        }
+        if (minimum != null && minimum.exclusive && minimum.compareTo(node) == 0) {
+          return false;
+        }
+        if (maximum != null && maximum.exclusive && maximum.compareTo(node) == 0) {
+          return false;
+        }
+      }
+      if (node.isTextual() && (minLength >= 0 || maxLength >= 0)) {
+        String text = node.textValue();
+        int length = text.codePointCount(0, text.length());
+        if ((minLength >= 0 && length < minLength) || (maxLength >= 0 && length > maxLength)) {
+          return false;
+        }
+      }
+      if (items != null && node.isArray()) {
+        for (int i = 0; i < node.size(); i++) {
+          if (!items.passes(node.get(i))) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+
+    private boolean inEnum(JsonNode node) {
+      // networknt compares numbers by their decimal value, leave them to the fallback
+      if (node.isNumber()) {
+        return false;
+      }
+      for (JsonNode enumValue : enumValues) {
+        if (enumValue.equals(node)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  private static final class Bound {
+
+    private final boolean exclusive;
+    private final boolean integral;
+    private final long longValue;
+    private final BigDecimal decimalValue;
+
+    Bound(JsonNode value, boolean exclusive) {
+      this.exclusive = exclusive;
+      this.integral = value.isIntegralNumber() && value.canConvertToLong();
+      this.longValue = value.longValue();
+      this.decimalValue = value.decimalValue();
+    }
+
+    /** Compares this bound with a number node, allocates only for non-integral values. */
+    int compareTo(JsonNode node) {
+      if (integral && node.isIntegralNumber() && node.canConvertToLong()) {
+        return Long.compare(longValue, node.longValue());
+      }
+      return decimalValue.compareTo(node.decimalValue());
+    }
+  }
+}
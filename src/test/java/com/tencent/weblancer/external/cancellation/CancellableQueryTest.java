@@ -0,0 +1,208 @@
+package com.tencent.weblancer.external.cancellation;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.tencent.weblancer.external.JacksonBindingConfiguration;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.LocalCacheScope;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author fishzhao
+ * @since 2021-03-27
+ */
+public class CancellableQueryTest {
+
+  private static final String URL = "jdbc:h2:mem:cancellable-query;DB_CLOSE_DELAY=-1";
+  // runs for minutes unless it is cancelled
+  private static final String SLOW_SQL =
+      "select count(*) c from system_range(1, 1000000000000) where mod(x, 7) = 7";
+  private static final String FAST_SQL = "select 1 c";
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final ExecutorService worker = Executors.newSingleThreadExecutor();
+  // counted down once a statement is registered and about to execute
+  private final CountDownLatch parameterized = new CountDownLatch(1);
+  private HikariDataSource dataSource;
+  private SqlSessionFactory sqlSessionFactory;
+
+  @Before
+  public void setUp() {
+    HikariConfig config = new HikariConfig();
+    config.setJdbcUrl(URL);
+    config.setMaximumPoolSize(1);
+    config.setConnectionTimeout(1000);
+    dataSource = new HikariDataSource(config);
+    JacksonBindingConfiguration configuration =
+        new JacksonBindingConfiguration(
+            new Environment("h2", new JdbcTransactionFactory(), dataSource), objectMapper);
+    // every select is executed, none is answered by the session cache
+    configuration.setLocalCacheScope(LocalCacheScope.STATEMENT);
+    addSelect(configuration, "slow", SLOW_SQL);
+    addSelect(configuration, "fast", FAST_SQL);
+    // the later interceptor is called first, so the statement is registered before the latch
+    configuration.addInterceptor(new Parameterized());
+    configuration.addInterceptor(new StatementCancellationInterceptor());
+    sqlSessionFactory = new SqlSessionFactoryBuilder().build(configuration);
+  }
+
+  @After
+  public void tearDown() {
+    worker.shutdownNow();
+    dataSource.close();
+  }
+
+  @Test
+  public void cancelRunningQuery() throws Exception {
+    CancellableQuery query = new CancellableQuery();
+    Future<List<String>> failures =
+        worker.submit(
+            () -> {
+              List<String> messages = new ArrayList<>();
+              try (SqlSession session = sqlSessionFactory.openSession()) {
+                query.run(
+                    () -> {
+                      for (String stmtId : new String[] {"slow", "fast"}) {
+                        try {
+                          session.selectList(stmtId);
+                        } catch (PersistenceException e) {
+                          messages.add(stmtId + ": " + e.getCause().getMessage());
+                        }
+                      }
+                      return null;
+                    });
+              }
+              return messages;
+            });
+    assertTrue(parameterized.await(10, TimeUnit.SECONDS));
+    // let the statement start executing
+    Thread.sleep(200);
+    query.cancel();
+    assertTrue(query.isCancelled());
+
+    List<String> messages = failures.get(10, TimeUnit.SECONDS);
+    assertEquals(messages.toString(), 2, messages.size());
+    assertTrue(messages.get(0), messages.get(0).startsWith("slow: Statement was canceled"));
+    // hikari closes the connection of a cancelled statement, the statement after fails either way
+    assertTrue(messages.get(1), messages.get(1).startsWith("fast: "));
+
+    // the only connection is back to the pool, or replaced by a new one
+    assertEquals(0, dataSource.getHikariPoolMXBean().getActiveConnections());
+    try (SqlSession session = sqlSessionFactory.openSession()) {
+      assertEquals(1, session.<ObjectNode>selectList("fast").size());
+    }
+  }
+
+  @Test
+  public void failStatementsAfterCancel() {
+    CancellableQuery query = new CancellableQuery();
+    // the reused statement is prepared once only, but still registered for every execution
+    try (SqlSession session = sqlSessionFactory.openSession(ExecutorType.REUSE)) {
+      query.run(
+          () -> {
+            session.selectList("fast");
+            query.cancel();
+            try {
+              session.selectList("fast");
+              fail();
+            } catch (PersistenceException e) {
+              assertEquals("query cancelled", e.getCause().getMessage());
+            }
+            return null;
+          });
+    }
+    assertEquals(0, dataSource.getHikariPoolMXBean().getActiveConnections());
+  }
+
+  @Test
+  public void cancelBeforeRunning() {
+    CancellableQuery query = new CancellableQuery();
+    query.cancel();
+    try {
+      query.run(() -> 1);
+      fail();
+    } catch (CancellationException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void registerOnlyInsideRun() {
+    CancellableQuery query = new CancellableQuery();
+    try (SqlSession session = sqlSessionFactory.openSession()) {
+      assertEquals(1, (int) query.run(() -> session.selectList("fast").size()));
+      query.cancel();
+      // not a statement of the cancelled query
+      assertEquals(1, session.selectList("fast").size());
+    }
+  }
+
+  private static void addSelect(
+      JacksonBindingConfiguration configuration, String stmtId, String sql) {
+    configuration.addMappedStatement(
+        new MappedStatement.Builder(
+                configuration,
+                stmtId,
+                configuration
+                    .getLanguageRegistry()
+                    .getDefaultDriver()
+                    .createSqlSource(configuration, sql, ObjectNode.class),
+                SqlCommandType.SELECT)
+            .resultMaps(
+                Collections.singletonList(
+                    new ResultMap.Builder(
+                            configuration,
+                            stmtId + "-resultMap",
+                            ObjectNode.class,
+                            Collections.emptyList())
+                        .build()))
+            .build());
+  }
+
+  @Intercepts(
+      @Signature(
+          type = StatementHandler.class,
+          method = "parameterize",
+          args = {Statement.class}))
+  private final class Parameterized implements Interceptor {
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+      parameterized.countDown();
+      return invocation.proceed();
+    }
+  }
+}
@@ -0,0 +1,136 @@
+package com.tencent.weblancer.external.resultset;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.tencent.weblancer.external.JacksonBindingConfiguration;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Rows written straight from the result set are serialized the same as the rows mapped by MyBatis.
+ *
+ * @author fishzhao
+ * @since 2021-03-27
+ */
+public class RowsResultSetWriterTest {
+
+  private static final String URL = "jdbc:h2:mem:rows-result-set-writer;DB_CLOSE_DELAY=-1";
+  private static final String STMT_ID = "rows";
+
+  private static Connection keepAlive;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  @BeforeClass
+  public static void populate() throws SQLException {
+    keepAlive = DriverManager.getConnection(URL);
+    try (Statement statement = keepAlive.createStatement()) {
+      statement.execute("create table t(a int, b varchar(16), d decimal(8, 2), c array)");
+      statement.execute(
+          "insert into t values(1, 'x', 1.50, null), (2, null, null, (1, 2)),"
+              + " (null, null, null, null)");
+    }
+  }
+
+  @AfterClass
+  public static void close() throws SQLException {
+    keepAlive.close();
+  }
+
+  @Test
+  public void rowsOfSeveralColumns() throws IOException {
+    // null values are left out, a row of null values is null
+    assertSameAsMapped(
+        "select a, b, d from t", "[{\"A\":1,\"B\":\"x\",\"D\":1.50},{\"A\":2},null]");
+    // a label is read from its first column
+    assertSameAsMapped("select b as a, a from t", "[{\"A\":\"x\"},null,null]");
+  }
+
+  @Test
+  public void rowsOfSingleColumn() throws IOException {
+    assertSameAsMapped("select b from t", "[\"x\",null,null]");
+    assertSameAsMapped("select d from t", "[1.50,null,null]");
+    assertSameAsMapped("select a from t where a is null", "[null]");
+  }
+
+  @Test
+  public void rowsOfUnmappedColumns() throws IOException {
+    // the array column has no type handler, it is left out the same as a null value
+    assertSameAsMapped("select c from t", "[null,null,null]");
+    assertSameAsMapped("select a, c from t", "[{\"A\":1},{\"A\":2},null]");
+    // the first column of the label is unmapped, the later one is never read
+    assertSameAsMapped("select c as a, a from t", "[null,null,null]");
+  }
+
+  private void assertSameAsMapped(String sql, String expected) throws IOException {
+    SqlSessionFactory sqlSessionFactory = createSqlSessionFactory(sql);
+    ResultSetShapes shapes = new ResultSetShapes();
+    try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
+      String mapped =
+          objectMapper.writeValueAsString(
+              sqlSession.selectList(STMT_ID, objectMapper.createObjectNode()));
+      assertEquals(expected, mapped);
+      // the second time with the shape already known
+      for (int i = 0; i < 2; i++) {
+        StringWriter written = new StringWriter();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(written)) {
+          sqlSession.select(
+              STMT_ID,
+              objectMapper.createObjectNode(),
+              new RowsResultSetWriter(generator, shapes));
+        }
+        assertEquals(mapped, written.toString());
+      }
+    }
+  }
+
+  private SqlSessionFactory createSqlSessionFactory(String sql) {
+    JacksonBindingConfiguration configuration =
+        new JacksonBindingConfiguration(
+            new Environment(
+                "h2",
+                new JdbcTransactionFactory(),
+                new UnpooledDataSource("org.h2.Driver", URL, null, null)),
+            objectMapper);
+    configuration.addMappedStatement(
+        new MappedStatement.Builder(
+                configuration,
+                STMT_ID,
+                configuration
+                    .getLanguageRegistry()
+                    .getDefaultDriver()
+                    .createSqlSource(configuration, sql, ObjectNode.class),
+                SqlCommandType.SELECT)
+            .resultMaps(
+                Collections.singletonList(
+                    new ResultMap.Builder(
+                            configuration,
+                            STMT_ID + "-resultMap",
+                            ObjectNode.class,
+                            Collections.emptyList())
+                        .build()))
+            .build());
+    return new SqlSessionFactoryBuilder().build(configuration);
+  }
+}
@@ -0,0 +1,197 @@
+package com.tencent.weblancer.web.handler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.tencent.weblancer.external.JacksonBindingConfiguration;
+import com.tencent.weblancer.external.scripting.UnionAllSqlSource;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Rows of every parameter set of a batch are the same as the rows of a single request.
+ *
+ * @author fishzhao
+ * @since 2021-03-27
+ */
+public class BatchQueryExecutorTest {
+
+  private static final String URL = "jdbc:h2:mem:batch-query-executor;DB_CLOSE_DELAY=-1";
+  private static final String STMT_ID = "batch";
+
+  private static Connection keepAlive;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final List<String> queriedStmtIds = new ArrayList<>();
+
+  @BeforeClass
+  public static void populate() throws SQLException {
+    keepAlive = DriverManager.getConnection(URL);
+    try (Statement statement = keepAlive.createStatement()) {
+      statement.execute("create table t(g int, a int, b varchar(16), c array)");
+      statement.execute(
+          "insert into t values(1, 1, 'x', null), (1, 2, null, null), (1, null, null, null),"
+              + " (2, null, 'y', null), (3, null, null, (1, 2))");
+    }
+  }
+
+  @AfterClass
+  public static void close() throws SQLException {
+    keepAlive.close();
+  }
+
+  @Before
+  public void clear() {
+    queriedStmtIds.clear();
+  }
+
+  @Test
+  public void rowsOfSeveralColumns() {
+    // a row of one non-null value stays an object, a row of null values is null
+    assertSameAsSingle(
+        "select a, b from t where g = #{g}", "[{\"A\":1,\"B\":\"x\"},{\"A\":2},null]");
+  }
+
+  @Test
+  public void rowsOfSingleColumn() {
+    assertSameAsSingle("select b from t where g = #{g}", "[\"x\",null,null]");
+    assertSameAsSingle("select a from t where g = #{g}", "[1,2,null]");
+  }
+
+  @Test
+  public void rowsOfUnmappedColumns() {
+    // the array column has no type handler, it is left out the same as a null value
+    assertSameAsSingle("select c from t where g = #{g}", "[null,null,null]");
+    assertSameAsSingle("select a, c from t where g = #{g}", "[{\"A\":1},{\"A\":2},null]");
+  }
+
+  @Test
+  public void fallBackOneByOne() {
+    // duplicated columns are not allowed in the derived table of the union
+    assertSameAsSingle(
+        "select a, a from t where g = #{g}",
+        "[{\"A\":1},{\"A\":2},null]",
+        STMT_ID + UnionAllSqlSource.STMT_ID_SUFFIX,
+        STMT_ID,
+        STMT_ID,
+        STMT_ID,
+        STMT_ID);
+  }
+
+  private void assertSameAsSingle(String sql, String rowsOfFirst) {
+    assertSameAsSingle(sql, rowsOfFirst, STMT_ID + UnionAllSqlSource.STMT_ID_SUFFIX);
+  }
+
+  private void assertSameAsSingle(String sql, String rowsOfFirst, String... stmtIds) {
+    queriedStmtIds.clear();
+    SqlSessionFactory sqlSessionFactory = createSqlSessionFactory(sql);
+    List<ObjectNode> params = params(1, 2, 3, 4);
+    ArrayNode[] rows = new ArrayNode[params.size()];
+    Throwable[] failures = new Throwable[params.size()];
+    new BatchQueryExecutor(sqlSessionFactory, STMT_ID, objectMapper.getNodeFactory())
+        .execute(params, rows, failures);
+    assertEquals(Arrays.asList(stmtIds), queriedStmtIds);
+    assertEquals(rowsOfFirst, rows[0].toString());
+    try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
+      for (int i = 0; i < params.size(); i++) {
+        assertNull(failures[i]);
+        List<JsonNode> single = sqlSession.selectList(STMT_ID, params.get(i));
+        assertEquals(objectMapper.valueToTree(single), rows[i]);
+      }
+    }
+  }
+
+  private List<ObjectNode> params(int... groups) {
+    List<ObjectNode> params = new ArrayList<>();
+    for (int group : groups) {
+      params.add(objectMapper.createObjectNode().put("g", group));
+    }
+    return params;
+  }
+
+  /** The same statements as {@code HttpRequestHandlerBuilder} of an interface with the sql. */
+  private SqlSessionFactory createSqlSessionFactory(String sql) {
+    JacksonBindingConfiguration configuration =
+        new JacksonBindingConfiguration(
+            new Environment(
+                "h2",
+                new JdbcTransactionFactory(),
+                new UnpooledDataSource("org.h2.Driver", URL, null, null)),
+            objectMapper);
+    MappedStatement mappedStatement =
+        new MappedStatement.Builder(
+                configuration,
+                STMT_ID,
+                configuration
+                    .getLanguageRegistry()
+                    .getDefaultDriver()
+                    .createSqlSource(configuration, sql, ObjectNode.class),
+                SqlCommandType.SELECT)
+            .resultMaps(
+                Collections.singletonList(
+                    new ResultMap.Builder(
+                            configuration,
+                            STMT_ID + "-resultMap",
+                            ObjectNode.class,
+                            Collections.emptyList())
+                        .build()))
+            .build();
+    configuration.addMappedStatement(mappedStatement);
+    configuration.addMappedStatement(
+        new MappedStatement.Builder(
+                configuration,
+                STMT_ID + UnionAllSqlSource.STMT_ID_SUFFIX,
+                new UnionAllSqlSource(configuration, mappedStatement.getSqlSource()),
+                SqlCommandType.SELECT)
+            .resultMaps(mappedStatement.getResultMaps())
+            .build());
+    configuration.addInterceptor(new QueriedStatements());
+    return new SqlSessionFactoryBuilder().build(configuration);
+  }
+
+  /** Records the ids of the queried statements. */
+  @Intercepts(
+      @Signature(
+          type = Executor.class,
+          method = "query",
+          args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}))
+  private final class QueriedStatements implements Interceptor {
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+      queriedStmtIds.add(((MappedStatement) invocation.getArgs()[0]).getId());
+      return invocation.proceed();
+    }
+  }
+}
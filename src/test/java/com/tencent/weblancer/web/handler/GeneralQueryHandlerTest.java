@@ -0,0 +1,119 @@
+package com.tencent.weblancer.web.handler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.tencent.weblancer.web.HttpRequestHandlerBuilder;
+import com.tencent.weblancer.web.conf.DynamicInterfaceDefinition;
+import com.tencent.weblancer.web.conf.JsonInterfaceDefinition;
+import com.tencent.weblancer.web.repo.DataSourceRegistry;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpMethod;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author fishzhao
+ * @since 2021-03-27
+ */
+public class GeneralQueryHandlerTest {
+
+  private static final String URL = "jdbc:h2:mem:general-query-handler;DB_CLOSE_DELAY=-1";
+  private static final long TIMEOUT_MILLIS = 300;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final DataSourceRegistry dataSourceRegistry = new DataSourceRegistry();
+  private Vertx vertx;
+  private HttpClient client;
+  private int port;
+
+  @Before
+  public void setUp() throws Exception {
+    ObjectNode config = objectMapper.createObjectNode();
+    // a single connection and a single worker, both must be released by the timeout
+    config.put("jdbcUrl", URL).put("maximumPoolSize", 1).put("connectionTimeout", 1000);
+    dataSourceRegistry.registerDataSourceConfig("h2", config);
+    List<DynamicInterfaceDefinition> definitions =
+        Arrays.asList(
+            definition(
+                "/slow",
+                "select count(*) c from system_range(1, 1000000000000) where mod(x, 7) = 7"),
+            definition("/fast", "select 1 c"));
+    vertx = Vertx.vertx();
+    port =
+        await(
+                vertx
+                    .createHttpServer()
+                    .requestHandler(
+                        new HttpRequestHandlerBuilder(vertx, dataSourceRegistry, definitions).get())
+                    .listen(0)
+                    .toCompletionStage()
+                    .toCompletableFuture())
+            .actualPort();
+    client = vertx.createHttpClient();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    await(vertx.close().toCompletionStage().toCompletableFuture());
+    dataSourceRegistry.close();
+  }
+
+  @Test
+  public void cancelQueryOnTimeout() throws Exception {
+    long startNanos = System.nanoTime();
+    JsonNode result = get("/slow", 504);
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    assertEquals(QueryResult.QUERY_TIMEOUT.code, result.path("code").intValue());
+    assertTrue(String.valueOf(elapsedMillis), elapsedMillis >= TIMEOUT_MILLIS);
+
+    // the slow statement is cancelled, so the only worker and connection serve the next query
+    assertEquals("[1]", get("/fast", 200).path("data").toString());
+  }
+
+  private DynamicInterfaceDefinition definition(String uri, String sql) throws IOException {
+    ObjectNode definition = objectMapper.createObjectNode();
+    definition.put("dataSourceId", "h2").put("uri", uri).put("timeoutMillis", TIMEOUT_MILLIS);
+    definition.putArray("sql").add(sql);
+    return objectMapper.treeToValue(definition, JsonInterfaceDefinition.class);
+  }
+
+  private JsonNode get(String uri, int expectedStatus) throws Exception {
+    CompletableFuture<JsonNode> result = new CompletableFuture<>();
+    client
+        .request(HttpMethod.GET, port, "localhost", uri)
+        .compose(request -> request.send())
+        .compose(
+            response -> {
+              assertEquals(uri, expectedStatus, response.statusCode());
+              return response.body();
+            })
+        .onComplete(
+            ar -> {
+              try {
+                if (ar.failed()) {
+                  throw ar.cause();
+                }
+                result.complete(objectMapper.readTree(ar.result().getBytes()));
+              } catch (Throwable e) {
+                result.completeExceptionally(e);
+              }
+            });
+    return await(result);
+  }
+
+  private static <T> T await(CompletableFuture<T> future) throws Exception {
+    return future.get(10, TimeUnit.SECONDS);
+  }
+}
@@ -0,0 +1,153 @@
+package com.tencent.weblancer.web.handler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableSet;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author fishzhao
+ * @since 2021-03-27
+ */
+public class JsonBodyParserTest {
+
+  private static final long MAX_BODY_BYTES = 64;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private Vertx vertx;
+  private HttpClient client;
+  private int port;
+
+  @Before
+  public void setUp() throws Exception {
+    vertx = Vertx.vertx();
+    HttpServer server =
+        vertx
+            .createHttpServer()
+            .requestHandler(
+                request ->
+                    new JsonBodyParser(objectMapper, null)
+                        .read(request, MAX_BODY_BYTES)
+                        .onComplete(
+                            ar -> {
+                              if (ar.succeeded()) {
+                                request.response().end(String.valueOf(ar.result()));
+                              } else if (ar.cause() instanceof BodyTooLargeException) {
+                                request.response().setStatusCode(413).end();
+                              } else {
+                                request.response().setStatusCode(400).end();
+                              }
+                            }));
+    port = await(server.listen(0).toCompletionStage().toCompletableFuture()).actualPort();
+    client = vertx.createHttpClient();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    await(vertx.close().toCompletionStage().toCompletableFuture());
+  }
+
+  @Test
+  public void skipUnusedFields() throws IOException {
+    String body =
+        "{\"skipped\": {\"a\": [1, {\"b\": \"}]\"}, []], \"c\": {}}, \"id\": 1,"
+            + " \"nested\": {\"skipped\": [2], \"x\": 1.5}, \"list\": [{\"skipped\": null}],"
+            + " \"last\": [1, 2]} {\"ignored\": 1}";
+    JsonNode expected =
+        objectMapper.readTree(
+            "{\"id\": 1, \"nested\": {\"skipped\": [2], \"x\": 1.5},"
+                + " \"list\": [{\"skipped\": null}], \"last\": [1, 2]}");
+    Set<String> used = ImmutableSet.of("id", "nested", "list", "last");
+    // only the fields of the root object are skipped, whatever the chunks are
+    for (int chunkSize : new int[] {1, 2, 7, body.length()}) {
+      assertEquals(expected, parse(body, chunkSize, used));
+    }
+    assertEquals(objectMapper.readTree(body), parse(body, 3, null));
+    String array = "[1, {\"skipped\": 2}]";
+    assertEquals(objectMapper.readTree(array), parse(array, 1, used));
+    assertEquals(objectMapper.readTree("\"s\""), parse(" \"s\" 1", 1, used));
+    assertNull(parse(" ", 1, used));
+  }
+
+  @Test
+  public void readBody() throws Exception {
+    assertEquals("200 {\"id\":1}", send("{\"id\": 1}", false));
+    assertEquals("200 {\"id\":1}", send("{\"id\": 1}", true));
+    assertEquals("200 null", send("", false));
+    assertEquals("400 ", send("{\"id\": ", false));
+  }
+
+  @Test
+  public void rejectBodyTooLarge() throws Exception {
+    StringBuilder body = new StringBuilder("{\"skipped\": \"");
+    while (body.length() <= MAX_BODY_BYTES) {
+      body.append('x');
+    }
+    body.append("\"}");
+    // rejected by the content length before the body is read
+    assertEquals("413 ", send(body.toString(), false));
+    // counted while the chunks arrive
+    assertEquals("413 ", send(body.toString(), true));
+  }
+
+  private JsonNode parse(String body, int chunkSize, Set<String> rootFieldNames)
+      throws IOException {
+    JsonBodyParser parser = new JsonBodyParser(objectMapper, rootFieldNames);
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    for (int i = 0; i < bytes.length; i += chunkSize) {
+      parser.feed(Buffer.buffer().appendBytes(bytes, i, Math.min(chunkSize, bytes.length - i)));
+    }
+    return parser.end();
+  }
+
+  /** @return the status and body of the response */
+  private String send(String body, boolean chunked) throws Exception {
+    CompletableFuture<String> result = new CompletableFuture<>();
+    client
+        .request(HttpMethod.POST, port, "localhost", "/")
+        .compose(
+            request -> {
+              if (!chunked) {
+                return request.send(body);
+              }
+              request.setChunked(true);
+              for (int i = 0; i < body.length(); i += 16) {
+                request.write(body.substring(i, Math.min(i + 16, body.length())));
+              }
+              request.end();
+              return request.response();
+            })
+        .compose(
+            response ->
+                response.body().map(buffer -> response.statusCode() + " " + buffer.toString()))
+        .onComplete(
+            ar -> {
+              if (ar.succeeded()) {
+                result.complete(ar.result());
+              } else {
+                result.completeExceptionally(ar.cause());
+              }
+            });
+    return await(result);
+  }
+
+  private static <T> T await(CompletableFuture<T> future) throws Exception {
+    return future.get(10, TimeUnit.SECONDS);
+  }
+}
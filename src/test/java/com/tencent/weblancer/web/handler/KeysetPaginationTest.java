@@ -0,0 +1,212 @@
+package com.tencent.weblancer.web.handler;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.tencent.weblancer.external.JacksonBindingConfiguration;
+import com.tencent.weblancer.web.conf.PaginationDefinition;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.session.Configuration;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * @author fishzhao
+ * @since 2021-03-27
+ */
+public class KeysetPaginationTest {
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final Configuration configuration = new JacksonBindingConfiguration(objectMapper);
+
+  @Test
+  public void wrapPlainScript() {
+    String script =
+        KeysetPagination.wrapScript(
+            "select id, name from t where a < #{a}", pagination(false, "id"));
+    assertEquals(
+        "<script>select * from (select id, name from t where a &lt; #{a}) web_lancer_page"
+            + " <if test=\"_pageCursor0 != null\">where (id &gt; #{_pageCursor0})</if>"
+            + " order by id limit #{_pageLimit}</script>",
+        script);
+
+    BoundSql first = boundSql(script, params("a", 1));
+    assertEquals(
+        "select * from (select id, name from t where a < ?) web_lancer_page order by id limit ?",
+        sql(first));
+    assertEquals(Arrays.asList("a", "_pageLimit"), properties(first));
+
+    ObjectNode params = params("a", 1);
+    params.put("_pageCursor0", 10);
+    BoundSql next = boundSql(script, params);
+    assertEquals(
+        "select * from (select id, name from t where a < ?) web_lancer_page"
+            + " where (id > ?) order by id limit ?",
+        sql(next));
+    assertEquals(Arrays.asList("a", "_pageCursor0", "_pageLimit"), properties(next));
+  }
+
+  @Test
+  public void wrapScriptTag() {
+    String script =
+        KeysetPagination.wrapScript(
+            "<script>select * from t <where><if test=\"a != null\">a &lt; #{a}</if></where>"
+                + "</script>",
+            pagination(false, "id"));
+    assertEquals(
+        "<script>select * from (select * from t <where><if test=\"a != null\">a &lt; #{a}</if>"
+            + "</where>) web_lancer_page"
+            + " <if test=\"_pageCursor0 != null\">where (id &gt; #{_pageCursor0})</if>"
+            + " order by id limit #{_pageLimit}</script>",
+        script);
+
+    assertEquals(
+        "select * from (select * from t WHERE a < ? ) web_lancer_page order by id limit ?",
+        sql(boundSql(script, params("a", 1))));
+    assertEquals(
+        "select * from (select * from t ) web_lancer_page order by id limit ?",
+        sql(boundSql(script, objectMapper.createObjectNode())));
+  }
+
+  @Test
+  public void escapePlainScript() {
+    // a plain script is text, an xml special character in it is not markup
+    String script =
+        KeysetPagination.wrapScript(
+            "select * from t where name <> '&' and a <= #{a}", pagination(false, "id"));
+    assertEquals(
+        "select * from (select * from t where name <> '&' and a <= ?) web_lancer_page"
+            + " order by id limit ?",
+        sql(boundSql(script, params("a", 1))));
+  }
+
+  @Test
+  public void wrapDescendingColumns() {
+    String script =
+        KeysetPagination.wrapScript("select * from t", pagination(true, "a", "b", "c"));
+    ObjectNode params = objectMapper.createObjectNode();
+    params.put("_pageCursor0", 1).put("_pageCursor1", 2).put("_pageCursor2", 3);
+    BoundSql boundSql = boundSql(script, params);
+    assertEquals(
+        "select * from (select * from t) web_lancer_page where (a < ?)"
+            + " or (a = ? and b < ?) or (a = ? and b = ? and c < ?)"
+            + " order by a desc, b desc, c desc limit ?",
+        sql(boundSql));
+    assertEquals(
+        Arrays.asList(
+            "_pageCursor0",
+            "_pageCursor0",
+            "_pageCursor1",
+            "_pageCursor0",
+            "_pageCursor1",
+            "_pageCursor2",
+            "_pageLimit"),
+        properties(boundSql));
+  }
+
+  @Test
+  public void bindAndEncodeCursor() {
+    KeysetPagination pagination =
+        new KeysetPagination(
+            new PaginationDefinition(Arrays.asList("ID", "name"), false, 2, 5), objectMapper);
+    ObjectNode params = params("a", 1);
+    params.put("pageSize", "3").put("_pageCursor0", 99);
+    pagination.bind(params);
+    // the first page, a cursor value sent by the client is dropped
+    assertEquals("{\"a\":1,\"_pageLimit\":4}", params.toString());
+    assertEquals(3, pagination.pageSize(params));
+
+    ArrayNode rows = objectMapper.createArrayNode();
+    for (int i = 1; i <= 4; i++) {
+      rows.addObject().put("ID", i).put("NAME", "n" + i);
+    }
+    String cursor = pagination.nextCursor(params, rows);
+    assertEquals(3, rows.size());
+
+    ObjectNode nextParams = params("cursor", cursor);
+    pagination.bind(nextParams);
+    assertEquals(
+        "{\"_pageLimit\":3,\"_pageCursor0\":3,\"_pageCursor1\":\"n3\"}", nextParams.toString());
+    rows.remove(0);
+    assertNull(pagination.nextCursor(nextParams, rows));
+  }
+
+  @Test
+  public void rejectIllegalDefinitions() {
+    expectIllegal(() -> pagination(false));
+    expectIllegal(() -> pagination(false, "id; drop table t"));
+    expectIllegal(() -> pagination(false, "id", "id"));
+    expectIllegal(
+        () ->
+            new KeysetPagination(
+                new PaginationDefinition(Arrays.asList("id"), false, 0, 0), objectMapper));
+    expectIllegal(
+        () ->
+            new KeysetPagination(
+                new PaginationDefinition(Arrays.asList("id"), false, 10, 5), objectMapper));
+  }
+
+  @Test
+  public void rejectIllegalRequests() {
+    KeysetPagination pagination = new KeysetPagination(pagination(false, "a", "b"), objectMapper);
+    expectIllegal(() -> pagination.bind(params("pageSize", 0)));
+    expectIllegal(() -> pagination.bind(params("pageSize", 11)));
+    expectIllegal(() -> pagination.bind(params("pageSize", "x")));
+    expectIllegal(() -> pagination.bind(params("cursor", "!!")));
+    // the cursor of another interface with a single column
+    expectIllegal(() -> pagination.bind(params("cursor", "WzFd")));
+    // [1,{}]
+    expectIllegal(() -> pagination.bind(params("cursor", "WzEse31d")));
+  }
+
+  private PaginationDefinition pagination(boolean descending, String... columns) {
+    PaginationDefinition definition =
+        new PaginationDefinition(Arrays.asList(columns), descending, 10, 0);
+    definition.validate();
+    return definition;
+  }
+
+  private BoundSql boundSql(String script, ObjectNode params) {
+    return configuration
+        .getLanguageRegistry()
+        .getDefaultDriver()
+        .createSqlSource(configuration, script, ObjectNode.class)
+        .getBoundSql(params);
+  }
+
+  /** @return the sql of {@code boundSql}, the spaces left by the dynamic tags are collapsed */
+  private static String sql(BoundSql boundSql) {
+    return boundSql.getSql().trim().replaceAll("\\s+", " ");
+  }
+
+  private static List<String> properties(BoundSql boundSql) {
+    return boundSql.getParameterMappings().stream()
+        .map(ParameterMapping::getProperty)
+        .collect(Collectors.toList());
+  }
+
+  private ObjectNode params(String name, int value) {
+    return objectMapper.createObjectNode().put(name, value);
+  }
+
+  private ObjectNode params(String name, String value) {
+    return objectMapper.createObjectNode().put(name, value);
+  }
+
+  private static void expectIllegal(Runnable runnable) {
+    try {
+      runnable.run();
+      fail("IllegalArgumentException is expected");
+    } catch (IllegalArgumentException expected) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,125 @@
+package com.tencent.weblancer.web.handler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.tencent.weblancer.web.conf.JsonInterfaceDefinition;
+import io.vertx.core.buffer.Buffer;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author fishzhao
+ * @since 2021-03-27
+ */
+public class ParameterResolverTest {
+
+  private static final String SCHEMA =
+      "{'type': 'object', 'properties': {"
+          + "'id': {'type': 'integer'}, 'price': {'type': 'number'},"
+          + " 'active': {'type': 'boolean'}, 'name': {'type': 'string'},"
+          + " 'ids': {'type': 'array', 'items': {'type': 'integer'}}}}";
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  @Test
+  public void coerceQueryValues() throws IOException {
+    ParameterResolver resolver = resolver("select * from t where id = #{id}", SCHEMA);
+    ObjectNode params =
+        resolver.resolveQueryString("id=3&price=4294967296&active=true&name=007&ids=1&big=2&id2=x");
+    assertEquals(
+        json("{'id': 3, 'price': 4294967296, 'active': true, 'name': '007', 'ids': [1]}"), params);
+    assertTrue(params.get("id").isInt());
+    assertTrue(params.get("price").isLong());
+
+    params = resolver.resolveQueryString("price=1.5&ids=1&ids=2");
+    assertTrue(params.get("price").isDouble());
+    assertEquals(json("{'price': 1.5, 'ids': [1, 2]}"), params);
+
+    // values not of the declared type are left to the validation
+    assertEquals(
+        json("{'id': '1.5', 'price': 'x', 'active': 'yes', 'ids': ['a']}"),
+        resolver.resolveQueryString("id=1.5&price=x&active=yes&ids=a"));
+    assertEquals(
+        json("{'name': ['a b', 'c']}"), resolver.resolveQueryString("name=a+b;name=%63&name="));
+  }
+
+  @Test
+  public void coerceQueryValuesAsJsonBody() throws IOException {
+    ParameterResolver resolver = resolver("select * from t where id = #{id}", SCHEMA);
+    assertEquals(
+        resolver.resolve(null, body("{'id': 3, 'price': 1.5, 'active': false, 'ids': [1, 2]}")),
+        resolver.resolveQueryString("id=3&price=1.5&active=false&ids=1&ids=2"));
+  }
+
+  @Test
+  public void keepUsedNames() throws IOException {
+    // onlyFlag is referred to only by the test of the if element
+    ParameterResolver resolver =
+        resolver(
+            "<script>select * from t where id = #{id}"
+                + "<if test=\"onlyFlag\"> and status = 1</if></script>",
+            "{'properties': {'name': {'type': 'string'}}, 'required': ['code']}");
+    assertEquals(
+        json("{'id': '1', 'onlyFlag': 'true', 'name': 'a', 'code': 'c'}"),
+        resolver.resolveQueryString("id=1&onlyFlag=true&name=a&code=c&unused=x"));
+    assertEquals(
+        json("{'id': 1, 'onlyFlag': true, 'name': 'a', 'code': 'c'}"),
+        resolver.resolve(
+            null, body("{'unused': 0, 'id': 1, 'onlyFlag': true, 'name': 'a', 'code': 'c'}")));
+
+    ObjectNode parameters = objectMapper.createObjectNode();
+    resolver.putFields(parameters, (ObjectNode) json("{'onlyFlag': false, 'unused': 1}"));
+    assertEquals(json("{'onlyFlag': false}"), parameters);
+  }
+
+  @Test
+  public void keepEveryName() throws IOException {
+    // the sql refers to the whole parameter object
+    assertEquals(
+        json("{'id': '1', 'unused': 'x'}"),
+        resolver("select * from t where id = #{_parameter.id}", null)
+            .resolveQueryString("id=1&unused=x"));
+    // the schema depends on the fields it does not declare
+    assertEquals(
+        json("{'id': '1', 'unused': 'x'}"),
+        resolver(
+                "select * from t where id = #{id}",
+                "{'properties': {'id': {'type': 'string'}}, 'additionalProperties': false}")
+            .resolveQueryString("id=1&unused=x"));
+  }
+
+  @Test
+  public void rejectBodyOtherThanObject() throws IOException {
+    ParameterResolver resolver = resolver("select * from t where id = #{id}", null);
+    try {
+      resolver.resolve(null, Buffer.buffer("[1]"));
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  private ParameterResolver resolver(String sql, String schema) throws IOException {
+    ObjectNode definition = objectMapper.createObjectNode();
+    definition.put("dataSourceId", "ds").put("uri", "/t").putArray("sql").add(sql);
+    if (schema != null) {
+      definition.set("parameterValidation", json(schema));
+    }
+    return ParameterResolver.compile(
+        objectMapper.treeToValue(definition, JsonInterfaceDefinition.class), objectMapper);
+  }
+
+  private static Buffer body(String json) {
+    return Buffer.buffer(json.replace('\'', '"'));
+  }
+
+  private JsonNode json(String json) throws IOException {
+    return objectMapper.readTree(json.replace('\'', '"'));
+  }
+}
@@ -0,0 +1,249 @@
+package com.tencent.weblancer.web.handler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.DecimalNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.tencent.weblancer.external.JacksonBindingConfiguration;
+import com.tencent.weblancer.web.conf.BatchWindowDefinition;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.type.JdbcType;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author fishzhao
+ * @since 2021-03-27
+ */
+public class QueryBatcherTest {
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final Configuration configuration = new JacksonBindingConfiguration(objectMapper);
+  private final AtomicInteger loadCount = new AtomicInteger();
+
+  @Test
+  public void rewritePlainScript() {
+    String script =
+        QueryBatcher.rewriteScript(
+            "select id, name from t where id = #{id} and status <> 'x'", window("id"));
+    assertEquals(
+        "<script>select id, name from t where id in <foreach collection=\"_windowKeys\""
+            + " item=\"_windowKey\" open=\"(\" separator=\", \" close=\")\">#{_windowKey}"
+            + "</foreach> and status &lt;&gt; 'x'</script>",
+        script);
+    BoundSql boundSql = boundSql(script, 1, 2, 3);
+    assertEquals(
+        "select id, name from t where id in ( ? , ? , ? ) and status <> 'x'", sql(boundSql));
+  }
+
+  @Test
+  public void rewriteScriptTag() {
+    String script =
+        QueryBatcher.rewriteScript(
+            "<script>select * from t <where><if test=\"a != null\">a &lt; #{a}</if>"
+                + " and t.uid = #{uid}</where></script>",
+            window("uid"));
+    ObjectNode params = windowParams(7, 8);
+    params.put("a", 1);
+    assertEquals(
+        "select * from t WHERE a < ? and t.uid in (?, ?)", sql(boundSql(script, params)));
+  }
+
+  @Test
+  public void passOptionsThrough() {
+    String script =
+        QueryBatcher.rewriteScript(
+            "select id from t where id = #{ id , jdbcType=BIGINT}", window("id"));
+    BoundSql boundSql = boundSql(script, 1, 2);
+    assertEquals("select id from t where id in ( ? , ? )", sql(boundSql));
+    for (ParameterMapping parameterMapping : boundSql.getParameterMappings()) {
+      assertEquals(JdbcType.BIGINT, parameterMapping.getJdbcType());
+    }
+  }
+
+  @Test
+  public void acceptSelectedKeyColumn() {
+    QueryBatcher.rewriteScript("select t.* from t where id = #{id}", window("id"));
+    QueryBatcher.rewriteScript("select x.id as \"ID\" from t x where x.id = #{id}", window("id"));
+    QueryBatcher.rewriteScript(
+        "select uid, count(*) as c from t where uid = #{uid} group by t.uid", window("uid"));
+    QueryBatcher.rewriteScript(
+        "select uid, (select count(*) from s where s.uid = t.uid) c from t where uid = #{uid}",
+        window("uid"));
+    QueryBatcher.rewriteScript(
+        "select name from t where id = #{id}",
+        new BatchWindowDefinition("id", "name", 1, 0));
+  }
+
+  @Test
+  public void rejectIllegalScripts() {
+    expectIllegal("select id from t where id in (#{id})");
+    expectIllegal("select id from t where id = #{id} or parent = #{id}");
+    expectIllegal("select id from t where id = #{id} limit 1");
+    expectIllegal("select id from t where id = #{id} order by id offset 1 rows");
+    // the key column is not in the result
+    expectIllegal("select name from t where id = #{id}");
+    expectIllegal("select t.id as pk, name from t where t.id = #{id}");
+    expectIllegal("select count(id) from t where id = #{id}");
+    // rows of all keys are aggregated together
+    expectIllegal("select id, count(*) from t where id = #{id}");
+    expectIllegal("select id, max(a) from t where id = #{id} group by name");
+    expectIllegal("select id, row_number() over (order by a) from t where id = #{id}");
+  }
+
+  @Test
+  public void splitNumbersNumerically() {
+    ArrayNode rows = objectMapper.createArrayNode();
+    // as mapped from a decimal column, whose scale is kept
+    rows.addObject().put("name", "a").set("ID", DecimalNode.valueOf(new BigDecimal("1.00")));
+    rows.addObject().put("name", "b").set("ID", DecimalNode.valueOf(new BigDecimal("2")));
+    rows.addObject().put("name", "c").set("ID", DecimalNode.valueOf(new BigDecimal("2")));
+    QueryBatcher batcher = batcher(rows, 3, QueryBatcherTest::numericallyEqual);
+    CompletableFuture<ArrayNode> one = batcher.get(objectMapper.createObjectNode().put("id", "1"));
+    CompletableFuture<ArrayNode> two =
+        batcher.get(objectMapper.createObjectNode().put("id", 2.0));
+    CompletableFuture<ArrayNode> oneAgain =
+        batcher.get(objectMapper.createObjectNode().put("id", " 1.0"));
+    assertEquals("[{\"name\":\"a\",\"ID\":1.00}]", one.join().toString());
+    assertEquals(one.join(), oneAgain.join());
+    assertEquals("[b, c]", two.join().findValuesAsText("name").toString());
+    assertEquals(0, batcher.openWindowCount());
+    assertEquals(1, loadCount.get());
+  }
+
+  @Test
+  public void splitTextExactly() {
+    ArrayNode rows = objectMapper.createArrayNode();
+    rows.add("1");
+    QueryBatcher batcher = batcher(rows, 2, JsonNode::equals);
+    CompletableFuture<ArrayNode> one = batcher.get(objectMapper.createObjectNode().put("id", "1"));
+    CompletableFuture<ArrayNode> decimal =
+        batcher.get(objectMapper.createObjectNode().put("id", "1.0"));
+    assertEquals("[\"1\"]", one.join().toString());
+    assertEquals(0, decimal.join().size());
+  }
+
+  @Test
+  public void requeryTextOfCaseInsensitiveCollation() {
+    ArrayNode rows = objectMapper.createArrayNode();
+    rows.addObject().put("id", "abc").put("a", 1);
+    QueryBatcher batcher = batcher(rows, 4, QueryBatcherTest::caseInsensitivePadSpaceEqual);
+    CompletableFuture<ArrayNode> lower =
+        batcher.get(objectMapper.createObjectNode().put("id", "abc"));
+    CompletableFuture<ArrayNode> upper =
+        batcher.get(objectMapper.createObjectNode().put("id", "ABC"));
+    CompletableFuture<ArrayNode> padded =
+        batcher.get(objectMapper.createObjectNode().put("id", "abc "));
+    CompletableFuture<ArrayNode> missing =
+        batcher.get(objectMapper.createObjectNode().put("id", "x"));
+    assertEquals(rows, lower.join());
+    assertEquals(rows, upper.join());
+    assertEquals(rows, padded.join());
+    assertEquals(0, missing.join().size());
+    // the window, then each key without a row of exactly its text
+    assertEquals(4, loadCount.get());
+  }
+
+  @Test
+  public void failWithoutKeyColumn() {
+    ArrayNode rows = objectMapper.createArrayNode();
+    rows.add(2);
+    QueryBatcher batcher = batcher(rows, 1, (rowKey, key) -> true);
+    CompletableFuture<ArrayNode> future =
+        batcher.get(objectMapper.createObjectNode().put("id", 1));
+    assertTrue(future.isCompletedExceptionally());
+  }
+
+  /**
+   * @param equal whether the database takes the key column of a row as equal to a requested key
+   */
+  private QueryBatcher batcher(
+      ArrayNode rows, int maxKeys, BiPredicate<JsonNode, JsonNode> equal) {
+    // the window is full and queried by the last request
+    return new QueryBatcher(
+        new BatchWindowDefinition("id", null, 1000, maxKeys),
+        "stmt",
+        objectMapper,
+        params -> {
+          loadCount.incrementAndGet();
+          ArrayNode windowRows = objectMapper.createArrayNode();
+          for (JsonNode row : rows) {
+            JsonNode rowKey = row.isObject() ? keyOf(row) : row;
+            for (JsonNode key : params.get("_windowKeys")) {
+              if (equal.test(rowKey, key)) {
+                windowRows.add(row);
+                break;
+              }
+            }
+          }
+          return CompletableFuture.completedFuture(windowRows);
+        });
+  }
+
+  /** The key column may be labeled in upper case. */
+  private static JsonNode keyOf(JsonNode row) {
+    return row.has("id") ? row.get("id") : row.get("ID");
+  }
+
+  /** As mysql compares text by a {@code _ci} collation with PAD SPACE. */
+  private static boolean caseInsensitivePadSpaceEqual(JsonNode rowKey, JsonNode key) {
+    return rowKey
+        .asText()
+        .replaceAll(" +$", "")
+        .equalsIgnoreCase(key.asText().replaceAll(" +$", ""));
+  }
+
+  private static boolean numericallyEqual(JsonNode rowKey, JsonNode key) {
+    return rowKey.decimalValue().compareTo(new BigDecimal(key.asText().trim())) == 0;
+  }
+
+  private static BatchWindowDefinition window(String keyParameter) {
+    return new BatchWindowDefinition(keyParameter, null, 1, 0);
+  }
+
+  private ObjectNode windowParams(int... keys) {
+    ObjectNode params = objectMapper.createObjectNode();
+    ArrayNode windowKeys = params.putArray("_windowKeys");
+    for (int key : keys) {
+      windowKeys.add(key);
+    }
+    return params;
+  }
+
+  private BoundSql boundSql(String script, int... keys) {
+    return boundSql(script, windowParams(keys));
+  }
+
+  private BoundSql boundSql(String script, ObjectNode params) {
+    return configuration
+        .getLanguageRegistry()
+        .getDefaultDriver()
+        .createSqlSource(configuration, script, ObjectNode.class)
+        .getBoundSql(params);
+  }
+
+  /** @return the sql of {@code boundSql}, the spaces left by the dynamic tags are collapsed */
+  private static String sql(BoundSql boundSql) {
+    return boundSql.getSql().trim().replaceAll("\\s+", " ");
+  }
+
+  private static void expectIllegal(String script) {
+    try {
+      QueryBatcher.rewriteScript(script, window("id"));
+      fail("IllegalArgumentException is expected: " + script);
+    } catch (IllegalArgumentException expected) {
+      // expected
+    }
+  }
+}
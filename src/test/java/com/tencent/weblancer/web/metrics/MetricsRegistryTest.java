@@ -0,0 +1,66 @@
+package com.tencent.weblancer.web.metrics;
+
+import com.tencent.weblancer.web.handler.QueryResult;
+import com.tencent.weblancer.web.repo.AdaptiveConcurrencyLimit;
+import com.tencent.weblancer.web.repo.DataSourceRegistry;
+import io.vertx.core.http.HttpMethod;
+import org.apache.commons.lang3.tuple.Triple;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author fishzhao
+ * @since 2021-03-27
+ */
+public class MetricsRegistryTest {
+
+  private final DataSourceRegistry dataSourceRegistry = new DataSourceRegistry();
+  private final MetricsRegistry metricsRegistry = new MetricsRegistry(dataSourceRegistry);
+
+  @After
+  public void close() {
+    dataSourceRegistry.close();
+  }
+
+  @Test
+  public void labelMethods() {
+    assertEquals("ANY", MetricsRegistry.methodsLabel(null));
+    assertEquals("ANY", MetricsRegistry.methodsLabel(Collections.emptySet()));
+    assertEquals(
+        "GET,POST",
+        MetricsRegistry.methodsLabel(
+            new LinkedHashSet<>(Arrays.asList(HttpMethod.POST, HttpMethod.GET))));
+  }
+
+  @Test
+  public void separateInterfacesOfSameUri() {
+    metricsRegistry.forInterface("ds", "/a", "GET").recordResult(QueryResult.OK);
+    metricsRegistry.forInterface("ds", "/a", "POST").recordResult(QueryResult.OK);
+    metricsRegistry.forInterface("ds", "/a", "POST").recordResult(QueryResult.OK);
+    metricsRegistry.bindConcurrencyLimit(
+        "ds", "/a", "GET", AdaptiveConcurrencyLimit.fixed("get", 3));
+    metricsRegistry.bindConcurrencyLimit(
+        "ds", "/a", "POST", AdaptiveConcurrencyLimit.fixed("post", 5));
+
+    String scraped = metricsRegistry.scrape();
+    assertTrue(scraped.contains(series("requests_total", "GET") + ",code=\"0\"} 1"));
+    assertTrue(scraped.contains(series("requests_total", "POST") + ",code=\"0\"} 2"));
+    assertTrue(scraped.contains(series("concurrency_limit", "GET") + "} 3"));
+    assertTrue(scraped.contains(series("concurrency_limit", "POST") + "} 5"));
+
+    metricsRegistry.retainInterfaces(Collections.singletonList(Triple.of("ds", "/a", "POST")));
+    assertFalse(metricsRegistry.scrape().contains("method=\"GET\""));
+  }
+
+  private static String series(String name, String method) {
+    return "web_lancer_" + name + "{data_source=\"ds\",uri=\"/a\",method=\"" + method + "\"";
+  }
+}
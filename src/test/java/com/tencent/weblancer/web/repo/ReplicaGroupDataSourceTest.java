@@ -0,0 +1,110 @@
+package com.tencent.weblancer.web.repo;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.After;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author fishzhao
+ * @since 2021-03-27
+ */
+public class ReplicaGroupDataSourceTest {
+
+  private static final String URL = "jdbc:h2:mem:replica-group;DB_CLOSE_DELAY=-1";
+  // fails to connect at once, the database does not exist
+  private static final String UNREACHABLE_URL = "jdbc:h2:mem:missing;IFEXISTS=TRUE";
+  private static final long CONNECTION_TIMEOUT_MILLIS = 1000;
+
+  private final ScheduledExecutorService probeScheduler =
+      Executors.newSingleThreadScheduledExecutor();
+
+  @After
+  public void shutdown() {
+    probeScheduler.shutdownNow();
+  }
+
+  @Test
+  public void keepSaturatedReplica() throws SQLException {
+    try (ReplicaGroupDataSource dataSource =
+            new ReplicaGroupDataSource(
+                "saturated", Arrays.asList(replica(URL, 1, 1)), probeScheduler);
+        Connection ignored = dataSource.getConnection()) {
+      try {
+        dataSource.getConnection().close();
+        fail("the pool is expected to time out");
+      } catch (SQLTransientConnectionException expected) {
+        // expected
+      }
+      assertEquals(true, health(dataSource).get("saturated#0"));
+    }
+  }
+
+  @Test
+  public void ejectUnreachableReplica() throws SQLException {
+    try (ReplicaGroupDataSource dataSource =
+        new ReplicaGroupDataSource(
+            "unreachable",
+            Arrays.asList(replica(UNREACHABLE_URL, 1, 100), replica(URL, 1, 1)),
+            probeScheduler)) {
+      // the unreachable replica is tried first for its weight, then the other one
+      dataSource.getConnection().close();
+      assertEquals(false, health(dataSource).get("unreachable#0"));
+      assertEquals(true, health(dataSource).get("unreachable#1"));
+    }
+  }
+
+  @Test
+  public void skipFullPool() throws SQLException {
+    // the heavier replica has a single connection only
+    try (ReplicaGroupDataSource dataSource =
+            new ReplicaGroupDataSource(
+                "full", Arrays.asList(replica(URL, 1, 10), replica(URL, 2, 1)), probeScheduler);
+        Connection first = dataSource.getConnection()) {
+      long startNanos = System.nanoTime();
+      try (Connection second = dataSource.getConnection()) {
+        assertTrue(
+            "the second connection waits for the full pool",
+            (System.nanoTime() - startNanos) / 1_000_000 < CONNECTION_TIMEOUT_MILLIS);
+        Map<String, HikariPoolMXBean> pools = new HashMap<>();
+        dataSource.putPoolMXBeans(pools);
+        assertEquals(1, pools.get("full#0").getActiveConnections());
+        assertEquals(1, pools.get("full#1").getActiveConnections());
+      }
+      assertFalse(health(dataSource).containsValue(false));
+    }
+  }
+
+  private static Pair<HikariConfig, Integer> replica(String url, int poolSize, int weight) {
+    HikariConfig config = new HikariConfig();
+    config.setJdbcUrl(url);
+    config.setMaximumPoolSize(poolSize);
+    config.setConnectionTimeout(CONNECTION_TIMEOUT_MILLIS);
+    if (url.equals(UNREACHABLE_URL)) {
+      // an unreachable replica is still created
+      config.setInitializationFailTimeout(-1);
+    }
+    return Pair.of(config, weight);
+  }
+
+  private static Map<String, Boolean> health(ReplicaGroupDataSource dataSource) {
+    Map<String, Boolean> health = new HashMap<>();
+    dataSource.putReplicaHealth(health);
+    return health;
+  }
+}
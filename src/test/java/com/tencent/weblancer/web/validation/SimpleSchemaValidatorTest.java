@@ -0,0 +1,137 @@
+package com.tencent.weblancer.web.validation;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.networknt.schema.JsonSchema;
+import com.networknt.schema.JsonSchemaFactory;
+import com.networknt.schema.SpecVersion;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author fishzhao
+ * @since 2021-03-27
+ */
+public class SimpleSchemaValidatorTest {
+
+  private static final JsonSchemaFactory SCHEMA_FACTORY =
+      JsonSchemaFactory.getInstance(SpecVersion.VersionFlag.V4);
+  private static final List<String> FALLBACK = Collections.singletonList("fallback");
+
+  private static final String SCHEMA =
+      "{'type': 'object', 'required': ['id'], 'additionalProperties': false, 'properties': {"
+          + " 'id': {'type': 'integer', 'minimum': 1, 'maximum': 9007199254740993},"
+          + " 'price': {'type': 'number', 'minimum': 0, 'exclusiveMinimum': true,"
+          + " 'maximum': 100.5},"
+          + " 'name': {'type': 'string', 'minLength': 2, 'maxLength': 3},"
+          + " 'status': {'enum': ['a', 'b', 1, null]},"
+          + " 'flag': {'type': 'boolean'},"
+          + " 'ids': {'type': 'array', 'items': {'type': 'integer', 'maximum': 10}},"
+          + " 'any': {'description': 'anything'}}}";
+
+  private static final String[] VALID =
+      new String[] {
+        "{'id': 1}",
+        "{'id': 9007199254740993, 'price': 100.5, 'name': 'ab', 'status': 'a', 'flag': true,"
+            + " 'ids': [1, 10], 'any': {'x': [1]}}",
+        "{'id': 2, 'price': 0.001, 'name': 'abc', 'status': null, 'ids': []}",
+        "{'id': 2, 'name': '\\ud83d\\ude00\\ud83d\\ude00', 'any': null}",
+      };
+
+  private static final String[] INVALID =
+      new String[] {
+        "{}",
+        "[]",
+        "1",
+        "{'id': 0}",
+        "{'id': 9007199254740994}",
+        "{'id': 18446744073709551616}",
+        "{'id': 1.5}",
+        "{'id': '1'}",
+        "{'id': 1, 'price': 0}",
+        "{'id': 1, 'price': -1}",
+        "{'id': 1, 'price': 100.51}",
+        "{'id': 1, 'price': 'x'}",
+        "{'id': 1, 'name': 'a'}",
+        "{'id': 1, 'name': 'abcd'}",
+        "{'id': 1, 'name': 1}",
+        "{'id': 1, 'status': 'c'}",
+        "{'id': 1, 'status': 2}",
+        "{'id': 1, 'flag': 'true'}",
+        "{'id': 1, 'ids': 1}",
+        "{'id': 1, 'ids': [1, 11]}",
+        "{'id': 1, 'ids': [1, '2']}",
+        "{'id': 1, 'unknown': 1}",
+      };
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  @Test
+  public void sameVerdictAsNetworknt() throws IOException {
+    JsonSchema schema = SCHEMA_FACTORY.getSchema(json(SCHEMA));
+    NetworkntParameterValidator networknt = new NetworkntParameterValidator(schema);
+    SimpleSchemaValidator simple = SimpleSchemaValidator.compile(schema.getSchemaNode(), networknt);
+    // fails whenever the fast path fails
+    SimpleSchemaValidator fastPath =
+        SimpleSchemaValidator.compile(schema.getSchemaNode(), parameters -> FALLBACK);
+    assertNotNull(simple);
+    assertTrue(ParameterValidators.compile(schema) instanceof SimpleSchemaValidator);
+
+    for (String document : VALID) {
+      JsonNode parameters = json(document);
+      assertEquals(document, Collections.emptyList(), networknt.validate(parameters));
+      assertEquals(document, Collections.emptyList(), simple.validate(parameters));
+      assertEquals(document, Collections.emptyList(), fastPath.validate(parameters));
+    }
+    for (String document : INVALID) {
+      JsonNode parameters = json(document);
+      List<String> messages = networknt.validate(parameters);
+      assertTrue(document, !messages.isEmpty());
+      assertEquals(document, new HashSet<>(messages), new HashSet<>(simple.validate(parameters)));
+      assertEquals(document, FALLBACK, fastPath.validate(parameters));
+    }
+  }
+
+  @Test
+  public void sameVerdictWithDefaults() throws IOException {
+    JsonSchema schema =
+        SCHEMA_FACTORY.getSchema(json("{'properties': {'id': {'type': 'integer'}}}"));
+    NetworkntParameterValidator networknt = new NetworkntParameterValidator(schema);
+    SimpleSchemaValidator simple = SimpleSchemaValidator.compile(schema.getSchemaNode(), networknt);
+    assertNotNull(simple);
+    for (String document : new String[] {"{}", "{'id': 1, 'unknown': 'x'}", "{'id': 'x'}"}) {
+      JsonNode parameters = json(document);
+      assertEquals(document, networknt.validate(parameters), simple.validate(parameters));
+    }
+  }
+
+  @Test
+  public void fallBackForComplexSchema() throws IOException {
+    for (String schema :
+        new String[] {
+          "{'type': 'array'}",
+          "{'properties': {'id': {'pattern': '^a'}}}",
+          "{'oneOf': [{'type': 'object'}]}",
+          "{'properties': {'id': {'type': ['string', 'null']}}}",
+          "{'additionalProperties': {'type': 'string'}}",
+        }) {
+      JsonSchema jsonSchema = SCHEMA_FACTORY.getSchema(json(schema));
+      assertNull(schema, SimpleSchemaValidator.compile(jsonSchema.getSchemaNode(), null));
+      assertTrue(
+          schema, ParameterValidators.compile(jsonSchema) instanceof NetworkntParameterValidator);
+    }
+  }
+
+  private JsonNode json(String json) throws IOException {
+    return objectMapper.readTree(json.replace('\'', '"'));
+  }
+}